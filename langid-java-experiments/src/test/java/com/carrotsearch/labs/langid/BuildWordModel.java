@@ -0,0 +1,112 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.carrotsearch.hppc.ObjectIntOpenHashMap;
+import com.carrotsearch.hppc.cursors.ObjectIntCursor;
+import com.carrotsearch.hppc.cursors.ObjectObjectCursor;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Build a {@link WordModel} (top-K words per language) from a tab-delimited
+ * corpus (<code>language\ttext</code> lines, like EuroParl data).
+ *
+ * <pre>
+ * BuildWordModel [corpus.tsv|europarl21] [topK] [output file]
+ * </pre>
+ *
+ * Note that EuroParl data is test data; a model built from it is only useful for
+ * experiments (evaluation on the same data would be biased).
+ */
+public class BuildWordModel {
+  public static void main(String[] args) throws IOException {
+    String corpus = args.length > 0 ? args[0] : "europarl21";
+    int topK = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    File output = new File(args.length > 2 ? args[2] : "langid.words");
+
+    List<ObjectObjectCursor<String,String>> data =
+        corpus.equals("europarl21")
+        ? EuroParlData.europarl21()
+        : EuroParlData.readTabDelimited(new File(corpus).toURI().toURL());
+
+    WordModel words = build(data, topK);
+
+    ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(output));
+    try {
+      words.writeExternal(oos);
+    } finally {
+      oos.close();
+    }
+    System.out.println("Languages: " + words.getLanguages() + ", written to: " + output.getAbsolutePath());
+  }
+
+  /**
+   * Count words in each language, pick top-K of them and estimate their
+   * log-probabilities. The floor is the log-probability of the most frequent
+   * word that didn't make it to the top-K list.
+   */
+  public static WordModel build(Iterable<ObjectObjectCursor<String,String>> data, int topK) {
+    Map<String, ObjectIntOpenHashMap<String>> counts = Maps.newTreeMap();
+    Map<String, Integer> totals = Maps.newTreeMap();
+    for (ObjectObjectCursor<String,String> c : data) {
+      ObjectIntOpenHashMap<String> langCounts = counts.get(c.key);
+      if (langCounts == null) {
+        counts.put(c.key, langCounts = ObjectIntOpenHashMap.newInstance());
+        totals.put(c.key, 0);
+      }
+
+      String text = c.value;
+      int words = 0;
+      for (int i = 0; i < text.length();) {
+        while (i < text.length() && !WordModel.isWordCodePoint(text.codePointAt(i))) {
+          i += Character.charCount(text.codePointAt(i));
+        }
+        int start = i;
+        while (i < text.length() && WordModel.isWordCodePoint(text.codePointAt(i))) {
+          i += Character.charCount(text.codePointAt(i));
+        }
+        if (start < i) {
+          langCounts.putOrAdd(WordModel.normalize(text.substring(start, i)), 1, 1);
+          words++;
+        }
+      }
+      totals.put(c.key, totals.get(c.key) + words);
+    }
+
+    Map<String, Map<String, Float>> logProbs = Maps.newLinkedHashMap();
+    Map<String, Float> floors = Maps.newLinkedHashMap();
+    for (Map.Entry<String, ObjectIntOpenHashMap<String>> e : counts.entrySet()) {
+      // Cursors are reused by hppc iterators, copy them.
+      List<Map.Entry<String, Integer>> sorted = Lists.newArrayList();
+      for (ObjectIntCursor<String> c : e.getValue()) {
+        sorted.add(Maps.immutableEntry(c.key, c.value));
+      }
+      Collections.sort(sorted, new Comparator<Map.Entry<String, Integer>>() {
+        @Override
+        public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+          int cmp = b.getValue().compareTo(a.getValue());
+          return cmp != 0 ? cmp : a.getKey().compareTo(b.getKey());
+        }
+      });
+
+      double total = totals.get(e.getKey());
+      Map<String, Float> top = Maps.newLinkedHashMap();
+      for (Map.Entry<String, Integer> c : sorted.subList(0, Math.min(topK, sorted.size()))) {
+        top.put(c.getKey(), (float) Math.log(c.getValue() / total));
+      }
+      logProbs.put(e.getKey(), top);
+      floors.put(e.getKey(), (float) Math.log(
+          (sorted.size() > topK ? sorted.get(topK).getValue() : 0.5) / total));
+    }
+
+    return WordModel.build(logProbs, floors);
+  }
+}
@@ -0,0 +1,348 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Cold start benchmark. Each model loader is run in a number of fresh JVMs,
+ * each of which measures:
+ * <ul>
+ * <li>JVM uptime when <code>main</code> is entered,</li>
+ * <li>time to load the model,</li>
+ * <li>time to the first classification (including the model load),</li>
+ * <li>time to steady-state throughput (consecutive rounds of classifying
+ * EuroParl documents within 5% of each other) and that throughput,</li>
+ * <li>peak heap use while the model is loaded (sum of heap pools' peaks) and
+ * heap retained after a GC,</li>
+ * <li>resident set size (and its peak) at the end (Linux only).</li>
+ * </ul>
+ *
+ * <pre>
+ * ColdStartBenchmark [-forks N] [-jvmArg arg]* [loader...]
+ * </pre>
+ *
+ * Loaders are given as <code>name[:argument]</code>: <code>default</code>
+ * ({@link Model#defaultModel()}, decoded from parallel sections), <code>lzma</code>
+ * (the single LZMA stream, see {@link LzmaModel}), <code>serialized[:file]</code> (uncompressed
+ * {@link Model#readExternal} stream; a temporary copy of the default model is
+ * written if no file is given) or a class name implementing {@link Loader}
+ * (with a public no-argument constructor or a <code>String</code>
+ * constructor receiving the argument).
+ */
+public class ColdStartBenchmark {
+  /** Prefix of result lines printed by forked JVMs. */
+  private final static String RESULT = "coldstart:";
+
+  /** Documents per throughput measurement round. */
+  private final static int ROUND_DOCS = 2000;
+
+  /** Maximum number of throughput measurement rounds. */
+  private final static int MAX_ROUNDS = 500;
+
+  /**
+   * A pluggable model loader.
+   */
+  public static interface Loader {
+    Model load() throws Exception;
+  }
+
+  static final class DefaultLoader implements Loader {
+    @Override
+    public Model load() {
+      return Model.defaultModel();
+    }
+  }
+
+  static final class LzmaLoader implements Loader {
+    @Override
+    public Model load() {
+      return LzmaModel.load();
+    }
+  }
+
+  static final class SerializedLoader implements Loader {
+    private final File file;
+
+    SerializedLoader(String file) {
+      this.file = new File(file);
+    }
+
+    @Override
+    public Model load() throws Exception {
+      ObjectInputStream in = new ObjectInputStream(
+          new BufferedInputStream(new FileInputStream(file), 1 << 16));
+      try {
+        return Model.readExternal(in);
+      } finally {
+        in.close();
+      }
+    }
+  }
+
+  /**
+   * Parse a <code>name[:argument]</code> loader specification.
+   */
+  static Loader loader(String spec) throws Exception {
+    int colon = spec.indexOf(':');
+    String name = colon < 0 ? spec : spec.substring(0, colon);
+    String argument = colon < 0 ? null : spec.substring(colon + 1);
+
+    if (name.equals("default")) {
+      return new DefaultLoader();
+    } else if (name.equals("lzma")) {
+      return new LzmaLoader();
+    } else if (name.equals("serialized")) {
+      if (argument == null) {
+        throw new IllegalArgumentException("A file is required: " + spec);
+      }
+      return new SerializedLoader(argument);
+    } else {
+      Class<? extends Loader> clazz = Class.forName(name).asSubclass(Loader.class);
+      if (argument == null) {
+        return clazz.newInstance();
+      } else {
+        return clazz.getConstructor(String.class).newInstance(argument);
+      }
+    }
+  }
+
+  /**
+   * Measurements in a forked JVM.
+   */
+  public static final class Child {
+    public static void main(String [] args) throws Exception {
+      final long mainNanos = System.nanoTime();
+      final long uptimeAtMain = ManagementFactory.getRuntimeMXBean().getUptime();
+      final Loader loader = loader(args[0]);
+
+      final List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP) {
+          heapPools.add(pool);
+          pool.resetPeakUsage();
+        }
+      }
+
+      long start = System.nanoTime();
+      final Model model = loader.load();
+      final long loadNanos = System.nanoTime() - start;
+
+      long peakHeap = 0;
+      for (MemoryPoolMXBean pool : heapPools) {
+        peakHeap += pool.getPeakUsage().getUsed();
+      }
+
+      final LangIdV3 langid = new LangIdV3(model);
+      langid.classify("Startup is the main pain point for short-lived batch jobs.", true);
+      final long firstNanos = System.nanoTime() - mainNanos;
+
+      System.gc();
+      long retainedHeap = 0;
+      for (MemoryPoolMXBean pool : heapPools) {
+        retainedHeap += pool.getUsage().getUsed();
+      }
+
+      // Throughput rounds until three consecutive rounds are within 5% of each other.
+      MappedCorpus corpus = EuroParlData.mappedEuroparl21();
+      String [] docs = new String [Math.min(ROUND_DOCS, corpus.size())];
+      for (int i = 0; i < docs.length; i++) {
+        docs[i] = corpus.text(i);
+      }
+      double [] throughput = new double [MAX_ROUNDS];
+      int rounds = 0;
+      int dummy = 0;
+      long steadyNanos = -1;
+      while (rounds < MAX_ROUNDS) {
+        long roundStart = System.nanoTime();
+        for (String doc : docs) {
+          dummy += langid.classify(doc, true).langCode.length();
+        }
+        long now = System.nanoTime();
+        throughput[rounds++] = docs.length / ((now - roundStart) / 1e9);
+        if (rounds >= 3) {
+          double min = Math.min(throughput[rounds - 1], Math.min(throughput[rounds - 2], throughput[rounds - 3]));
+          double max = Math.max(throughput[rounds - 1], Math.max(throughput[rounds - 2], throughput[rounds - 3]));
+          if (max <= min * 1.05) {
+            steadyNanos = now - mainNanos;
+            break;
+          }
+        }
+      }
+
+      Map<String, String> status = procStatus();
+      System.out.println(String.format(Locale.ENGLISH,
+          RESULT + " uptimeAtMain=%d load=%d first=%d steady=%d rounds=%d docsPerSec=%.0f"
+          + " peakHeap=%d retainedHeap=%d rss=%d peakRss=%d dummy=%d",
+          uptimeAtMain * 1000000L, loadNanos, firstNanos, steadyNanos, rounds, throughput[rounds - 1],
+          peakHeap, retainedHeap, kiloBytes(status.get("VmRSS")), kiloBytes(status.get("VmHWM")), dummy));
+    }
+  }
+
+  /** @return Returns <code>/proc/self/status</code> entries (empty if not available). */
+  private static Map<String, String> procStatus() {
+    Map<String, String> status = new LinkedHashMap<String, String>();
+    File file = new File("/proc/self/status");
+    if (file.canRead()) {
+      try {
+        for (String line : Files.readLines(file, Charsets.UTF_8)) {
+          int colon = line.indexOf(':');
+          if (colon > 0) {
+            status.put(line.substring(0, colon), line.substring(colon + 1).trim());
+          }
+        }
+      } catch (IOException e) {
+        // Ignore, no data.
+      }
+    }
+    return status;
+  }
+
+  /** @return Returns the number of bytes of a <code>123 kB</code> value or -1. */
+  private static long kiloBytes(String value) {
+    if (value == null || !value.endsWith(" kB")) {
+      return -1;
+    }
+    return Long.parseLong(value.substring(0, value.length() - 3).trim()) * 1024;
+  }
+
+  /**
+   * Run a loader in a fresh JVM.
+   *
+   * @return Returns the measurements of the forked JVM.
+   */
+  static Map<String, Long> fork(String loader, List<String> jvmArgs) throws IOException, InterruptedException {
+    List<String> command = new ArrayList<String>();
+    command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath());
+    command.addAll(jvmArgs);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(Child.class.getName());
+    command.add(loader);
+
+    Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    process.getOutputStream().close();
+
+    Map<String, Long> result = null;
+    StringBuilder output = new StringBuilder();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), Charsets.UTF_8));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(RESULT)) {
+          result = new LinkedHashMap<String, Long>();
+          for (String kv : line.substring(RESULT.length()).trim().split(" ")) {
+            int eq = kv.indexOf('=');
+            result.put(kv.substring(0, eq), Long.parseLong(kv.substring(eq + 1)));
+          }
+        } else {
+          output.append(line).append('\n');
+        }
+      }
+    } finally {
+      reader.close();
+    }
+
+    int exitCode = process.waitFor();
+    if (exitCode != 0 || result == null) {
+      throw new RuntimeException("Forked JVM failed (exit code " + exitCode + "):\n" + output);
+    }
+    return result;
+  }
+
+  public static void main(String [] args) throws Exception {
+    int forks = 5;
+    List<String> jvmArgs = new ArrayList<String>();
+    List<String> loaders = new ArrayList<String>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-forks")) {
+        forks = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-jvmArg")) {
+        jvmArgs.add(args[++i]);
+      } else {
+        loaders.add(args[i]);
+      }
+    }
+    if (loaders.isEmpty()) {
+      loaders.addAll(Arrays.asList("default", "lzma", "serialized"));
+    }
+
+    File serialized = null;
+    for (int i = 0; i < loaders.size(); i++) {
+      if (loaders.get(i).equals("serialized")) {
+        if (serialized == null) {
+          serialized = File.createTempFile("langid", ".model");
+          serialized.deleteOnExit();
+          ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(serialized));
+          try {
+            Model.defaultModel().writeExternal(oos);
+          } finally {
+            oos.close();
+          }
+        }
+        loaders.set(i, "serialized:" + serialized.getAbsolutePath());
+      }
+    }
+
+    System.out.println(String.format(Locale.ENGLISH,
+        "%-30s %-10s %10s %10s %10s %10s %12s %10s %10s %10s %10s",
+        "loader", "", "main (ms)", "load (ms)", "first (ms)", "steady (ms)", "docs/sec.",
+        "heap (MB)", "retained", "rss (MB)", "peak rss"));
+    for (String loader : loaders) {
+      List<Map<String, Long>> results = new ArrayList<Map<String, Long>>();
+      for (int f = 0; f < forks; f++) {
+        results.add(fork(loader, jvmArgs));
+      }
+
+      String name = loader.length() > 30 ? loader.substring(0, 27) + "..." : loader;
+      for (String stat : new String [] {"min", "median", "max"}) {
+        System.out.println(String.format(Locale.ENGLISH,
+            "%-30s %-10s %10.1f %10.1f %10.1f %10.1f %12.0f %10.1f %10.1f %10.1f %10.1f",
+            name, stat,
+            stat(results, "uptimeAtMain", stat) / 1e6,
+            stat(results, "load", stat) / 1e6,
+            stat(results, "first", stat) / 1e6,
+            stat(results, "steady", stat) / 1e6,
+            (double) stat(results, "docsPerSec", stat),
+            stat(results, "peakHeap", stat) / (1024 * 1024.0),
+            stat(results, "retainedHeap", stat) / (1024 * 1024.0),
+            stat(results, "rss", stat) / (1024 * 1024.0),
+            stat(results, "peakRss", stat) / (1024 * 1024.0)));
+        name = "";
+      }
+    }
+  }
+
+  private static long stat(List<Map<String, Long>> results, String key, String stat) {
+    long [] values = new long [results.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = results.get(i).get(key);
+    }
+    Arrays.sort(values);
+    if (stat.equals("min")) {
+      return values[0];
+    } else if (stat.equals("max")) {
+      return values[values.length - 1];
+    } else {
+      return values[values.length / 2];
+    }
+  }
+}
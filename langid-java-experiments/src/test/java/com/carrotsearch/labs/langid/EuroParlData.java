@@ -24,7 +24,21 @@ public final class EuroParlData {
     return readTabDelimited(Resources.getResource(EuroParlData.class, "/europarl.18.test"));
   }
 
-  private static List<ObjectObjectCursor<String,String>> readTabDelimited(
+  /**
+   * Memory mapped EuroParl test data (21 languages).
+   */
+  public static MappedCorpus mappedEuroparl21() throws IOException {
+    return MappedCorpus.open(Resources.getResource(EuroParlData.class, "/europarl.21.test"));
+  }
+
+  /**
+   * Memory mapped EuroParl test data (18 languages).
+   */
+  public static MappedCorpus mappedEuroparl18() throws IOException {
+    return MappedCorpus.open(Resources.getResource(EuroParlData.class, "/europarl.18.test"));
+  }
+
+  static List<ObjectObjectCursor<String,String>> readTabDelimited(
       URL resource) throws IOException {
     return Resources.readLines(resource, Charsets.UTF_8, new LineProcessor<List<ObjectObjectCursor<String,String>>>() {
       private final List<ObjectObjectCursor<String,String>> list = Lists.newArrayList();
@@ -1,17 +1,37 @@
 package com.carrotsearch.labs.langid;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.carrotsearch.hppc.cursors.ObjectObjectCursor;
 import com.google.common.base.Objects;
+import com.google.common.base.Supplier;
 
+/**
+ * Classification quality and throughput evaluation.
+ *
+ * <pre>
+ * EvaluateQuality [threads] [europarl21|europarl18|corpus.tsv]
+ * </pre>
+ */
 public class EvaluateQuality {
+  /** Upper bounds (exclusive, in UTF8 bytes) of document length buckets. */
+  private final static int [] LENGTH_BUCKETS = {32, 64, 128, 256, 512, 1024, Integer.MAX_VALUE};
+
   public static <T extends CharSequence> void run(
       Iterable<ObjectObjectCursor<String,T>> testData,
       IClassifier<String,T> classifier) {
-    
+
     long start = System.currentTimeMillis();
-    
+
     int correct = 0;
     int total = 0;
     for (ObjectObjectCursor<String,T> c : testData) {
@@ -22,12 +42,278 @@ public class EvaluateQuality {
         correct++;
       }
     }
-    
+
     long end = System.currentTimeMillis();
 
     System.out.println(String.format(Locale.ENGLISH,
         "%10d/%10d (%3.4f%%) in %.2f sec. (%.0f docs/sec.)", correct, total,
         (correct * 100.0d / total), (end - start) / 1000.0d, total
             / ((end - start) / 1000.0d)));
-  }  
+  }
+
+  /**
+   * Classify all documents of a corpus on <code>threads</code> threads (each
+   * thread uses a separate classifier from <code>classifiers</code>; documents
+   * are assigned to threads round-robin).
+   */
+  public static Report evaluate(
+      final MappedCorpus corpus,
+      final Supplier<? extends IClassifier<String,String>> classifiers,
+      int threads) {
+    final int size = corpus.size();
+    final String [] predicted = new String [size];
+    final long [] nanos = new long [size];
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    final Thread [] workers = new Thread [threads];
+    for (int t = 0; t < threads; t++) {
+      final int shard = t;
+      final IClassifier<String,String> classifier = classifiers.get();
+      workers[t] = new Thread("evaluate-" + t) {
+        @Override
+        public void run() {
+          try {
+            for (int doc = shard; doc < size; doc += workers.length) {
+              String text = corpus.text(doc);
+              long start = System.nanoTime();
+              predicted[doc] = classifier.classify(text);
+              nanos[doc] = System.nanoTime() - start;
+            }
+          } catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      };
+    }
+
+    long start = System.nanoTime();
+    for (Thread t : workers) {
+      t.start();
+    }
+    for (Thread t : workers) {
+      try {
+        t.join();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    long wallNanos = System.nanoTime() - start;
+
+    if (error.get() != null) {
+      throw new RuntimeException("Evaluation failed.", error.get());
+    }
+    return new Report(corpus, predicted, nanos, wallNanos, threads);
+  }
+
+  /**
+   * Evaluation results.
+   */
+  public static final class Report {
+    public final int documents;
+    public final int correct;
+    public final int threads;
+    public final long wallNanos;
+
+    /** Confusion matrix: expected label -> predicted label -> count. */
+    public final Map<String, Map<String, Integer>> confusion = new TreeMap<String, Map<String, Integer>>();
+
+    private final long [] sortedNanos;
+    private final long totalNanos;
+    private final int [][] bucketDocs;
+    private final long [][] bucketNanos;
+
+    Report(MappedCorpus corpus, String [] predicted, long [] nanos, long wallNanos, int threads) {
+      this.documents = corpus.size();
+      this.wallNanos = wallNanos;
+      this.threads = threads;
+
+      // Per bucket: documents, correct, and latencies.
+      List<long[]> bucketNanos = new ArrayList<long[]>();
+      int [] bucketCounts = new int [LENGTH_BUCKETS.length];
+      int [] bucketCorrect = new int [LENGTH_BUCKETS.length];
+      for (int i = 0; i < LENGTH_BUCKETS.length; i++) {
+        bucketNanos.add(new long [documents]);
+      }
+
+      int correct = 0;
+      long totalNanos = 0;
+      for (int doc = 0; doc < documents; doc++) {
+        String expected = corpus.label(doc);
+        String actual = String.valueOf(predicted[doc]);
+        boolean ok = expected.equals(actual);
+        if (ok) {
+          correct++;
+        }
+
+        Map<String, Integer> row = confusion.get(expected);
+        if (row == null) {
+          confusion.put(expected, row = new TreeMap<String, Integer>());
+        }
+        Integer count = row.get(actual);
+        row.put(actual, count == null ? 1 : count + 1);
+
+        int bucket = bucket(corpus.byteLength(doc));
+        bucketNanos.get(bucket)[bucketCounts[bucket]++] = nanos[doc];
+        if (ok) {
+          bucketCorrect[bucket]++;
+        }
+        totalNanos += nanos[doc];
+      }
+      this.correct = correct;
+      this.totalNanos = totalNanos;
+
+      this.sortedNanos = nanos.clone();
+      Arrays.sort(sortedNanos);
+
+      this.bucketDocs = new int [][] {bucketCounts, bucketCorrect};
+      this.bucketNanos = new long [LENGTH_BUCKETS.length][];
+      for (int i = 0; i < LENGTH_BUCKETS.length; i++) {
+        this.bucketNanos[i] = Arrays.copyOf(bucketNanos.get(i), bucketCounts[i]);
+        Arrays.sort(this.bucketNanos[i]);
+      }
+    }
+
+    public double accuracy() {
+      return documents == 0 ? 0 : correct / (double) documents;
+    }
+
+    /** @return Returns documents per second (wall clock time, all threads). */
+    public double docsPerSecond() {
+      return documents / (wallNanos / 1e9);
+    }
+
+    /** @return Returns a latency percentile (0-1) of a single classification. */
+    public long latencyNanos(double quantile) {
+      return percentile(sortedNanos, quantile);
+    }
+
+    /** @return Returns the precision of a label (0 if it was never predicted). */
+    public double precision(String label) {
+      int predicted = 0;
+      for (Map<String, Integer> row : confusion.values()) {
+        Integer count = row.get(label);
+        predicted += count == null ? 0 : count;
+      }
+      return predicted == 0 ? 0 : truePositives(label) / (double) predicted;
+    }
+
+    /** @return Returns the recall of a label (0 if there are no such documents). */
+    public double recall(String label) {
+      Map<String, Integer> row = confusion.get(label);
+      if (row == null) {
+        return 0;
+      }
+      int total = 0;
+      for (int count : row.values()) {
+        total += count;
+      }
+      return truePositives(label) / (double) total;
+    }
+
+    private int truePositives(String label) {
+      Map<String, Integer> row = confusion.get(label);
+      Integer count = row == null ? null : row.get(label);
+      return count == null ? 0 : count;
+    }
+
+    public void print(PrintStream out) {
+      out.println(String.format(Locale.ENGLISH,
+          "%10d/%10d (%3.4f%%) in %.2f sec. on %d thread(s) (%.0f docs/sec., latency p50: %.1fus, p99: %.1fus)",
+          correct, documents, accuracy() * 100, wallNanos / 1e9, threads, docsPerSecond(),
+          latencyNanos(0.5) / 1e3, latencyNanos(0.99) / 1e3));
+
+      // Confusion matrix (rows: expected, columns: predicted).
+      TreeSet<String> columns = new TreeSet<String>();
+      for (Map<String, Integer> row : confusion.values()) {
+        columns.addAll(row.keySet());
+      }
+      out.println();
+      out.println("Confusion matrix (rows: expected, columns: predicted):");
+      StringBuilder b = new StringBuilder(String.format(Locale.ENGLISH, "%-6s", ""));
+      for (String column : columns) {
+        b.append(String.format(Locale.ENGLISH, "%6s", column));
+      }
+      out.println(b);
+      for (Map.Entry<String, Map<String, Integer>> row : confusion.entrySet()) {
+        b.setLength(0);
+        b.append(String.format(Locale.ENGLISH, "%-6s", row.getKey()));
+        for (String column : columns) {
+          Integer count = row.getValue().get(column);
+          b.append(String.format(Locale.ENGLISH, "%6s", count == null ? "." : count.toString()));
+        }
+        out.println(b);
+      }
+
+      out.println();
+      out.println(String.format(Locale.ENGLISH, "%-6s %10s %10s %10s", "lang", "precision", "recall", "f1"));
+      for (String label : confusion.keySet()) {
+        double p = precision(label);
+        double r = recall(label);
+        out.println(String.format(Locale.ENGLISH, "%-6s %10.4f %10.4f %10.4f",
+            label, p, r, p + r == 0 ? 0 : 2 * p * r / (p + r)));
+      }
+
+      out.println();
+      out.println(String.format(Locale.ENGLISH, "%-12s %8s %10s %12s %10s %10s %10s",
+          "bytes", "docs", "accuracy", "docs/sec/thr", "p50 (us)", "p90 (us)", "p99 (us)"));
+      for (int i = 0, from = 0; i < LENGTH_BUCKETS.length; from = LENGTH_BUCKETS[i++]) {
+        int docs = bucketDocs[0][i];
+        if (docs == 0) {
+          continue;
+        }
+        long sum = 0;
+        for (long n : bucketNanos[i]) {
+          sum += n;
+        }
+        String range = LENGTH_BUCKETS[i] == Integer.MAX_VALUE ? from + "+" : from + "-" + (LENGTH_BUCKETS[i] - 1);
+        out.println(String.format(Locale.ENGLISH, "%-12s %8d %9.4f%% %12.0f %10.1f %10.1f %10.1f",
+            range, docs, bucketDocs[1][i] * 100.0 / docs, docs / (sum / 1e9),
+            percentile(bucketNanos[i], 0.5) / 1e3,
+            percentile(bucketNanos[i], 0.9) / 1e3,
+            percentile(bucketNanos[i], 0.99) / 1e3));
+      }
+      out.println(String.format(Locale.ENGLISH, "Classification time (all threads): %.2f sec.", totalNanos / 1e9));
+    }
+  }
+
+  private static int bucket(int length) {
+    int i = 0;
+    while (length >= LENGTH_BUCKETS[i]) {
+      i++;
+    }
+    return i;
+  }
+
+  static long percentile(long [] sorted, double quantile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(quantile * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+
+  public static void main(String [] args) throws IOException {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+    String corpusName = args.length > 1 ? args[1] : "europarl21";
+    final MappedCorpus corpus;
+    if (corpusName.equals("europarl21")) {
+      corpus = EuroParlData.mappedEuroparl21();
+    } else if (corpusName.equals("europarl18")) {
+      corpus = EuroParlData.mappedEuroparl18();
+    } else {
+      corpus = MappedCorpus.open(new java.io.File(corpusName));
+    }
+
+    final Model model = Model.defaultModel();
+    Supplier<IClassifier<String,String>> classifiers = new Supplier<IClassifier<String,String>>() {
+      @Override
+      public IClassifier<String,String> get() {
+        return new LangIdV3ClassifierAdapter(new LangIdV3(model));
+      }
+    };
+
+    // Warm up, then evaluate.
+    evaluate(corpus, classifiers, threads);
+    evaluate(corpus, classifiers, threads).print(System.out);
+  }
 }
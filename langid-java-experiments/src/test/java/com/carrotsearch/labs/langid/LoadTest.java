@@ -0,0 +1,455 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.google.common.base.Charsets;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * A concurrent load test of a (thread-safe) classifier.
+ *
+ * <p>
+ * In the <b>closed loop</b> mode (no <code>-rate</code>), each of the
+ * <code>-clients</code> threads sends a new request as soon as the previous
+ * one completes, which measures the maximum throughput. In the <b>open
+ * loop</b> mode, requests arrive at a fixed rate: request <code>i</code> is
+ * due at <code>start + i / rate</code> and is handled by client
+ * <code>i % clients</code>. Latency is measured from the time a request was
+ * due, not from when it was actually sent, so queueing delays behind slow
+ * requests are counted (a correction for <i>coordinated omission</i>); service
+ * time (from the actual send) is reported separately.
+ *
+ * <p>
+ * Documents are drawn at random (seeded) from a corpus, so the input length
+ * mix follows the corpus (or a {@link WorkloadGenerator} file). GC pauses
+ * during each run are collected from GC notifications.
+ *
+ * <pre>
+ * LoadTest [-clients N] [-rate docs/sec[,docs/sec...]] [-seconds S] [-warmup S]
+ *          [-target perthread|shared|cache] [-corpus europarl21|europarl18|corpus.tsv|workload.lidw]
+ *          [-seed N] [-csv file]
+ * </pre>
+ *
+ * Multiple rates are run in sequence (a capacity curve); <code>-csv</code>
+ * appends one line per run.
+ */
+public class LoadTest {
+  /**
+   * A single-threaded histogram of non-negative values (nanoseconds) with
+   * logarithmic buckets, each split into 64 linear sub-buckets (values are
+   * accurate to within 1/64).
+   */
+  static final class Histogram {
+    private final static int SUB_BITS = 6;
+    private final static int SUB = 1 << SUB_BITS;
+
+    private final long [] counts = new long [2 * SUB + (63 - SUB_BITS - 1) * SUB];
+    private long count;
+    private long max;
+    private double sum;
+
+    void record(long value) {
+      value = Math.max(0, value);
+      counts[index(value)]++;
+      count++;
+      sum += value;
+      max = Math.max(max, value);
+    }
+
+    void add(Histogram other) {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += other.counts[i];
+      }
+      count += other.count;
+      sum += other.sum;
+      max = Math.max(max, other.max);
+    }
+
+    static int index(long value) {
+      if (value < 2 * SUB) {
+        return (int) value;
+      }
+      int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+      return 2 * SUB + (shift - 1) * SUB + (int) ((value >>> shift) - SUB);
+    }
+
+    /** @return Returns the (inclusive) upper bound of values in a bucket. */
+    static long upperBound(int index) {
+      if (index < 2 * SUB) {
+        return index;
+      }
+      int shift = (index - 2 * SUB) / SUB + 1;
+      long sub = (index - 2 * SUB) % SUB + SUB;
+      return ((sub + 1) << shift) - 1;
+    }
+
+    long count() {
+      return count;
+    }
+
+    long max() {
+      return max;
+    }
+
+    double mean() {
+      return count == 0 ? 0 : sum / count;
+    }
+
+    long percentile(double quantile) {
+      long rank = Math.max(1, (long) Math.ceil(quantile * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(max, upperBound(i));
+        }
+      }
+      return max;
+    }
+  }
+
+  /**
+   * GC pauses reported while a run is in progress.
+   */
+  static final class GcPauses implements NotificationListener {
+    private final List<NotificationEmitter> emitters = new ArrayList<NotificationEmitter>();
+    private volatile boolean recording;
+    private long count;
+    private long totalMillis;
+    private long maxMillis;
+
+    GcPauses() {
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+        if (gc instanceof NotificationEmitter) {
+          ((NotificationEmitter) gc).addNotificationListener(this, null, null);
+          emitters.add((NotificationEmitter) gc);
+        }
+      }
+    }
+
+    @Override
+    public synchronized void handleNotification(Notification notification, Object handback) {
+      if (recording && notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+        GarbageCollectionNotificationInfo info =
+            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long millis = info.getGcInfo().getDuration();
+        count++;
+        totalMillis += millis;
+        maxMillis = Math.max(maxMillis, millis);
+      }
+    }
+
+    synchronized void start() {
+      count = totalMillis = maxMillis = 0;
+      recording = true;
+    }
+
+    void stop() {
+      recording = false;
+    }
+
+    void close() throws Exception {
+      for (NotificationEmitter emitter : emitters) {
+        emitter.removeNotificationListener(this);
+      }
+    }
+  }
+
+  /**
+   * Results of a single run.
+   */
+  static final class Run {
+    final Histogram latency = new Histogram();
+    final Histogram service = new Histogram();
+    long wallNanos;
+    long gcCount;
+    long gcTotalMillis;
+    long gcMaxMillis;
+
+    double throughput() {
+      return service.count() / (wallNanos / 1e9);
+    }
+  }
+
+  /**
+   * Run the load test.
+   *
+   * @param rate Requests per second or zero for the closed loop mode.
+   */
+  static Run run(final IClassifier<String,String> target, final String [] docs,
+                 final int clients, final double rate, final long durationNanos,
+                 final long seed, GcPauses gc) {
+    final Histogram [] latencies = new Histogram [clients];
+    final Histogram [] services = new Histogram [clients];
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final long start = System.nanoTime() + 50 * 1000000L;
+    final long end = start + durationNanos;
+
+    Thread [] threads = new Thread [clients];
+    for (int t = 0; t < clients; t++) {
+      final int client = t;
+      latencies[t] = new Histogram();
+      services[t] = new Histogram();
+      threads[t] = new Thread("load-" + t) {
+        @Override
+        public void run() {
+          try {
+            Random rnd = new Random(seed + client);
+            Histogram latency = latencies[client];
+            Histogram service = services[client];
+            while (System.nanoTime() < start) {
+              LockSupport.parkNanos(start - System.nanoTime());
+            }
+
+            for (long i = client;; i += clients) {
+              final long due;
+              if (rate > 0) {
+                due = start + (long) (i * 1e9 / rate);
+                if (due >= end) {
+                  break;
+                }
+                long now;
+                while ((now = System.nanoTime()) < due) {
+                  LockSupport.parkNanos(due - now);
+                }
+              } else {
+                due = System.nanoTime();
+                if (due >= end) {
+                  break;
+                }
+              }
+
+              String doc = docs[rnd.nextInt(docs.length)];
+              long sent = System.nanoTime();
+              if (target.classify(doc) == null) {
+                throw new RuntimeException("No result for: " + doc);
+              }
+              long done = System.nanoTime();
+              service.record(done - sent);
+              latency.record(done - due);
+            }
+          } catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      };
+    }
+
+    gc.start();
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      try {
+        t.join();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    long wallNanos = System.nanoTime() - start;
+    gc.stop();
+
+    if (error.get() != null) {
+      throw new RuntimeException("Load test failed.", error.get());
+    }
+
+    Run run = new Run();
+    for (int t = 0; t < clients; t++) {
+      run.latency.add(latencies[t]);
+      run.service.add(services[t]);
+    }
+    run.wallNanos = wallNanos;
+    synchronized (gc) {
+      run.gcCount = gc.count;
+      run.gcTotalMillis = gc.totalMillis;
+      run.gcMaxMillis = gc.maxMillis;
+    }
+    return run;
+  }
+
+  /**
+   * @return Returns a thread-safe classifier of the given type.
+   */
+  static IClassifier<String,String> target(String type, final Model model) {
+    if (type.equals("perthread")) {
+      return new IClassifier<String,String>() {
+        private final ThreadLocal<LangIdV3> langid = new ThreadLocal<LangIdV3>() {
+          @Override
+          protected LangIdV3 initialValue() {
+            return new LangIdV3(model);
+          }
+        };
+
+        @Override
+        public String classify(String data) {
+          return langid.get().classify(data, true).langCode;
+        }
+
+        @Override
+        public String getName() {
+          return "perthread";
+        }
+      };
+    } else if (type.equals("shared")) {
+      return new IClassifier<String,String>() {
+        private final LangIdV3 langid = new LangIdV3(model);
+
+        @Override
+        public synchronized String classify(String data) {
+          return langid.classify(data, true).langCode;
+        }
+
+        @Override
+        public String getName() {
+          return "shared";
+        }
+      };
+    } else if (type.equals("cache")) {
+      return new IClassifier<String,String>() {
+        private final LangIdCache cache = new LangIdCache(model, 1 << 16, LangIdCache.DEFAULT_MAX_KEY_BYTES);
+
+        @Override
+        public String classify(String data) {
+          return cache.classify(data, true).langCode;
+        }
+
+        @Override
+        public String getName() {
+          return "cache";
+        }
+      };
+    } else {
+      throw new IllegalArgumentException("Unknown target: " + type);
+    }
+  }
+
+  public static void main(String [] args) throws Exception {
+    int clients = Runtime.getRuntime().availableProcessors();
+    List<Double> rates = new ArrayList<Double>();
+    double seconds = 10;
+    double warmup = 5;
+    String targetType = "perthread";
+    String corpusName = "europarl21";
+    long seed = 0x1234L;
+    File csv = null;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("-clients")) {
+        clients = Integer.parseInt(args[++i]);
+      } else if (arg.equals("-rate")) {
+        for (String rate : args[++i].split(",")) {
+          rates.add(Double.parseDouble(rate));
+        }
+      } else if (arg.equals("-seconds")) {
+        seconds = Double.parseDouble(args[++i]);
+      } else if (arg.equals("-warmup")) {
+        warmup = Double.parseDouble(args[++i]);
+      } else if (arg.equals("-target")) {
+        targetType = args[++i];
+      } else if (arg.equals("-corpus")) {
+        corpusName = args[++i];
+      } else if (arg.equals("-seed")) {
+        seed = Long.parseLong(args[++i]);
+      } else if (arg.equals("-csv")) {
+        csv = new File(args[++i]);
+      } else {
+        throw new IllegalArgumentException("Unknown argument: " + arg);
+      }
+    }
+    if (rates.isEmpty()) {
+      rates.add(0d);
+    }
+
+    final String [] docs;
+    if (corpusName.endsWith(".lidw")) {
+      Workload workload = Workload.open(new File(corpusName));
+      docs = new String [workload.size()];
+      for (int i = 0; i < docs.length; i++) {
+        docs[i] = workload.text(i);
+      }
+    } else {
+      final MappedCorpus corpus;
+      if (corpusName.equals("europarl21")) {
+        corpus = EuroParlData.mappedEuroparl21();
+      } else if (corpusName.equals("europarl18")) {
+        corpus = EuroParlData.mappedEuroparl18();
+      } else {
+        corpus = MappedCorpus.open(new File(corpusName));
+      }
+      docs = new String [corpus.size()];
+      for (int i = 0; i < docs.length; i++) {
+        docs[i] = corpus.text(i);
+      }
+    }
+
+    IClassifier<String,String> target = target(targetType, Model.defaultModel());
+    GcPauses gc = new GcPauses();
+    try {
+      if (warmup > 0) {
+        run(target, docs, clients, 0, (long) (warmup * 1e9), seed, gc);
+      }
+
+      System.out.println(String.format(Locale.ENGLISH,
+          "%-10s %7s %10s %10s %9s %9s %9s %9s %9s %9s %6s %8s %8s",
+          "target", "clients", "rate", "docs/sec.", "p50 (us)", "p90", "p99", "p99.9", "max", "svc p99",
+          "gcs", "gc (ms)", "gc max"));
+      for (double rate : rates) {
+        Run run = run(target, docs, clients, rate, (long) (seconds * 1e9), seed, gc);
+        String line = String.format(Locale.ENGLISH,
+            "%-10s %7d %10s %10.0f %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f %6d %8d %8d",
+            targetType, clients, rate > 0 ? String.format(Locale.ENGLISH, "%.0f", rate) : "closed",
+            run.throughput(),
+            run.latency.percentile(0.5) / 1e3,
+            run.latency.percentile(0.9) / 1e3,
+            run.latency.percentile(0.99) / 1e3,
+            run.latency.percentile(0.999) / 1e3,
+            run.latency.max() / 1e3,
+            run.service.percentile(0.99) / 1e3,
+            run.gcCount, run.gcTotalMillis, run.gcMaxMillis);
+        System.out.println(line);
+
+        if (csv != null) {
+          boolean header = !csv.exists() || csv.length() == 0;
+          PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(csv, true), Charsets.UTF_8));
+          try {
+            if (header) {
+              pw.println("target,clients,rate,docs_per_sec,p50_us,p90_us,p99_us,p999_us,max_us,"
+                  + "service_p50_us,service_p99_us,gc_count,gc_total_ms,gc_max_ms");
+            }
+            pw.println(String.format(Locale.ENGLISH,
+                "%s,%d,%.0f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%d,%d,%d",
+                targetType, clients, rate, run.throughput(),
+                run.latency.percentile(0.5) / 1e3,
+                run.latency.percentile(0.9) / 1e3,
+                run.latency.percentile(0.99) / 1e3,
+                run.latency.percentile(0.999) / 1e3,
+                run.latency.max() / 1e3,
+                run.service.percentile(0.5) / 1e3,
+                run.service.percentile(0.99) / 1e3,
+                run.gcCount, run.gcTotalMillis, run.gcMaxMillis));
+          } finally {
+            pw.close();
+          }
+        }
+      }
+    } finally {
+      gc.close();
+    }
+  }
+}
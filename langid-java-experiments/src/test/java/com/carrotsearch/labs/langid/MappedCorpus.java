@@ -0,0 +1,174 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A memory mapped, tab-delimited corpus (<code>language\ttext</code> lines).
+ * Only an index of documents is kept on the heap; texts are decoded on demand.
+ * Instances are thread safe.
+ */
+public final class MappedCorpus {
+  private final ByteBuffer data;
+  private final String [] labels;
+
+  /** Index of each document's label in {@link #labels}. */
+  private final short [] docLabels;
+
+  /** Start and end of each document's text. */
+  private final int [] starts;
+  private final int [] ends;
+
+  private MappedCorpus(ByteBuffer data, String [] labels, short [] docLabels, int [] starts, int [] ends) {
+    this.data = data;
+    this.labels = labels;
+    this.docLabels = docLabels;
+    this.starts = starts;
+    this.ends = ends;
+  }
+
+  public static MappedCorpus open(URL resource) throws IOException {
+    try {
+      return open(new File(resource.toURI()));
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+  }
+
+  public static MappedCorpus open(File file) throws IOException {
+    final ByteBuffer data;
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      if (raf.length() > Integer.MAX_VALUE) {
+        throw new IOException("Corpus too large: " + file);
+      }
+      data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    } finally {
+      raf.close();
+    }
+
+    final Map<String, Short> labelIndex = new LinkedHashMap<String, Short>();
+    int count = 0;
+    short [] docLabels = new short [1024];
+    int [] starts = new int [1024];
+    int [] ends = new int [1024];
+    byte [] label = new byte [16];
+
+    for (int i = 0, max = data.limit(); i < max;) {
+      int lineEnd = i;
+      while (lineEnd < max && data.get(lineEnd) != '\n') {
+        lineEnd++;
+      }
+      int textEnd = lineEnd;
+      if (textEnd > i && data.get(textEnd - 1) == '\r') {
+        textEnd--;
+      }
+
+      if (textEnd > i) {
+        int tab = i;
+        while (tab < textEnd && data.get(tab) != '\t') {
+          tab++;
+        }
+        if (tab == textEnd) {
+          throw new IOException("Expected a tab on every line, offset: " + i + " in " + file);
+        }
+
+        if (label.length < tab - i) {
+          label = new byte [tab - i];
+        }
+        for (int j = i; j < tab; j++) {
+          label[j - i] = data.get(j);
+        }
+        String lang = new String(label, 0, tab - i, Charsets.UTF_8);
+        Short index = labelIndex.get(lang);
+        if (index == null) {
+          labelIndex.put(lang, index = (short) labelIndex.size());
+        }
+
+        if (count == starts.length) {
+          docLabels = Arrays.copyOf(docLabels, count * 2);
+          starts = Arrays.copyOf(starts, count * 2);
+          ends = Arrays.copyOf(ends, count * 2);
+        }
+        docLabels[count] = index;
+        starts[count] = tab + 1;
+        ends[count] = textEnd;
+        count++;
+      }
+      i = lineEnd + 1;
+    }
+
+    return new MappedCorpus(data,
+        labelIndex.keySet().toArray(new String [labelIndex.size()]),
+        Arrays.copyOf(docLabels, count),
+        Arrays.copyOf(starts, count),
+        Arrays.copyOf(ends, count));
+  }
+
+  /**
+   * @return Returns a view of this corpus with documents of the given languages only.
+   */
+  public MappedCorpus subset(Set<String> langCodes) {
+    int count = 0;
+    short [] docLabels = new short [size()];
+    int [] starts = new int [size()];
+    int [] ends = new int [size()];
+    for (int doc = 0; doc < size(); doc++) {
+      if (langCodes.contains(label(doc))) {
+        docLabels[count] = this.docLabels[doc];
+        starts[count] = this.starts[doc];
+        ends[count] = this.ends[doc];
+        count++;
+      }
+    }
+    return new MappedCorpus(data, labels,
+        Arrays.copyOf(docLabels, count),
+        Arrays.copyOf(starts, count),
+        Arrays.copyOf(ends, count));
+  }
+
+  /** @return Returns the number of documents. */
+  public int size() {
+    return starts.length;
+  }
+
+  /** @return Returns all distinct labels, in the order of first occurrence. */
+  public String [] labels() {
+    return labels.clone();
+  }
+
+  /** @return Returns the label of a document. */
+  public String label(int doc) {
+    return labels[docLabels[doc]];
+  }
+
+  /** @return Returns the length of a document (in UTF8 bytes). */
+  public int byteLength(int doc) {
+    return ends[doc] - starts[doc];
+  }
+
+  /** Copy a document's UTF8 bytes to <code>buffer</code> (must be large enough). */
+  public void bytes(int doc, byte [] buffer) {
+    ByteBuffer view = data.duplicate();
+    view.position(starts[doc]);
+    view.get(buffer, 0, byteLength(doc));
+  }
+
+  /** @return Returns the text of a document. */
+  public String text(int doc) {
+    byte [] bytes = new byte [byteLength(doc)];
+    bytes(doc, bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+}
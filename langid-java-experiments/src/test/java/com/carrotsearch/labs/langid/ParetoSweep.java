@@ -0,0 +1,242 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Supplier;
+import com.google.common.io.Files;
+
+/**
+ * Sweep classification settings (input prefix length, sampling budget, the
+ * number of detected languages and input normalization with a
+ * {@link NormalizingByteFilter}) over a corpus and
+ * write accuracy, throughput and latency of each configuration to CSV and JSON
+ * files. Configurations which are not dominated by any other configuration
+ * (with the same set of languages) in both accuracy and throughput are marked
+ * as Pareto-optimal.
+ *
+ * <pre>
+ * ParetoSweep [output prefix] [threads] [europarl21|europarl18|corpus.tsv]
+ * </pre>
+ *
+ * Prefix and sampling are alternative ways of bounding the input, so
+ * configurations with both are skipped. Confidence is not normalized (it doesn't
+ * change the detected language).
+ */
+public class ParetoSweep {
+  /** Input prefix lengths (in chars, 0: the entire input). */
+  private final static int [] PREFIXES = {0, 16, 32, 64, 128, 256};
+
+  /** Sampling budgets (in UTF8 bytes, 0: no sampling). */
+  private final static int [] BUDGETS = {0, 64, 128, 256, 512};
+
+  /** Number of detected languages (0: the default model with all languages). */
+  private final static int [] SUBSETS = {0, 21, 8, 2};
+
+  public static final class Result {
+    final int languages;
+    final int prefix;
+    final int budget;
+    final boolean filter;
+    final EvaluateQuality.Report report;
+    boolean pareto;
+
+    Result(int languages, int prefix, int budget, boolean filter, EvaluateQuality.Report report) {
+      this.languages = languages;
+      this.prefix = prefix;
+      this.budget = budget;
+      this.filter = filter;
+      this.report = report;
+    }
+  }
+
+  /**
+   * A classifier with the given settings.
+   */
+  private static final class Configured implements IClassifier<String,String> {
+    private final LangIdV3 langid;
+    private final int prefix;
+    private final int budget;
+    private final boolean filter;
+
+    Configured(Model model, int prefix, int budget, boolean filter) {
+      this.langid = filter ? new LangIdV3(model, new NormalizingByteFilter()) : new LangIdV3(model);
+      this.prefix = prefix;
+      this.budget = budget;
+      this.filter = filter;
+    }
+
+    @Override
+    public String classify(String data) {
+      if (prefix > 0 && data.length() > prefix) {
+        int end = prefix;
+        if (Character.isHighSurrogate(data.charAt(end - 1))) {
+          end--;
+        }
+        data = data.substring(0, end);
+      }
+      if (budget > 0) {
+        return langid.classifySampled(data, budget, false).langCode;
+      } else {
+        return langid.classify(data, false).langCode;
+      }
+    }
+
+    @Override
+    public String getName() {
+      return "langid-v3 (prefix: " + prefix + ", budget: " + budget + ", filter: " + filter + ")";
+    }
+  }
+
+  public static List<Result> sweep(MappedCorpus corpus, int threads) {
+    // Languages of the corpus, in the order of first occurrence.
+    final Set<String> corpusLanguages = new LinkedHashSet<String>(Arrays.asList(corpus.labels()));
+    corpusLanguages.retainAll(Model.defaultModel().getDetectedLanguages());
+
+    final List<Result> results = new ArrayList<Result>();
+    for (int languages : SUBSETS) {
+      final Model model;
+      final MappedCorpus subset;
+      if (languages == 0) {
+        model = Model.defaultModel();
+        subset = corpus;
+      } else {
+        if (languages > corpusLanguages.size()) {
+          continue;
+        }
+        Set<String> langCodes = new LinkedHashSet<String>(
+            new ArrayList<String>(corpusLanguages).subList(0, languages));
+        model = Model.detectOnly(langCodes);
+        subset = corpus.subset(langCodes);
+      }
+      int modelLanguages = model.getLanguageCount();
+
+      for (final int prefix : PREFIXES) {
+        for (final int budget : BUDGETS) {
+          if (prefix > 0 && budget > 0) {
+            continue;
+          }
+          for (final boolean filter : new boolean [] {false, true}) {
+            Supplier<IClassifier<String,String>> classifiers = new Supplier<IClassifier<String,String>>() {
+              @Override
+              public IClassifier<String,String> get() {
+                return new Configured(model, prefix, budget, filter);
+              }
+            };
+            EvaluateQuality.Report report = EvaluateQuality.evaluate(subset, classifiers, threads);
+            Result result = new Result(modelLanguages, prefix, budget, filter, report);
+            results.add(result);
+            System.out.println(String.format(Locale.ENGLISH,
+                "languages: %3d, prefix: %4d, budget: %4d, filter: %-5s -> accuracy: %.4f, %8.0f docs/sec., p99: %8.1fus",
+                modelLanguages, prefix, budget, filter,
+                report.accuracy(), report.docsPerSecond(), report.latencyNanos(0.99) / 1e3));
+          }
+        }
+      }
+    }
+
+    markPareto(results);
+    return results;
+  }
+
+  /**
+   * Mark results not dominated (in accuracy and throughput) by any other result
+   * with the same number of languages.
+   */
+  static void markPareto(List<Result> results) {
+    for (Result r : results) {
+      r.pareto = true;
+      for (Result other : results) {
+        if (other != r && other.languages == r.languages
+            && other.report.accuracy() >= r.report.accuracy()
+            && other.report.docsPerSecond() >= r.report.docsPerSecond()
+            && (other.report.accuracy() > r.report.accuracy()
+                || other.report.docsPerSecond() > r.report.docsPerSecond())) {
+          r.pareto = false;
+          break;
+        }
+      }
+    }
+  }
+
+  static void writeCsv(List<Result> results, File file) throws IOException {
+    PrintWriter pw = new PrintWriter(Files.newWriter(file, Charsets.UTF_8));
+    try {
+      pw.println("languages,prefix,budget,filter,documents,accuracy,docs_per_sec,p50_us,p99_us,pareto");
+      for (Result r : results) {
+        pw.println(String.format(Locale.ENGLISH, "%d,%d,%d,%s,%d,%.6f,%.1f,%.1f,%.1f,%s",
+            r.languages, r.prefix, r.budget, r.filter, r.report.documents,
+            r.report.accuracy(), r.report.docsPerSecond(),
+            r.report.latencyNanos(0.5) / 1e3, r.report.latencyNanos(0.99) / 1e3,
+            r.pareto));
+      }
+    } finally {
+      pw.close();
+    }
+  }
+
+  static void writeJson(List<Result> results, File file) throws IOException {
+    PrintWriter pw = new PrintWriter(Files.newWriter(file, Charsets.UTF_8));
+    try {
+      pw.println("[");
+      for (int i = 0; i < results.size(); i++) {
+        Result r = results.get(i);
+        pw.print(String.format(Locale.ENGLISH,
+            "  {\"languages\": %d, \"prefix\": %d, \"budget\": %d, \"filter\": %s, \"documents\": %d, "
+            + "\"accuracy\": %.6f, \"docsPerSec\": %.1f, \"p50Us\": %.1f, \"p99Us\": %.1f, \"pareto\": %s}",
+            r.languages, r.prefix, r.budget, r.filter, r.report.documents,
+            r.report.accuracy(), r.report.docsPerSecond(),
+            r.report.latencyNanos(0.5) / 1e3, r.report.latencyNanos(0.99) / 1e3,
+            r.pareto));
+        pw.println(i + 1 < results.size() ? "," : "");
+      }
+      pw.println("]");
+    } finally {
+      pw.close();
+    }
+  }
+
+  public static void main(String [] args) throws IOException {
+    String output = args.length > 0 ? args[0] : "pareto";
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+    String corpusName = args.length > 2 ? args[2] : "europarl21";
+    MappedCorpus corpus;
+    if (corpusName.equals("europarl21")) {
+      corpus = EuroParlData.mappedEuroparl21();
+    } else if (corpusName.equals("europarl18")) {
+      corpus = EuroParlData.mappedEuroparl18();
+    } else {
+      corpus = MappedCorpus.open(new File(corpusName));
+    }
+
+    // Warm up.
+    final Model model = Model.defaultModel();
+    EvaluateQuality.evaluate(corpus, new Supplier<IClassifier<String,String>>() {
+      @Override
+      public IClassifier<String,String> get() {
+        return new Configured(model, 0, 0, false);
+      }
+    }, threads);
+
+    List<Result> results = sweep(corpus, threads);
+    writeCsv(results, new File(output + ".csv"));
+    writeJson(results, new File(output + ".json"));
+
+    System.out.println("Pareto-optimal configurations:");
+    for (Result r : results) {
+      if (r.pareto) {
+        System.out.println(String.format(Locale.ENGLISH,
+            "  languages: %3d, prefix: %4d, budget: %4d, filter: %-5s -> accuracy: %.4f, %8.0f docs/sec.",
+            r.languages, r.prefix, r.budget, r.filter, r.report.accuracy(), r.report.docsPerSecond()));
+      }
+    }
+  }
+}
@@ -0,0 +1,228 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A memory mapped, binary workload file (see {@link WorkloadGenerator}).
+ * Instances are thread safe.
+ *
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * int     magic ('LIDW')
+ * int     version (1)
+ * int     labelCount, then labelCount * (short length, UTF8 bytes)
+ * int     shapeCount, then shapeCount * (short length, UTF8 bytes)
+ * int     count
+ * short[] label index (count)
+ * byte[]  shape index (count)
+ * int[]   document start offsets, relative to the data (count + 1)
+ * byte[]  data (UTF8)
+ * </pre>
+ */
+public final class Workload {
+  final static int MAGIC = ('L' << 24) | ('I' << 16) | ('D' << 8) | 'W';
+  final static int VERSION = 1;
+
+  private final ByteBuffer data;
+  private final String [] labels;
+  private final String [] shapes;
+  private final short [] docLabels;
+  private final byte [] docShapes;
+  private final int [] offsets;
+
+  private Workload(ByteBuffer data, String [] labels, String [] shapes,
+                   short [] docLabels, byte [] docShapes, int [] offsets) {
+    this.data = data;
+    this.labels = labels;
+    this.shapes = shapes;
+    this.docLabels = docLabels;
+    this.docShapes = docShapes;
+    this.offsets = offsets;
+  }
+
+  public static Workload open(File file) throws IOException {
+    final ByteBuffer buffer;
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      if (raf.length() > Integer.MAX_VALUE) {
+        throw new IOException("Workload too large: " + file);
+      }
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    } finally {
+      raf.close();
+    }
+
+    buffer.order(ByteOrder.BIG_ENDIAN);
+    if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+      throw new IOException("Not a workload file: " + file);
+    }
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported workload file version: " + version);
+    }
+
+    String [] labels = readStrings(buffer);
+    String [] shapes = readStrings(buffer);
+    int count = buffer.getInt();
+    short [] docLabels = new short [count];
+    buffer.asShortBuffer().get(docLabels);
+    buffer.position(buffer.position() + 2 * count);
+    byte [] docShapes = new byte [count];
+    buffer.get(docShapes);
+    int [] offsets = new int [count + 1];
+    buffer.asIntBuffer().get(offsets);
+    buffer.position(buffer.position() + 4 * (count + 1));
+
+    ByteBuffer data = buffer.slice();
+    if (offsets[count] != data.remaining()) {
+      throw new IOException("Truncated workload file: " + file);
+    }
+    return new Workload(data, labels, shapes, docLabels, docShapes, offsets);
+  }
+
+  private static String [] readStrings(ByteBuffer buffer) {
+    String [] strings = new String [buffer.getInt()];
+    for (int i = 0; i < strings.length; i++) {
+      byte [] bytes = new byte [buffer.getShort() & 0xffff];
+      buffer.get(bytes);
+      strings[i] = new String(bytes, Charsets.UTF_8);
+    }
+    return strings;
+  }
+
+  /** @return Returns the number of documents. */
+  public int size() {
+    return docLabels.length;
+  }
+
+  /** @return Returns the (expected) language of a document. */
+  public String label(int doc) {
+    return labels[docLabels[doc]];
+  }
+
+  /** @return Returns the shape of a document (see {@link WorkloadGenerator}). */
+  public String shape(int doc) {
+    return shapes[docShapes[doc]];
+  }
+
+  /** @return Returns all shapes, in the order of their indexes. */
+  public String [] shapes() {
+    return shapes.clone();
+  }
+
+  /** @return Returns the length of a document (in UTF8 bytes). */
+  public int byteLength(int doc) {
+    return offsets[doc + 1] - offsets[doc];
+  }
+
+  /** @return Returns a read-only view of a document's UTF8 bytes (no copying). */
+  public ByteBuffer slice(int doc) {
+    ByteBuffer view = data.duplicate();
+    view.limit(offsets[doc + 1]).position(offsets[doc]);
+    return view.slice();
+  }
+
+  /** Copy a document's UTF8 bytes to <code>buffer</code> (must be large enough). */
+  public void bytes(int doc, byte [] buffer) {
+    slice(doc).get(buffer, 0, byteLength(doc));
+  }
+
+  /** @return Returns the text of a document. */
+  public String text(int doc) {
+    byte [] bytes = new byte [byteLength(doc)];
+    bytes(doc, bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  /**
+   * Accumulates documents and writes a workload file.
+   */
+  static final class Writer {
+    private final Map<String, Integer> labels = new LinkedHashMap<String, Integer>();
+    private final Map<String, Integer> shapes = new LinkedHashMap<String, Integer>();
+    private short [] docLabels = new short [1024];
+    private byte [] docShapes = new byte [1024];
+    private int [] offsets = new int [1025];
+    private byte [] data = new byte [1 << 16];
+    private int count;
+
+    void add(String label, String shape, String text) {
+      byte [] bytes = text.getBytes(Charsets.UTF_8);
+      long end = (long) offsets[count] + bytes.length;
+      if (end > Integer.MAX_VALUE - (1 << 20)) {
+        throw new IllegalStateException("Workload too large.");
+      }
+
+      if (count == docLabels.length) {
+        docLabels = Arrays.copyOf(docLabels, count * 2);
+        docShapes = Arrays.copyOf(docShapes, count * 2);
+        offsets = Arrays.copyOf(offsets, count * 2 + 1);
+      }
+      if (end > data.length) {
+        data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(end, data.length * 2L)));
+      }
+
+      docLabels[count] = (short) index(labels, label, Short.MAX_VALUE);
+      docShapes[count] = (byte) index(shapes, shape, Byte.MAX_VALUE);
+      System.arraycopy(bytes, 0, data, offsets[count], bytes.length);
+      offsets[count + 1] = (int) end;
+      count++;
+    }
+
+    private static int index(Map<String, Integer> map, String key, int max) {
+      Integer index = map.get(key);
+      if (index == null) {
+        if (map.size() == max) {
+          throw new IllegalStateException("Too many distinct values.");
+        }
+        map.put(key, index = map.size());
+      }
+      return index;
+    }
+
+    void write(File file) throws IOException {
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeStrings(out, labels.keySet().toArray(new String [labels.size()]));
+        writeStrings(out, shapes.keySet().toArray(new String [shapes.size()]));
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+          out.writeShort(docLabels[i]);
+        }
+        out.write(docShapes, 0, count);
+        for (int i = 0; i <= count; i++) {
+          out.writeInt(offsets[i]);
+        }
+        out.write(data, 0, offsets[count]);
+      } finally {
+        out.close();
+      }
+    }
+
+    private static void writeStrings(DataOutputStream out, String [] strings) throws IOException {
+      out.writeInt(strings.length);
+      for (String s : strings) {
+        byte [] bytes = s.getBytes(Charsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+      }
+    }
+  }
+}
@@ -0,0 +1,340 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a seeded, reproducible workload file (see {@link Workload}) with
+ * input shapes derived from a labeled corpus:
+ * <ul>
+ * <li><code>query</code>: one to four words of a sentence, without punctuation,
+ * often lowercased (search queries),</li>
+ * <li><code>tweet</code>: a sentence fragment with mentions, hashtags, URLs and
+ * emoji, at most 280 code points,</li>
+ * <li><code>mixed</code>: a sentence with a shorter fragment of another
+ * language (one written in a different script, if available),</li>
+ * <li><code>html</code>: a few sentences in an HTML page with scripts,
+ * styles, attributes and entities,</li>
+ * <li><code>large</code>: sentences of one language concatenated into a large
+ * document (<code>-largeBytes</code> long).</li>
+ * </ul>
+ * The label of each document is the language of the sentences it was derived
+ * from (the dominant language for <code>mixed</code>).
+ *
+ * <pre>
+ * WorkloadGenerator [-count N] [-mix query=40,tweet=30,mixed=10,html=20]
+ *                   [-large N] [-largeBytes N] [-seed N]
+ *                   [-corpus europarl21|europarl18|corpus.tsv] output.lidw
+ * </pre>
+ */
+public class WorkloadGenerator {
+  private final static String URL_CHARS =
+      "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+  private final MappedCorpus corpus;
+  private final Random rnd;
+
+  /** Documents of each language. */
+  private final Map<String, int[]> docsByLabel = new LinkedHashMap<String, int[]>();
+
+  /** The script of each language. */
+  private final Map<String, Character.UnicodeScript> scripts = new LinkedHashMap<String, Character.UnicodeScript>();
+
+  private final String [] labels;
+
+  WorkloadGenerator(MappedCorpus corpus, long seed) {
+    this.corpus = corpus;
+    this.rnd = new Random(seed);
+
+    Map<String, List<Integer>> docs = new LinkedHashMap<String, List<Integer>>();
+    for (int doc = 0; doc < corpus.size(); doc++) {
+      String label = corpus.label(doc);
+      List<Integer> list = docs.get(label);
+      if (list == null) {
+        docs.put(label, list = new ArrayList<Integer>());
+      }
+      list.add(doc);
+    }
+    for (Map.Entry<String, List<Integer>> e : docs.entrySet()) {
+      int [] indexes = new int [e.getValue().size()];
+      for (int i = 0; i < indexes.length; i++) {
+        indexes[i] = e.getValue().get(i);
+      }
+      docsByLabel.put(e.getKey(), indexes);
+      scripts.put(e.getKey(), script(corpus.text(indexes[0])));
+    }
+    this.labels = docsByLabel.keySet().toArray(new String [docsByLabel.size()]);
+  }
+
+  /** @return Returns the script of the first letter in a text. */
+  private static Character.UnicodeScript script(String text) {
+    for (int i = 0; i < text.length(); i = text.offsetByCodePoints(i, 1)) {
+      int cp = text.codePointAt(i);
+      if (Character.isLetter(cp)) {
+        return Character.UnicodeScript.of(cp);
+      }
+    }
+    return Character.UnicodeScript.COMMON;
+  }
+
+  private String randomLabel() {
+    return labels[rnd.nextInt(labels.length)];
+  }
+
+  private String sentence(String label) {
+    int [] docs = docsByLabel.get(label);
+    return corpus.text(docs[rnd.nextInt(docs.length)]);
+  }
+
+  private String [] words(String label) {
+    return sentence(label).trim().split("\\s+");
+  }
+
+  private static String join(String [] words, int from, int to) {
+    StringBuilder b = new StringBuilder();
+    for (int i = from; i < to; i++) {
+      if (b.length() > 0) {
+        b.append(' ');
+      }
+      b.append(words[i]);
+    }
+    return b.toString();
+  }
+
+  private static String stripPunctuation(String word) {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < word.length(); i++) {
+      char chr = word.charAt(i);
+      if (Character.isLetterOrDigit(chr) || Character.isSurrogate(chr) || chr == '-') {
+        b.append(chr);
+      }
+    }
+    return b.toString();
+  }
+
+  String query(String label) {
+    String [] words = words(label);
+    int length = Math.min(words.length, 1 + rnd.nextInt(4));
+    int from = rnd.nextInt(words.length - length + 1);
+    StringBuilder b = new StringBuilder();
+    for (int i = from; i < from + length; i++) {
+      String word = stripPunctuation(words[i]);
+      if (!word.isEmpty()) {
+        if (b.length() > 0) {
+          b.append(' ');
+        }
+        b.append(word);
+      }
+    }
+    String query = b.length() == 0 ? words[from] : b.toString();
+    return rnd.nextInt(3) > 0 ? query.toLowerCase(Locale.ROOT) : query;
+  }
+
+  String tweet(String label) {
+    String [] words = words(label);
+    int length = Math.min(words.length, 6 + rnd.nextInt(15));
+    int from = rnd.nextInt(words.length - length + 1);
+
+    StringBuilder b = new StringBuilder();
+    if (rnd.nextInt(3) == 0) {
+      b.append('@').append(handle()).append(' ');
+    }
+    b.append(join(words, from, from + length));
+    for (int i = rnd.nextInt(4); i > 0; i--) {
+      String tag = stripPunctuation(words[from + rnd.nextInt(length)]);
+      if (!tag.isEmpty()) {
+        b.append(" #").append(Character.toUpperCase(tag.charAt(0))).append(tag.substring(1));
+      }
+    }
+    if (rnd.nextBoolean()) {
+      b.append(" https://t.co/");
+      for (int i = 0; i < 10; i++) {
+        b.append(URL_CHARS.charAt(rnd.nextInt(URL_CHARS.length())));
+      }
+    }
+    for (int i = rnd.nextInt(3); i > 0; i--) {
+      b.append(' ').appendCodePoint(0x1F600 + rnd.nextInt(0x50));
+    }
+
+    String tweet = b.toString();
+    if (tweet.codePointCount(0, tweet.length()) > 280) {
+      tweet = tweet.substring(0, tweet.offsetByCodePoints(0, 280));
+    }
+    return tweet;
+  }
+
+  private String handle() {
+    StringBuilder b = new StringBuilder();
+    for (int i = 4 + rnd.nextInt(8); i > 0; i--) {
+      b.append(URL_CHARS.charAt(rnd.nextInt(URL_CHARS.length())));
+    }
+    return b.toString();
+  }
+
+  String mixed(String label) {
+    List<String> others = new ArrayList<String>();
+    for (String other : labels) {
+      if (scripts.get(other) != scripts.get(label)) {
+        others.add(other);
+      }
+    }
+    if (others.isEmpty()) {
+      others.addAll(Arrays.asList(labels));
+      others.remove(label);
+    }
+
+    String main = sentence(label);
+    if (others.isEmpty()) {
+      return main;
+    }
+    String [] words = words(others.get(rnd.nextInt(others.size())));
+    int mainLength = main.split("\\s+").length;
+    int length = Math.max(1, Math.min(words.length, mainLength / 3));
+    int from = rnd.nextInt(words.length - length + 1);
+    String fragment = join(words, from, from + length);
+    return rnd.nextBoolean() ? main + " (" + fragment + ")" : "«" + fragment + "» " + main;
+  }
+
+  String html(String label) {
+    StringBuilder b = new StringBuilder();
+    b.append("<!DOCTYPE html>\n<html lang=\"").append(label).append("\">\n<head>\n")
+     .append("<meta charset=\"utf-8\">\n<title>").append(escape(query(label))).append("</title>\n")
+     .append("<style>body { font-family: sans-serif; } .nav a { color: #").append(Integer.toHexString(0x100000 + rnd.nextInt(0xeffff))).append("; }</style>\n")
+     .append("<script type=\"text/javascript\">window.dataLayer = window.dataLayer || []; function gtag(){dataLayer.push(arguments);}</script>\n")
+     .append("</head>\n<body>\n<div class=\"nav\"><a href=\"/\">&laquo;</a> | <a href=\"/").append(handle()).append("\">")
+     .append(escape(query(label))).append("</a></div>\n");
+    for (int i = 1 + rnd.nextInt(5); i > 0; i--) {
+      b.append("<p class=\"content\" id=\"p").append(rnd.nextInt(1000)).append("\">")
+       .append(escape(sentence(label)).replace(" ", rnd.nextInt(4) == 0 ? "&nbsp;" : " "))
+       .append("</p>\n");
+    }
+    b.append("<footer>&copy; 2013 <a href=\"https://example.com/").append(handle()).append("\">")
+     .append(handle()).append("</a></footer>\n</body>\n</html>\n");
+    return b.toString();
+  }
+
+  private static String escape(String text) {
+    return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+  }
+
+  String large(String label, int bytes) {
+    StringBuilder b = new StringBuilder();
+    // Approximate the UTF8 length by the number of chars (most texts take more bytes).
+    while (b.length() < bytes) {
+      b.append(sentence(label));
+      b.append(rnd.nextInt(5) == 0 ? "\n\n" : " ");
+    }
+    return b.toString();
+  }
+
+  public static void main(String [] args) throws Exception {
+    int count = 10000;
+    String mix = "query=40,tweet=30,mixed=10,html=20";
+    int large = 10;
+    int largeBytes = 2 * 1024 * 1024;
+    long seed = 0xCAFEL;
+    String corpusName = "europarl21";
+    File output = null;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("-count")) {
+        count = Integer.parseInt(args[++i]);
+      } else if (arg.equals("-mix")) {
+        mix = args[++i];
+      } else if (arg.equals("-large")) {
+        large = Integer.parseInt(args[++i]);
+      } else if (arg.equals("-largeBytes")) {
+        largeBytes = Integer.parseInt(args[++i]);
+      } else if (arg.equals("-seed")) {
+        seed = Long.parseLong(args[++i]);
+      } else if (arg.equals("-corpus")) {
+        corpusName = args[++i];
+      } else if (arg.startsWith("-")) {
+        throw new IllegalArgumentException("Unknown argument: " + arg);
+      } else {
+        output = new File(arg);
+      }
+    }
+    if (output == null) {
+      throw new IllegalArgumentException("Output file required.");
+    }
+
+    final MappedCorpus corpus;
+    if (corpusName.equals("europarl21")) {
+      corpus = EuroParlData.mappedEuroparl21();
+    } else if (corpusName.equals("europarl18")) {
+      corpus = EuroParlData.mappedEuroparl18();
+    } else {
+      corpus = MappedCorpus.open(new File(corpusName));
+    }
+
+    // Shape weights.
+    Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+    int totalWeight = 0;
+    for (String entry : mix.split(",")) {
+      String [] kv = entry.split("=");
+      if (!Arrays.asList("query", "tweet", "mixed", "html").contains(kv[0])) {
+        throw new IllegalArgumentException("Unknown shape: " + kv[0]);
+      }
+      weights.put(kv[0], Integer.parseInt(kv[1]));
+      totalWeight += Integer.parseInt(kv[1]);
+    }
+
+    WorkloadGenerator generator = new WorkloadGenerator(corpus, seed);
+    Workload.Writer writer = new Workload.Writer();
+    Map<String, long[]> stats = new LinkedHashMap<String, long[]>();
+    for (int i = 0; i < count + large; i++) {
+      String shape;
+      if (i >= count) {
+        shape = "large";
+      } else {
+        int r = generator.rnd.nextInt(totalWeight);
+        shape = null;
+        for (Map.Entry<String, Integer> e : weights.entrySet()) {
+          if ((r -= e.getValue()) < 0) {
+            shape = e.getKey();
+            break;
+          }
+        }
+      }
+
+      String label = generator.randomLabel();
+      final String text;
+      if (shape.equals("query")) {
+        text = generator.query(label);
+      } else if (shape.equals("tweet")) {
+        text = generator.tweet(label);
+      } else if (shape.equals("mixed")) {
+        text = generator.mixed(label);
+      } else if (shape.equals("html")) {
+        text = generator.html(label);
+      } else {
+        text = generator.large(label, largeBytes);
+      }
+      writer.add(label, shape, text);
+
+      long [] s = stats.get(shape);
+      if (s == null) {
+        stats.put(shape, s = new long [3]);
+      }
+      int bytes = text.getBytes("UTF-8").length;
+      s[0]++;
+      s[1] += bytes;
+      s[2] = Math.max(s[2], bytes);
+    }
+    writer.write(output);
+
+    System.out.println(String.format(Locale.ENGLISH, "%-8s %8s %12s %12s", "shape", "docs", "mean bytes", "max bytes"));
+    for (Map.Entry<String, long[]> e : stats.entrySet()) {
+      long [] s = e.getValue();
+      System.out.println(String.format(Locale.ENGLISH, "%-8s %8d %12.1f %12d", e.getKey(), s[0], s[1] / (double) s[0], s[2]));
+    }
+    System.out.println("Written: " + output + " (" + output.length() + " bytes)");
+  }
+}
@@ -0,0 +1,42 @@
+package com.carrotsearch.labs.langid;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A classification that exceeded the configured duration or input size
+ * thresholds (see {@link JfrListener}).
+ */
+@Name("com.carrotsearch.langid.Classification")
+@Label("Slow or Large Classification")
+@Category({"langid"})
+@Description("A language classification exceeding the duration or input size threshold.")
+@StackTrace(true)
+class ClassificationEvent extends jdk.jfr.Event {
+  @Label("Input Size")
+  @DataAmount
+  long bytes;
+
+  @Label("Features")
+  @Description("The number of n-gram features found in the input.")
+  int features;
+
+  @Label("Language")
+  String language;
+
+  @Label("Confidence")
+  float confidence;
+
+  @Label("Append Duration")
+  @Timespan
+  long appendDuration;
+
+  @Label("Classify Duration")
+  @Timespan
+  long classifyDuration;
+}
@@ -0,0 +1,102 @@
+package com.carrotsearch.labs.langid;
+
+/**
+ * An {@link ILangIdListener} emitting JDK Flight Recorder events: model loading
+ * and trimming (always) and classifications exceeding a given duration or input
+ * size (threshold-gated, so that only outliers are recorded). 
+ * 
+ * <pre>
+ * JfrListener jfr = new JfrListener(TimeUnit.MILLISECONDS.toNanos(10), 1024 * 1024);
+ * Model.setListener(jfr);
+ * langid.setListener(jfr);
+ * </pre>
+ * 
+ * Events are in the <code>langid</code> category and are recorded only if
+ * enabled in the active recording settings. Durations are reported in
+ * event fields (events are committed once the measured operation completes).
+ * Use {@link ChainedListener} to combine this listener with {@link LangIdMetrics}.
+ */
+public final class JfrListener implements ILangIdListener {
+  /** The default duration threshold (10ms). */
+  public final static long DEFAULT_DURATION_THRESHOLD_NANOS = 10 * 1000 * 1000L;
+
+  /** The default input size threshold (1MB). */
+  public final static long DEFAULT_BYTES_THRESHOLD = 1024 * 1024;
+
+  private final long durationThresholdNanos;
+  private final long bytesThreshold;
+
+  public JfrListener() {
+    this(DEFAULT_DURATION_THRESHOLD_NANOS, DEFAULT_BYTES_THRESHOLD);
+  }
+
+  /**
+   * @param durationThresholdNanos Emit classification events for documents
+   *          that took at least this long (appends and classification).
+   * @param bytesThreshold Emit classification events for documents with at
+   *          least this many UTF8 bytes.
+   */
+  public JfrListener(long durationThresholdNanos, long bytesThreshold) {
+    if (durationThresholdNanos < 0 || bytesThreshold < 0) {
+      throw new IllegalArgumentException("Thresholds must not be negative.");
+    }
+    this.durationThresholdNanos = durationThresholdNanos;
+    this.bytesThreshold = bytesThreshold;
+  }
+
+  /*
+   * 
+   */
+  @Override
+  public void appended(int bytes, long nanos) {
+    // Nothing to do, reported on classification.
+  }
+
+  /*
+   * 
+   */
+  @Override
+  public void classified(long bytes, long appendNanos, int dsaOutputs, String langCode, float probability, long nanos) {
+    if (appendNanos + nanos < durationThresholdNanos && bytes < bytesThreshold) {
+      return;
+    }
+
+    ClassificationEvent event = new ClassificationEvent();
+    if (event.isEnabled()) {
+      event.bytes = bytes;
+      event.features = dsaOutputs;
+      event.language = langCode;
+      event.confidence = probability;
+      event.appendDuration = appendNanos;
+      event.classifyDuration = nanos;
+      event.commit();
+    }
+  }
+
+  /*
+   * 
+   */
+  @Override
+  public void modelLoaded(long bytes, long decodeNanos, long deserializeNanos) {
+    ModelLoadEvent event = new ModelLoadEvent();
+    if (event.isEnabled()) {
+      event.bytes = bytes;
+      event.decodeDuration = decodeNanos;
+      event.deserializeDuration = deserializeNanos;
+      event.commit();
+    }
+  }
+
+  /*
+   * 
+   */
+  @Override
+  public void modelTrimmed(int languages, long nanos) {
+    ModelTrimEvent event = new ModelTrimEvent();
+    if (event.isEnabled()) {
+      event.languages = languages;
+      event.trimDuration = nanos;
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package com.carrotsearch.labs.langid;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Loading of the default model (see {@link Model#defaultModel()}).
+ */
+@Name("com.carrotsearch.langid.ModelLoad")
+@Label("Language Model Load")
+@Category({"langid"})
+@Description("Decompression and deserialization of the default language identification model.")
+@StackTrace(true)
+class ModelLoadEvent extends jdk.jfr.Event {
+  @Label("Model Size")
+  @DataAmount
+  long bytes;
+
+  @Label("Decode Duration")
+  @Description("Time spent decompressing the model data.")
+  @Timespan
+  long decodeDuration;
+
+  @Label("Deserialization Duration")
+  @Timespan
+  long deserializeDuration;
+}
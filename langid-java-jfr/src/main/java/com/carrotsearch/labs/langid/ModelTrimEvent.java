@@ -0,0 +1,25 @@
+package com.carrotsearch.labs.langid;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Trimming of a model to a subset of languages (see {@link Model#detectOnly(java.util.Set)}).
+ */
+@Name("com.carrotsearch.langid.ModelTrim")
+@Label("Language Model Trim")
+@Category({"langid"})
+@Description("Creation of a model restricted to a subset of languages.")
+@StackTrace(true)
+class ModelTrimEvent extends jdk.jfr.Event {
+  @Label("Languages")
+  int languages;
+
+  @Label("Trim Duration")
+  @Timespan
+  long trimDuration;
+}
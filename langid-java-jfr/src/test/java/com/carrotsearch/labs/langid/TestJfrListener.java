@@ -0,0 +1,91 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.ThreadFilter;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakFilters;
+import com.google.common.collect.Sets;
+
+@ThreadLeakFilters(defaultFilters = true, filters = {
+    TestJfrListener.JfrThreadsFilter.class
+})
+public class TestJfrListener extends RandomizedTest {
+  /** Flight recorder starts background threads on the first recording. */
+  public static class JfrThreadsFilter implements ThreadFilter {
+    @Override
+    public boolean reject(Thread t) {
+      return t.getName().startsWith("JFR ");
+    }
+  }
+
+  @Test
+  public void testEvents() throws Exception {
+    JfrListener jfr = new JfrListener(Long.MAX_VALUE, 1000);
+    LangIdV3 langid = new LangIdV3();
+    langid.setListener(jfr);
+
+    StringBuilder large = new StringBuilder();
+    while (large.length() < 1000) {
+      large.append("Mike McCandless rocks the boat. ");
+    }
+
+    List<RecordedEvent> events;
+    Recording recording = new Recording();
+    try {
+      recording.enable(ClassificationEvent.class);
+      recording.enable(ModelLoadEvent.class);
+      recording.enable(ModelTrimEvent.class);
+      recording.start();
+
+      Model.setListener(jfr);
+      try {
+        Model.loadDefaultModel();
+        Model.detectOnly(Sets.newHashSet("en", "de"));
+      } finally {
+        Model.setListener(null);
+      }
+
+      // Below thresholds.
+      langid.classify("Mike McCandless rocks the boat.", true);
+      // Above the size threshold.
+      langid.classify(large, true);
+
+      recording.stop();
+      Path file = File.createTempFile("langid", ".jfr", newTempDir()).toPath();
+      recording.dump(file);
+      events = RecordingFile.readAllEvents(file);
+    } finally {
+      recording.close();
+    }
+
+    List<String> names = new ArrayList<String>();
+    for (RecordedEvent e : events) {
+      String name = e.getEventType().getName();
+      names.add(name);
+      if (name.equals("com.carrotsearch.langid.Classification")) {
+        assertEquals("en", e.getString("language"));
+        assertEquals(large.length(), e.getLong("bytes"));
+      }
+      if (name.equals("com.carrotsearch.langid.ModelLoad")) {
+        assertTrue(e.getLong("bytes") > 0);
+      }
+      if (name.equals("com.carrotsearch.langid.ModelTrim")) {
+        assertEquals(2, e.getInt("languages"));
+      }
+    }
+    assertEquals(3, names.size());
+    assertTrue(names.contains("com.carrotsearch.langid.Classification"));
+    assertTrue(names.contains("com.carrotsearch.langid.ModelLoad"));
+    assertTrue(names.contains("com.carrotsearch.langid.ModelTrim"));
+  }
+}
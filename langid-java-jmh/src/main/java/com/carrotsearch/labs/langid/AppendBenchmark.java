@@ -0,0 +1,56 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link LangIdV3#append(CharSequence)} vs. {@link LangIdV3#append(byte[], int, int)}
+ * for different input lengths (in characters, EuroParl text).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AppendBenchmark {
+  @Param({"16", "128", "1024", "16384"})
+  public int length;
+
+  private LangIdV3 langid;
+  private String text;
+  private byte[] utf8;
+
+  @Setup
+  public void setup() throws IOException {
+    langid = new LangIdV3();
+    text = BenchmarkData.europarl21().text(length);
+    utf8 = text.getBytes(BenchmarkData.UTF8);
+  }
+
+  @Benchmark
+  public int appendCharSequence() {
+    langid.reset();
+    langid.append(text);
+    return langid.fv.elementsCount;
+  }
+
+  @Benchmark
+  public int appendBytes() {
+    langid.reset();
+    langid.append(utf8, 0, utf8.length);
+    return langid.fv.elementsCount;
+  }
+}
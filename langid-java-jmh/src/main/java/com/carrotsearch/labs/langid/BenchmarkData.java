@@ -0,0 +1,88 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * EuroParl test data for benchmarks (copied from the experiments module's
+ * resources at build time).
+ */
+final class BenchmarkData {
+  final static Charset UTF8 = Charset.forName("UTF-8");
+
+  /** Language codes, one for each document. */
+  final List<String> languages = new ArrayList<String>();
+
+  /** Documents. */
+  final List<String> documents = new ArrayList<String>();
+
+  private BenchmarkData() {}
+
+  /**
+   * Load EuroParl data (all 21 languages), shuffled with a fixed seed.
+   */
+  static BenchmarkData europarl21() throws IOException {
+    return load("/europarl.21.test");
+  }
+
+  private static BenchmarkData load(String resource) throws IOException {
+    InputStream is = BenchmarkData.class.getResourceAsStream(resource);
+    if (is == null) {
+      throw new IOException("Resource not found: " + resource);
+    }
+
+    List<String> lines = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(is, UTF8));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+    Collections.shuffle(lines, new Random(0xdeadbeef));
+
+    BenchmarkData data = new BenchmarkData();
+    for (String line : lines) {
+      int tabIndex = line.indexOf('\t');
+      if (tabIndex < 0) throw new IOException("Expected a tab on every line: " + line);
+      data.languages.add(line.substring(0, tabIndex));
+      data.documents.add(line.substring(tabIndex + 1));
+    }
+    return data;
+  }
+
+  /**
+   * Concatenate documents until a given number of characters is reached.
+   */
+  String text(int length) {
+    StringBuilder b = new StringBuilder(length);
+    for (int i = 0; b.length() < length; i = (i + 1) % documents.size()) {
+      b.append(documents.get(i)).append(' ');
+    }
+    b.setLength(length);
+    if (Character.isHighSurrogate(b.charAt(length - 1))) {
+      b.setCharAt(length - 1, ' ');
+    }
+    return b.toString();
+  }
+
+  /**
+   * UTF8-encoded documents.
+   */
+  byte[][] utf8Documents() {
+    byte[][] encoded = new byte[documents.size()][];
+    for (int i = 0; i < encoded.length; i++) {
+      encoded[i] = documents.get(i).getBytes(UTF8);
+    }
+    return encoded;
+  }
+}
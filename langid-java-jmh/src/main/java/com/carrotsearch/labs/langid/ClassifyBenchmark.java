@@ -0,0 +1,51 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link LangIdV3#classify(boolean)} and {@link LangIdV3#rank(boolean)}, with 
+ * and without confidence normalization, over EuroParl documents (features are
+ * computed once, only the scoring is measured).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClassifyBenchmark {
+  @Param({"false", "true"})
+  public boolean normalizeConfidence;
+
+  private LangIdV3 langid;
+
+  @Setup
+  public void setup() throws IOException {
+    langid = new LangIdV3();
+    langid.append(BenchmarkData.europarl21().text(300));
+  }
+
+  @Benchmark
+  public DetectedLanguage classify() {
+    return langid.classify(normalizeConfidence);
+  }
+
+  @Benchmark
+  public List<DetectedLanguage> rank() {
+    return langid.rank(normalizeConfidence);
+  }
+}
@@ -0,0 +1,112 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end classification of EuroParl documents: the full model vs. 
+ * {@link Model#detectOnly(java.util.Set)} subsets, and multi-threaded scaling
+ * with per-thread {@link LangIdV3} instances (the model is shared).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentsBenchmark {
+  /**
+   * Shared data and models.
+   */
+  @State(Scope.Benchmark)
+  public static class Shared {
+    /** Number of detected languages ("all" for the full model). */
+    @Param({"all", "21", "8", "2"})
+    public String languages;
+
+    Model model;
+    List<String> documents;
+    byte[][] utf8Documents;
+
+    @Setup
+    public void setup() throws IOException {
+      BenchmarkData data = BenchmarkData.europarl21();
+      documents = data.documents;
+      utf8Documents = data.utf8Documents();
+
+      if (languages.equals("all")) {
+        model = Model.defaultModel();
+      } else {
+        LinkedHashSet<String> subset = new LinkedHashSet<String>(data.languages);
+        model = Model.detectOnly(new LinkedHashSet<String>(
+            Arrays.asList(subset.toArray(new String[subset.size()])).subList(0, Integer.parseInt(languages))));
+      }
+    }
+  }
+
+  /**
+   * Per-thread classifier.
+   */
+  @State(Scope.Thread)
+  public static class PerThread {
+    LangIdV3 langid;
+    int next;
+
+    @Setup
+    public void setup(Shared shared) {
+      langid = new LangIdV3(shared.model);
+    }
+  }
+
+  @Benchmark
+  public DetectedLanguage classifyCharSequence(Shared shared, PerThread local) {
+    return local.langid.classify(shared.documents.get(nextIndex(shared, local)), true);
+  }
+
+  @Benchmark
+  public DetectedLanguage classifyBytes(Shared shared, PerThread local) {
+    byte[] utf8 = shared.utf8Documents[nextIndex(shared, local)];
+    local.langid.reset();
+    local.langid.append(utf8, 0, utf8.length);
+    return local.langid.classify(true);
+  }
+
+  @Benchmark
+  @Threads(2)
+  public DetectedLanguage classifyThreads2(Shared shared, PerThread local) {
+    return classifyCharSequence(shared, local);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public DetectedLanguage classifyThreads4(Shared shared, PerThread local) {
+    return classifyCharSequence(shared, local);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public DetectedLanguage classifyThreadsMax(Shared shared, PerThread local) {
+    return classifyCharSequence(shared, local);
+  }
+
+  private static int nextIndex(Shared shared, PerThread local) {
+    int index = local.next;
+    local.next = (index + 1) % shared.documents.size();
+    return index;
+  }
+}
@@ -0,0 +1,57 @@
+package com.carrotsearch.labs.langid;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Default model loading time (decompression and deserialization), in a fresh
+ * JVM for the first invocation ({@link Mode#SingleShotTime}) and warmed up. The
+ * <code>lzma</code> variants decode the single LZMA stream sequentially (the
+ * previous format of the default model, {@link LzmaModel} from langid-java's
+ * test jar).
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ModelLoadBenchmark {
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Warmup(iterations = 0)
+  @Measurement(iterations = 1)
+  @Fork(10)
+  public Model coldLoad() {
+    return Model.loadDefaultModel();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @Warmup(iterations = 3, time = 2)
+  @Measurement(iterations = 5, time = 2)
+  @Fork(1)
+  public Model warmLoad() {
+    return Model.loadDefaultModel();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Warmup(iterations = 0)
+  @Measurement(iterations = 1)
+  @Fork(10)
+  public Model lzmaColdLoad() {
+    return LzmaModel.load();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @Warmup(iterations = 3, time = 2)
+  @Measurement(iterations = 5, time = 2)
+  @Fork(1)
+  public Model lzmaWarmLoad() {
+    return LzmaModel.load();
+  }
+}
@@ -0,0 +1,77 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Classification of a whole document appended at once vs. read from a stream
+ * or a buffer in a given charset (UTF-8 is passed through, ISO-8859-1 is
+ * transcoded). Streams without early stopping should be as fast as appending
+ * the same bytes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StreamBenchmark {
+  private final static Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+  @Param({"16384", "2097152"})
+  public int length;
+
+  private LangIdV3 langid;
+  private byte[] utf8;
+  private byte[] latin1;
+
+  @Setup
+  public void setup() throws IOException {
+    langid = new LangIdV3();
+    String text = BenchmarkData.europarl21().text(length);
+    utf8 = text.getBytes(BenchmarkData.UTF8);
+    latin1 = text.getBytes(LATIN1);
+  }
+
+  @Benchmark
+  public int appendBytes() {
+    langid.reset();
+    langid.append(utf8, 0, utf8.length);
+    return langid.classify(true, null);
+  }
+
+  @Benchmark
+  public int streamUtf8() throws IOException {
+    return langid.classify(new ByteArrayInputStream(utf8), BenchmarkData.UTF8, true, null);
+  }
+
+  @Benchmark
+  public int streamLatin1() throws IOException {
+    return langid.classify(new ByteArrayInputStream(latin1), LATIN1, true, null);
+  }
+
+  @Benchmark
+  public int bufferUtf8() {
+    return langid.classify(ByteBuffer.wrap(utf8), BenchmarkData.UTF8, true, null);
+  }
+
+  @Benchmark
+  public int bufferLatin1() {
+    return langid.classify(ByteBuffer.wrap(latin1), LATIN1, true, null);
+  }
+}
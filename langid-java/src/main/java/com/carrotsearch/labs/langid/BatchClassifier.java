@@ -0,0 +1,683 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.BufferedInputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Classifies newline-delimited input (plain lines, a column of tab-separated
+ * lines or a string field of JSON lines) on multiple threads and writes one
+ * result line per input line, in input order:
+ * <pre>
+ * lang&lt;TAB&gt;confidence[&lt;TAB&gt;lang&lt;TAB&gt;confidence...]
+ * </pre>
+ * Input is read in large blocks and split into lines at the byte level
+ * (no <code>String</code>s are created); each block is classified by a worker
+ * thread with its own {@link LangIdV3} instance. Empty lines and lines without
+ * the requested column or field yield an empty language and zero confidence.
+ *
+ * <p>
+ * Command line usage (input files or stdin, output file or stdout):
+ * <pre>
+ * BatchClassifier [-format lines|tsv|jsonl] [-column N] [-field name] [-threads N]
+ *                 [-topk K] [-languages en,de,...] [-model file] [-output file] [file...]
+ * </pre>
+ * where <code>-languages</code> restricts the default model to a subset of
+ * languages and <code>-model</code> is a model file (see {@link ModelTrainer}).
+ */
+public final class BatchClassifier {
+  /** Input formats. */
+  public static enum Format {
+    /** Each line is a document. */
+    LINES,
+    /** A column of tab-separated lines (see {@link BatchClassifier#setColumn(int)}). */
+    TSV,
+    /** A top-level string field of JSON objects (see {@link BatchClassifier#setField(String)}). */
+    JSONL;
+  }
+
+  private final Model model;
+  private Format format = Format.LINES;
+  private int column;
+  private byte [] field = "text".getBytes(StandardCharsets.UTF_8);
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private int topK = 1;
+  private int blockSize = 1 << 20;
+
+  public BatchClassifier() {
+    this(Model.defaultModel());
+  }
+
+  public BatchClassifier(Model model) {
+    this.model = model;
+  }
+
+  public BatchClassifier setFormat(Format format) {
+    this.format = format;
+    return this;
+  }
+
+  /**
+   * The TSV column to classify (1-based), 0 for the last column (the default).
+   */
+  public BatchClassifier setColumn(int column) {
+    if (column < 0) {
+      throw new IllegalArgumentException("Column must be >= 0: " + column);
+    }
+    this.column = column;
+    return this;
+  }
+
+  /**
+   * The JSONL field to classify (<code>text</code> by default).
+   */
+  public BatchClassifier setField(String field) {
+    this.field = field.getBytes(StandardCharsets.UTF_8);
+    return this;
+  }
+
+  public BatchClassifier setThreads(int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("Threads must be positive: " + threads);
+    }
+    this.threads = threads;
+    return this;
+  }
+
+  /**
+   * The number of most likely languages written for each line (1 by default).
+   */
+  public BatchClassifier setTopK(int topK) {
+    if (topK <= 0 || topK > model.numClasses) {
+      throw new IllegalArgumentException("Top-K must be within [1, " + model.numClasses + "]: " + topK);
+    }
+    this.topK = topK;
+    return this;
+  }
+
+  /**
+   * The size of input blocks processed by a single thread (in bytes). Blocks
+   * grow as needed to hold at least one full line.
+   */
+  public BatchClassifier setBlockSize(int blockSize) {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+    }
+    this.blockSize = blockSize;
+    return this;
+  }
+
+  /**
+   * A block of complete input lines and its classification results.
+   */
+  private static final class Block implements Callable<Block> {
+    final ThreadLocal<Worker> workers;
+    final byte [] input;
+    final int length;
+    byte [] output;
+    int outputLength;
+    int lines;
+
+    Block(ThreadLocal<Worker> workers, byte [] input, int length) {
+      this.workers = workers;
+      this.input = input;
+      this.length = length;
+    }
+
+    @Override
+    public Block call() {
+      workers.get().process(this);
+      return this;
+    }
+  }
+
+  /**
+   * Per-thread classification state.
+   */
+  private final class Worker {
+    private final LangIdV3 langid = new LangIdV3(model);
+    private final float [] confidences = new float [model.numClasses];
+    private byte [] scratch = new byte [1024];
+    private byte [] out;
+    private int outLength;
+
+    void process(Block block) {
+      final byte [] input = block.input;
+      out = new byte [Math.max(64, block.length / 4)];
+      outLength = 0;
+      int lines = 0;
+      for (int i = 0; i < block.length;) {
+        int end = i;
+        while (end < block.length && input[end] != '\n') {
+          end++;
+        }
+        int lineEnd = end;
+        if (lineEnd > i && input[lineEnd - 1] == '\r') {
+          lineEnd--;
+        }
+        classify(input, i, lineEnd);
+        lines++;
+        i = end + 1;
+      }
+      block.output = out;
+      block.outputLength = outLength;
+      block.lines = lines;
+      out = null;
+    }
+
+    private void classify(byte [] input, int start, int end) {
+      final byte [] text;
+      int from = start;
+      int to = end;
+      switch (format) {
+        case LINES:
+          text = input;
+          break;
+        case TSV:
+          text = input;
+          if (column == 0) {
+            for (int i = end; --i >= start;) {
+              if (input[i] == '\t') {
+                from = i + 1;
+                break;
+              }
+            }
+          } else {
+            int col = 1;
+            for (int i = start; i < end && col < column; i++) {
+              if (input[i] == '\t') {
+                col++;
+                from = i + 1;
+              }
+            }
+            if (col < column) {
+              missing();
+              return;
+            }
+            to = from;
+            while (to < end && input[to] != '\t') {
+              to++;
+            }
+          }
+          break;
+        case JSONL:
+          if (scratch.length < end - start) {
+            scratch = new byte [end - start];
+          }
+          to = Json.field(input, start, end, field, scratch);
+          if (to < 0) {
+            missing();
+            return;
+          }
+          text = scratch;
+          from = 0;
+          break;
+        default:
+          throw new RuntimeException("Unreachable.");
+      }
+
+      if (from == to) {
+        missing();
+        return;
+      }
+
+      langid.reset();
+      langid.append(text, from, to - from);
+      final int best = langid.rank(true, confidences);
+      write(best);
+      for (int k = 1; k < topK; k++) {
+        // Next best, below the previous one (ties broken by index).
+        int next = -1;
+        for (int c = 0; c < confidences.length; c++) {
+          if (confidences[c] >= 0 && c != best
+              && (next < 0 || confidences[c] > confidences[next])) {
+            next = c;
+          }
+        }
+        write((byte) '\t');
+        write(next);
+        confidences[next] = -1;
+      }
+      write((byte) '\n');
+    }
+
+    private void missing() {
+      ensure(16);
+      out[outLength++] = '\t';
+      out[outLength++] = '0';
+      out[outLength++] = '\n';
+    }
+
+    /** Write a language code and its confidence. */
+    private void write(int c) {
+      String lang = model.langClasses[c];
+      ensure(lang.length() * 3 + 16);
+      for (int i = 0; i < lang.length(); i++) {
+        out[outLength++] = (byte) lang.charAt(i);
+      }
+      out[outLength++] = '\t';
+      writeFixed4(confidences[c]);
+    }
+
+    /** Write a non-negative value with four decimal digits. */
+    private void writeFixed4(float value) {
+      int v = Math.round(Math.min(1, Math.max(0, value)) * 10000);
+      out[outLength++] = (byte) ('0' + v / 10000);
+      out[outLength++] = '.';
+      out[outLength++] = (byte) ('0' + v / 1000 % 10);
+      out[outLength++] = (byte) ('0' + v / 100 % 10);
+      out[outLength++] = (byte) ('0' + v / 10 % 10);
+      out[outLength++] = (byte) ('0' + v % 10);
+    }
+
+    private void write(byte b) {
+      ensure(1);
+      out[outLength++] = b;
+    }
+
+    private void ensure(int bytes) {
+      if (outLength + bytes > out.length) {
+        out = Arrays.copyOf(out, Math.max(outLength + bytes, out.length * 2));
+      }
+    }
+  }
+
+  /**
+   * Classify all lines of the input and write results to the output.
+   *
+   * @return Returns the number of classified lines.
+   */
+  public long run(ReadableByteChannel in, final WritableByteChannel out) throws IOException {
+    final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+      @Override
+      protected Worker initialValue() {
+        return new Worker();
+      }
+    };
+    final List<Thread> threads = new ArrayList<Thread>();
+    final ExecutorService executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+      @Override
+      public synchronized Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "langid-batch-" + threads.size());
+        threads.add(t);
+        return t;
+      }
+    });
+    final BlockingQueue<Future<Block>> pending = new ArrayBlockingQueue<Future<Block>>(this.threads * 2);
+    final Future<Block> eof = new FutureTask<Block>(new Callable<Block>() {
+      @Override
+      public Block call() {
+        return null;
+      }
+    });
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final long [] lines = new long [1];
+
+    // Write results in input order. After an error, pending blocks are discarded.
+    Thread writer = new Thread("langid-batch-writer") {
+      @Override
+      public void run() {
+        try {
+          Future<Block> f;
+          while ((f = pending.take()) != eof) {
+            if (error.get() == null) {
+              try {
+                Block block = f.get();
+                ByteBuffer buffer = ByteBuffer.wrap(block.output, 0, block.outputLength);
+                while (buffer.hasRemaining()) {
+                  out.write(buffer);
+                }
+                lines[0] += block.lines;
+              } catch (ExecutionException e) {
+                error.compareAndSet(null, e.getCause());
+              } catch (IOException e) {
+                error.compareAndSet(null, e);
+              }
+            }
+          }
+        } catch (InterruptedException e) {
+          error.compareAndSet(null, e);
+        }
+      }
+    };
+    writer.start();
+
+    try {
+      try {
+        byte [] buffer = new byte [blockSize];
+        int length = 0;
+        boolean done = false;
+        while (!done && error.get() == null) {
+          int read = in.read(ByteBuffer.wrap(buffer, length, buffer.length - length));
+          if (read < 0) {
+            done = true;
+          } else {
+            length += read;
+            if (length < buffer.length) {
+              continue;
+            }
+          }
+
+          // Submit complete lines (or everything at the end of input).
+          int split = length;
+          if (!done) {
+            while (split > 0 && buffer[split - 1] != '\n') {
+              split--;
+            }
+            if (split == 0) {
+              // A single line longer than the buffer.
+              buffer = Arrays.copyOf(buffer, buffer.length * 2);
+              continue;
+            }
+          }
+          if (split > 0) {
+            byte [] next = new byte [Math.max(blockSize, length - split)];
+            System.arraycopy(buffer, split, next, 0, length - split);
+            pending.put(executor.submit(new Block(workers, buffer, split)));
+            length -= split;
+            buffer = next;
+          }
+        }
+      } finally {
+        pending.put(eof);
+        writer.join();
+      }
+    } catch (InterruptedException e) {
+      writer.interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      executor.shutdownNow();
+      try {
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        for (Thread t : threads) {
+          t.join();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    Throwable t = error.get();
+    if (t != null) {
+      if (t instanceof IOException) {
+        throw (IOException) t;
+      }
+      throw new RuntimeException("Batch classification failed.", t);
+    }
+    return lines[0];
+  }
+
+  /**
+   * Minimal, byte-level JSON field extraction.
+   */
+  static final class Json {
+    /**
+     * Find a top-level string field of a JSON object and copy its unescaped
+     * UTF8 bytes to <code>value</code> (at least <code>end - start</code>
+     * bytes long).
+     *
+     * @return Returns the length of the value or -1 if there is no such string
+     *         field.
+     */
+    static int field(byte [] json, int start, int end, byte [] key, byte [] value) {
+      int depth = 0;
+      for (int i = start; i < end; i++) {
+        switch (json[i]) {
+          case '{':
+          case '[':
+            depth++;
+            break;
+          case '}':
+          case ']':
+            depth--;
+            break;
+          case '"':
+            int close = skipString(json, i, end);
+            if (close < 0) {
+              return -1;
+            }
+            if (depth == 1) {
+              int j = skipWhitespace(json, close + 1, end);
+              if (j < end && json[j] == ':') {
+                if (equals(json, i + 1, close, key)) {
+                  j = skipWhitespace(json, j + 1, end);
+                  if (j < end && json[j] == '"') {
+                    return unescape(json, j + 1, end, value);
+                  }
+                  return -1;
+                }
+              }
+            }
+            i = close;
+            break;
+          default:
+            break;
+        }
+      }
+      return -1;
+    }
+
+    /** @return Returns the index of the closing quote or -1. */
+    private static int skipString(byte [] json, int quote, int end) {
+      for (int i = quote + 1; i < end; i++) {
+        if (json[i] == '\\') {
+          i++;
+        } else if (json[i] == '"') {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private static int skipWhitespace(byte [] json, int i, int end) {
+      while (i < end && (json[i] == ' ' || json[i] == '\t' || json[i] == '\r' || json[i] == '\n')) {
+        i++;
+      }
+      return i;
+    }
+
+    private static boolean equals(byte [] json, int from, int to, byte [] key) {
+      if (to - from != key.length) {
+        return false;
+      }
+      for (int i = 0; i < key.length; i++) {
+        if (json[from + i] != key[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static int unescape(byte [] json, int i, int end, byte [] value) {
+      int length = 0;
+      while (i < end) {
+        byte b = json[i++];
+        if (b == '"') {
+          return length;
+        }
+        if (b != '\\') {
+          value[length++] = b;
+          continue;
+        }
+        if (i >= end) {
+          return -1;
+        }
+        switch (json[i++]) {
+          case '"':  value[length++] = '"'; break;
+          case '\\': value[length++] = '\\'; break;
+          case '/':  value[length++] = '/'; break;
+          case 'b':  value[length++] = '\b'; break;
+          case 'f':  value[length++] = '\f'; break;
+          case 'n':  value[length++] = '\n'; break;
+          case 'r':  value[length++] = '\r'; break;
+          case 't':  value[length++] = '\t'; break;
+          case 'u':
+            int cp = hex4(json, i, end);
+            if (cp < 0) {
+              return -1;
+            }
+            i += 4;
+            if (Character.isHighSurrogate((char) cp) && i + 6 <= end
+                && json[i] == '\\' && json[i + 1] == 'u') {
+              int low = hex4(json, i + 2, end);
+              if (low >= 0 && Character.isLowSurrogate((char) low)) {
+                cp = Character.toCodePoint((char) cp, (char) low);
+                i += 6;
+              }
+            }
+            if (Character.isSurrogate((char) cp) && cp <= 0xffff) {
+              cp = 0xfffd;
+            }
+            length = utf8(cp, value, length);
+            break;
+          default:
+            return -1;
+        }
+      }
+      return -1;
+    }
+
+    private static int hex4(byte [] json, int i, int end) {
+      if (i + 4 > end) {
+        return -1;
+      }
+      int v = 0;
+      for (int j = i; j < i + 4; j++) {
+        int d = Character.digit(json[j], 16);
+        if (d < 0) {
+          return -1;
+        }
+        v = (v << 4) | d;
+      }
+      return v;
+    }
+
+    private static int utf8(int cp, byte [] out, int i) {
+      if (cp < 0x80) {
+        out[i++] = (byte) cp;
+      } else if (cp < 0x800) {
+        out[i++] = (byte) (0xc0 | (cp >> 6));
+        out[i++] = (byte) (0x80 | (cp & 0x3f));
+      } else if (cp < 0x10000) {
+        out[i++] = (byte) (0xe0 | (cp >> 12));
+        out[i++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+        out[i++] = (byte) (0x80 | (cp & 0x3f));
+      } else {
+        out[i++] = (byte) (0xf0 | (cp >> 18));
+        out[i++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+        out[i++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+        out[i++] = (byte) (0x80 | (cp & 0x3f));
+      }
+      return i;
+    }
+  }
+
+  public static void main(String [] args) throws Exception {
+    Format format = Format.LINES;
+    int column = 0;
+    String field = "text";
+    int threads = Runtime.getRuntime().availableProcessors();
+    int topK = 1;
+    String languages = null;
+    String modelFile = null;
+    String output = null;
+    List<String> inputs = new ArrayList<String>();
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("-format")) {
+        format = Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+      } else if (arg.equals("-column")) {
+        column = Integer.parseInt(args[++i]);
+      } else if (arg.equals("-field")) {
+        field = args[++i];
+      } else if (arg.equals("-threads")) {
+        threads = Integer.parseInt(args[++i]);
+      } else if (arg.equals("-topk")) {
+        topK = Integer.parseInt(args[++i]);
+      } else if (arg.equals("-languages")) {
+        languages = args[++i];
+      } else if (arg.equals("-model")) {
+        modelFile = args[++i];
+      } else if (arg.equals("-output")) {
+        output = args[++i];
+      } else if (arg.startsWith("-") && arg.length() > 1) {
+        System.err.println("Usage: BatchClassifier [-format lines|tsv|jsonl] [-column N] [-field name]"
+            + " [-threads N] [-topk K] [-languages en,de,...] [-model file] [-output file] [file...]");
+        System.exit(1);
+      } else {
+        inputs.add(arg);
+      }
+    }
+
+    if (languages != null && modelFile != null) {
+      throw new IllegalArgumentException("-languages applies to the default model only.");
+    }
+
+    Model model;
+    if (modelFile != null) {
+      ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(modelFile)));
+      try {
+        model = Model.readExternal(ois);
+      } finally {
+        ois.close();
+      }
+    } else if (languages != null) {
+      // Decode the weights of the given languages only.
+      model = Model.load(new LinkedHashSet<String>(Arrays.asList(languages.split(","))));
+    } else {
+      model = Model.defaultModel();
+    }
+
+    BatchClassifier classifier = new BatchClassifier(model)
+      .setFormat(format)
+      .setColumn(column)
+      .setField(field)
+      .setThreads(threads)
+      .setTopK(topK);
+
+    WritableByteChannel out = output == null
+        ? Channels.newChannel(new FileOutputStream(FileDescriptor.out))
+        : new FileOutputStream(output).getChannel();
+    try {
+      if (inputs.isEmpty()) {
+        classifier.run(Channels.newChannel(new FileInputStream(FileDescriptor.in)), out);
+      } else {
+        for (String input : inputs) {
+          FileChannel in = new FileInputStream(input).getChannel();
+          try {
+            classifier.run(in, out);
+          } finally {
+            in.close();
+          }
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+}
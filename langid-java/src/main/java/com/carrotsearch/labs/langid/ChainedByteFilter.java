@@ -0,0 +1,72 @@
+package com.carrotsearch.labs.langid;
+
+/**
+ * Applies two {@link IByteFilter}s in sequence (the output of the first one is
+ * the input of the second one). For example, to strip markup and then normalize
+ * the remaining text:
+ * <pre>
+ * new LangIdV3(model, new ChainedByteFilter(
+ *     new MarkupByteFilter(),
+ *     new NormalizingByteFilter()));
+ * </pre>
+ */
+public final class ChainedByteFilter implements IByteFilter {
+  /** Maximum number of input bytes passed to the first filter at once. */
+  private final static int CHUNK = 1024 * 4;
+
+  private final IByteFilter first;
+  private final IByteFilter second;
+
+  // Intermediate output of the first filter.
+  private final byte[] buffer;
+
+  public ChainedByteFilter(IByteFilter first, IByteFilter second) {
+    this.first = first;
+    this.second = second;
+    this.buffer = new byte [CHUNK + first.maxHeldBack()];
+  }
+
+  /*
+   *
+   */
+  @Override
+  public void reset() {
+    first.reset();
+    second.reset();
+  }
+
+  /*
+   *
+   */
+  @Override
+  public int filter(byte[] in, int start, int length, byte[] out, int outStart) {
+    int o = outStart;
+    for (int max = start + length; start < max;) {
+      int chunk = Math.min(max - start, CHUNK);
+      int filtered = first.filter(in, start, chunk, buffer, 0);
+      o += second.filter(buffer, 0, filtered, out, o);
+      start += chunk;
+    }
+    return o - outStart;
+  }
+
+  /*
+   *
+   */
+  @Override
+  public int flush(byte[] out, int outStart) {
+    int o = outStart;
+    int filtered = first.flush(buffer, 0);
+    o += second.filter(buffer, 0, filtered, out, o);
+    o += second.flush(out, o);
+    return o - outStart;
+  }
+
+  /*
+   *
+   */
+  @Override
+  public int maxHeldBack() {
+    return first.maxHeldBack() + second.maxHeldBack();
+  }
+}
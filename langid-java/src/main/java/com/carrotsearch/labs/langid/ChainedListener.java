@@ -0,0 +1,54 @@
+package com.carrotsearch.labs.langid;
+
+/**
+ * A listener forwarding all notifications to two other listeners (for example
+ * {@link LangIdMetrics} and a tracing listener).
+ */
+public final class ChainedListener implements ILangIdListener {
+  private final ILangIdListener first;
+  private final ILangIdListener second;
+
+  public ChainedListener(ILangIdListener first, ILangIdListener second) {
+    if (first == null || second == null) {
+      throw new IllegalArgumentException("Listeners must not be null.");
+    }
+    this.first = first;
+    this.second = second;
+  }
+
+  /*
+   * 
+   */
+  @Override
+  public void appended(int bytes, long nanos) {
+    first.appended(bytes, nanos);
+    second.appended(bytes, nanos);
+  }
+
+  /*
+   * 
+   */
+  @Override
+  public void classified(long bytes, long appendNanos, int dsaOutputs, String langCode, float probability, long nanos) {
+    first.classified(bytes, appendNanos, dsaOutputs, langCode, probability, nanos);
+    second.classified(bytes, appendNanos, dsaOutputs, langCode, probability, nanos);
+  }
+
+  /*
+   * 
+   */
+  @Override
+  public void modelLoaded(long bytes, long decodeNanos, long deserializeNanos) {
+    first.modelLoaded(bytes, decodeNanos, deserializeNanos);
+    second.modelLoaded(bytes, decodeNanos, deserializeNanos);
+  }
+
+  /*
+   * 
+   */
+  @Override
+  public void modelTrimmed(int languages, long nanos) {
+    first.modelTrimmed(languages, nanos);
+    second.modelTrimmed(languages, nanos);
+  }
+}
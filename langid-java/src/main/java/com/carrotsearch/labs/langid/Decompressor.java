@@ -0,0 +1,303 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Incrementally decompresses gzip, zlib or raw deflate streams. Data is inflated
+ * only as it is read from the stream returned by {@link #open(InputStream, Format)},
+ * so nothing is decompressed (or read from the source) once reading stops, see
+ * {@link LangIdV3#classify(InputStream, long, float, boolean, DetectedLanguage)}.
+ *
+ * <p>
+ * The same inflater, input buffer and stream object are reused for every opened
+ * stream, so only the most recently opened stream can be read. Only the first
+ * member of multi-member gzip streams is decompressed and checksums are not
+ * verified (reading typically stops before the end of the stream anyway).
+ *
+ * <p><strong>Thread safety:</strong> an instance of this class is <b>not</b> safe
+ * for use by multiple threads at the same time.
+ */
+public final class Decompressor implements Closeable {
+  /** Compression formats. */
+  public static enum Format {
+    /** 
+     * Detect gzip and zlib streams by their headers (the first buffered block of a 
+     * zlib stream must also inflate without errors); anything else is not compressed. 
+     */
+    AUTO,
+    /** A gzip stream (RFC 1952). */
+    GZIP,
+    /** A zlib stream (RFC 1950). */
+    ZLIB,
+    /** A raw deflate stream (RFC 1951). */
+    DEFLATE,
+    /** Not compressed. */
+    NONE;
+  }
+
+  private final static int GZIP_FHCRC = 0x02;
+  private final static int GZIP_FEXTRA = 0x04;
+  private final static int GZIP_FNAME = 0x08;
+  private final static int GZIP_FCOMMENT = 0x10;
+
+  private final Inflater inflater = new Inflater(true);
+  private final byte [] input = new byte [1024 * 8];
+  private int inputPos;
+  private int inputLimit;
+  /** Output of the zlib detection probe (allocated on first use). */
+  private byte [] probe;
+
+  private InputStream source;
+  private boolean compressed;
+
+  private final InputStream stream = new InputStream() {
+    @Override
+    public int read() throws IOException {
+      final byte [] b = new byte [1];
+      int read;
+      while ((read = read(b, 0, 1)) == 0) {
+        // Repeat.
+      }
+      return read < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte [] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (source == null) {
+        throw new IOException("Stream closed or a new stream has been opened.");
+      }
+      return compressed ? inflate(b, off, len) : copy(b, off, len);
+    }
+
+    /** Does not close the source stream. */
+    @Override
+    public void close() {
+      source = null;
+    }
+  };
+
+  /**
+   * Open a stream decompressing data read from <code>in</code> (the source is
+   * not closed).
+   */
+  public InputStream open(InputStream in, Format format) throws IOException {
+    this.source = in;
+    this.inputPos = this.inputLimit = 0;
+    this.inflater.reset();
+
+    if (format == Format.AUTO) {
+      format = detect();
+    }
+    switch (format) {
+      case GZIP:
+        gzipHeader();
+        compressed = true;
+        break;
+      case ZLIB:
+        zlibHeader();
+        compressed = true;
+        break;
+      case DEFLATE:
+        compressed = true;
+        break;
+      case NONE:
+        compressed = false;
+        break;
+      default:
+        throw new RuntimeException("Unreachable.");
+    }
+    return stream;
+  }
+
+  /**
+   * Open a stream decompressing data read from a channel (the channel is not closed).
+   */
+  public InputStream open(ReadableByteChannel in, Format format) throws IOException {
+    return open(Channels.newInputStream(in), format);
+  }
+
+  /**
+   * Release native resources of the inflater.
+   */
+  @Override
+  public void close() {
+    source = null;
+    inflater.end();
+  }
+
+  private Format detect() throws IOException {
+    // Make sure two bytes are buffered (if available).
+    while (inputLimit < 2) {
+      int read = source.read(input, inputLimit, input.length - inputLimit);
+      if (read < 0) {
+        return Format.NONE;
+      }
+      inputLimit += read;
+    }
+
+    final int b0 = input[0] & 0xff;
+    final int b1 = input[1] & 0xff;
+    if (b0 == 0x1f && b1 == 0x8b) {
+      return Format.GZIP;
+    }
+    if ((b0 & 0x0f) == 8 && (b0 >> 4) <= 7 && ((b0 << 8) | b1) % 31 == 0 && (b1 & 0x20) == 0
+        && inflatesCleanly()) {
+      return Format.ZLIB;
+    }
+    return Format.NONE;
+  }
+
+  /**
+   * Two bytes of plain text (like <code>"XG"</code> or <code>"hC"</code>) can form
+   * a valid zlib header, so fill the input buffer and try to inflate it. 
+   * 
+   * @return Returns <code>false</code> if the buffered data isn't a valid prefix of
+   *         a deflate stream (or the source ends before the stream does).
+   */
+  private boolean inflatesCleanly() throws IOException {
+    boolean eof = false;
+    while (inputLimit < input.length) {
+      int read = source.read(input, inputLimit, input.length - inputLimit);
+      if (read < 0) {
+        eof = true;
+        break;
+      }
+      inputLimit += read;
+    }
+
+    if (probe == null) {
+      probe = new byte [1024];
+    }
+    try {
+      inflater.setInput(input, 2, inputLimit - 2);
+      while (!inflater.finished()) {
+        if (inflater.inflate(probe) == 0 && !inflater.finished()) {
+          // Valid so far if more input is needed (and there is more input).
+          return inflater.needsInput() && !eof;
+        }
+      }
+      return true;
+    } catch (DataFormatException e) {
+      return false;
+    } finally {
+      inflater.reset();
+    }
+  }
+
+  private void gzipHeader() throws IOException {
+    if (readByte() != 0x1f || readByte() != 0x8b) {
+      throw new ZipException("Not in gzip format.");
+    }
+    if (readByte() != 8) {
+      throw new ZipException("Unsupported gzip compression method.");
+    }
+    final int flags = readByte();
+    // MTIME, XFL, OS
+    skip(6);
+    if ((flags & GZIP_FEXTRA) != 0) {
+      skip(readByte() | (readByte() << 8));
+    }
+    if ((flags & GZIP_FNAME) != 0) {
+      while (readByte() != 0) {
+        // Skip.
+      }
+    }
+    if ((flags & GZIP_FCOMMENT) != 0) {
+      while (readByte() != 0) {
+        // Skip.
+      }
+    }
+    if ((flags & GZIP_FHCRC) != 0) {
+      skip(2);
+    }
+  }
+
+  private void zlibHeader() throws IOException {
+    final int cmf = readByte();
+    final int flg = readByte();
+    if ((cmf & 0x0f) != 8 || ((cmf << 8) | flg) % 31 != 0) {
+      throw new ZipException("Not in zlib format.");
+    }
+    if ((flg & 0x20) != 0) {
+      throw new ZipException("Preset dictionaries are not supported.");
+    }
+  }
+
+  private void skip(int bytes) throws IOException {
+    for (int i = 0; i < bytes; i++) {
+      readByte();
+    }
+  }
+
+  /**
+   * Read a single byte of the source (buffered).
+   */
+  private int readByte() throws IOException {
+    if (inputPos == inputLimit && !fill()) {
+      throw new EOFException("Unexpected end of compressed stream header.");
+    }
+    return input[inputPos++] & 0xff;
+  }
+
+  /**
+   * Refill the input buffer.
+   *
+   * @return Returns <code>false</code> at the end of the source.
+   */
+  private boolean fill() throws IOException {
+    int read;
+    while ((read = source.read(input, 0, input.length)) == 0) {
+      // Repeat.
+    }
+    if (read < 0) {
+      return false;
+    }
+    inputPos = 0;
+    inputLimit = read;
+    return true;
+  }
+
+  private int copy(byte [] b, int off, int len) throws IOException {
+    if (inputPos < inputLimit) {
+      int n = Math.min(len, inputLimit - inputPos);
+      System.arraycopy(input, inputPos, b, off, n);
+      inputPos += n;
+      return n;
+    }
+    return source.read(b, off, len);
+  }
+
+  private int inflate(byte [] b, int off, int len) throws IOException {
+    try {
+      while (true) {
+        int n = inflater.inflate(b, off, len);
+        if (n > 0) {
+          return n;
+        }
+        if (inflater.finished() || inflater.needsDictionary()) {
+          return -1;
+        }
+        if (inflater.needsInput()) {
+          if (inputPos == inputLimit && !fill()) {
+            throw new EOFException("Unexpected end of compressed stream.");
+          }
+          inflater.setInput(input, inputPos, inputLimit - inputPos);
+          inputPos = inputLimit;
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new ZipException("Invalid compressed data: " + e.getMessage());
+    }
+  }
+}
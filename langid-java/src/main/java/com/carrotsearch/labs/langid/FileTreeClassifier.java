@@ -0,0 +1,497 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Classifies the language of every regular file in a directory tree. Files are
+ * assumed to be UTF8-encoded.
+ *
+ * <p>
+ * The work is split into two stages connected by bounded queues: I/O threads
+ * read a prefix of each file (or evenly spaced fragments of it, see
+ * {@link #setSampled(boolean)}) and CPU threads classify them, each with its own
+ * {@link LangIdV3} instance. The number of threads in each stage is configured
+ * separately, so that slow disks (more I/O threads) and many small files (more
+ * CPU threads) both keep the cores busy. Large regions are memory mapped
+ * instead of read (see {@link #setMapThreshold(int)}).
+ *
+ * <p>
+ * Command line usage (output file or stdout):
+ * <pre>
+ * FileTreeClassifier [-threads N] [-ioThreads N] [-bytes N] [-sampled] [-mapThreshold N]
+ *                    [-languages en,de,...] [-output file] path...
+ * </pre>
+ * writes one <code>path&lt;TAB&gt;lang&lt;TAB&gt;confidence</code> line per file (in
+ * no particular order); unreadable files are reported to stderr.
+ */
+public final class FileTreeClassifier {
+  /** Size of a single fragment in sampled mode. */
+  private final static int SAMPLE_FRAGMENT = 1024 * 4;
+
+  /**
+   * Receives classification results. Calls are serialized (never concurrent),
+   * but they come from different threads and in no particular order.
+   */
+  public static interface ISink {
+    /**
+     * A file has been classified (<code>langCode</code> is <code>null</code> for
+     * empty files).
+     */
+    void classified(Path file, long size, String langCode, float confidence);
+
+    /**
+     * A file could not be read.
+     */
+    void failed(Path file, IOException e);
+  }
+
+  /**
+   * Bytes read from a file: <code>fragments</code> regions of <code>data</code>,
+   * between <code>bounds[i]</code> and <code>bounds[i + 1]</code>.
+   */
+  private static final class Document {
+    final Path file;
+    final long size;
+    final ByteBuffer data;
+    final int [] bounds;
+    final int fragments;
+
+    Document(Path file, long size, ByteBuffer data, int [] bounds, int fragments) {
+      this.file = file;
+      this.size = size;
+      this.data = data;
+      this.bounds = bounds;
+      this.fragments = fragments;
+    }
+  }
+
+  /** Marks the end of a queue. */
+  private final static Path EOF_PATH = Paths.get("");
+  private final static Document EOF_DOCUMENT = new Document(EOF_PATH, 0, null, null, 0);
+
+  private final Model model;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private int ioThreads = 4;
+  private int maxBytes = 64 * 1024;
+  private boolean sampled;
+  private int mapThreshold = 1 << 20;
+
+  public FileTreeClassifier() {
+    this(Model.defaultModel());
+  }
+
+  public FileTreeClassifier(Model model) {
+    this.model = model;
+  }
+
+  /**
+   * The number of classification threads (one per processor by default).
+   */
+  public FileTreeClassifier setThreads(int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("Threads must be positive: " + threads);
+    }
+    this.threads = threads;
+    return this;
+  }
+
+  /**
+   * The number of threads reading files (4 by default).
+   */
+  public FileTreeClassifier setIoThreads(int ioThreads) {
+    if (ioThreads <= 0) {
+      throw new IllegalArgumentException("I/O threads must be positive: " + ioThreads);
+    }
+    this.ioThreads = ioThreads;
+    return this;
+  }
+
+  /**
+   * The maximum number of bytes classified for each file (64 kB by default).
+   */
+  public FileTreeClassifier setMaxBytes(int maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("Max bytes must be positive: " + maxBytes);
+    }
+    this.maxBytes = maxBytes;
+    return this;
+  }
+
+  /**
+   * If <code>true</code>, files larger than {@link #setMaxBytes(int)} are sampled
+   * with fragments taken from evenly spaced positions across the file (as in
+   * {@link LangIdV3#classifySampled(byte[], int, int, int, boolean)}) instead of
+   * classifying the file's prefix.
+   */
+  public FileTreeClassifier setSampled(boolean sampled) {
+    this.sampled = sampled;
+    return this;
+  }
+
+  /**
+   * Prefixes at least this long (and sampled files at least this large) are
+   * memory mapped instead of read (1 MB by default).
+   */
+  public FileTreeClassifier setMapThreshold(int mapThreshold) {
+    if (mapThreshold < 0) {
+      throw new IllegalArgumentException("Map threshold must not be negative: " + mapThreshold);
+    }
+    this.mapThreshold = mapThreshold;
+    return this;
+  }
+
+  /**
+   * Classify all regular files under <code>root</code> (or <code>root</code>
+   * itself if it is a file). Symbolic links are not followed.
+   *
+   * @return Returns the number of files passed to the sink.
+   */
+  public long run(Path root, final ISink sink) throws IOException {
+    final BlockingQueue<Path> paths = new ArrayBlockingQueue<Path>(ioThreads * 4);
+    final BlockingQueue<Document> documents = new ArrayBlockingQueue<Document>(threads * 2);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final AtomicLong files = new AtomicLong();
+
+    final List<Thread> ioWorkers = new ArrayList<Thread>();
+    for (int i = 0; i < ioThreads; i++) {
+      ioWorkers.add(new Thread("langid-io-" + i) {
+        @Override
+        public void run() {
+          try {
+            Path file;
+            while ((file = paths.take()) != EOF_PATH) {
+              if (error.get() != null) {
+                continue;
+              }
+              try {
+                Document document = read(file);
+                if (document.fragments == 0) {
+                  synchronized (sink) {
+                    sink.classified(file, document.size, null, 0);
+                  }
+                  files.incrementAndGet();
+                } else {
+                  documents.put(document);
+                }
+              } catch (IOException e) {
+                synchronized (sink) {
+                  sink.failed(file, e);
+                }
+                files.incrementAndGet();
+              } catch (Throwable t) {
+                error.compareAndSet(null, t);
+              }
+            }
+          } catch (InterruptedException e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+
+    final List<Thread> cpuWorkers = new ArrayList<Thread>();
+    for (int i = 0; i < threads; i++) {
+      cpuWorkers.add(new Thread("langid-cpu-" + i) {
+        @Override
+        public void run() {
+          final LangIdV3 langid = new LangIdV3(model);
+          final DetectedLanguage result = new DetectedLanguage(null, 0);
+          try {
+            Document document;
+            while ((document = documents.take()) != EOF_DOCUMENT) {
+              if (error.get() != null) {
+                continue;
+              }
+              try {
+                classify(langid, document, result);
+                synchronized (sink) {
+                  sink.classified(document.file, document.size, result.langCode, result.confidence);
+                }
+                files.incrementAndGet();
+              } catch (Throwable t) {
+                error.compareAndSet(null, t);
+              }
+            }
+          } catch (InterruptedException e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+
+    for (Thread t : ioWorkers) {
+      t.start();
+    }
+    for (Thread t : cpuWorkers) {
+      t.start();
+    }
+
+    try {
+      try {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            if (error.get() != null) {
+              return FileVisitResult.TERMINATE;
+            }
+            if (attrs.isRegularFile()) {
+              try {
+                paths.put(file);
+              } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException e) {
+            synchronized (sink) {
+              sink.failed(file, e);
+            }
+            files.incrementAndGet();
+            return FileVisitResult.CONTINUE;
+          }
+        });
+      } finally {
+        // Stop the I/O stage first (it feeds the CPU stage), then the CPU stage.
+        for (int i = 0; i < ioWorkers.size(); i++) {
+          paths.put(EOF_PATH);
+        }
+        for (Thread t : ioWorkers) {
+          t.join();
+        }
+        for (int i = 0; i < cpuWorkers.size(); i++) {
+          documents.put(EOF_DOCUMENT);
+        }
+        for (Thread t : cpuWorkers) {
+          t.join();
+        }
+      }
+    } catch (InterruptedException e) {
+      for (Thread t : ioWorkers) {
+        t.interrupt();
+      }
+      for (Thread t : cpuWorkers) {
+        t.interrupt();
+      }
+      throw new RuntimeException(e);
+    }
+
+    Throwable t = error.get();
+    if (t != null) {
+      if (t instanceof RuntimeException) throw (RuntimeException) t;
+      if (t instanceof Error) throw (Error) t;
+      throw new RuntimeException(t);
+    }
+    return files.get();
+  }
+
+  /**
+   * Read a prefix or sampled fragments of a file.
+   */
+  private Document read(Path file) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      final long size = channel.size();
+      if (size == 0) {
+        return new Document(file, size, null, null, 0);
+      }
+
+      if (!sampled || size <= maxBytes) {
+        final int length = (int) Math.min(size, maxBytes);
+        final ByteBuffer data;
+        if (length >= mapThreshold) {
+          MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+          // Fault pages in here rather than on a classification thread.
+          mapped.load();
+          data = mapped;
+        } else {
+          data = ByteBuffer.allocate(length);
+          readFully(channel, data, 0);
+        }
+        return new Document(file, size, data, new int [] {0, trimIncomplete(data, 0, length)}, 1);
+      }
+
+      // Evenly spaced fragments.
+      final int fragment = Math.min(SAMPLE_FRAGMENT, maxBytes);
+      final int fragments = maxBytes / fragment;
+      final byte [] data = new byte [fragments * fragment];
+      final int [] bounds = new int [fragments + 1];
+      final MappedByteBuffer mapped = size >= mapThreshold && size <= Integer.MAX_VALUE
+          ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+          : null;
+      int length = 0;
+      for (int i = 0; i < fragments; i++) {
+        long sliceStart = size * i / fragments;
+        long sliceEnd   = size * (i + 1) / fragments;
+        long from = sliceStart + (sliceEnd - sliceStart - fragment) / 2;
+
+        ByteBuffer target = ByteBuffer.wrap(data, length, fragment);
+        if (mapped != null) {
+          ByteBuffer source = mapped.duplicate();
+          source.position((int) from).limit((int) from + fragment);
+          target.put(source);
+        } else {
+          readFully(channel, target, from);
+        }
+
+        // Align to code point boundaries.
+        int start = length;
+        int end = length + fragment;
+        while (start < end && (data[start] & 0xc0) == 0x80) {
+          start++;
+        }
+        end = trimIncomplete(ByteBuffer.wrap(data), start, end);
+        System.arraycopy(data, start, data, length, end - start);
+        length += end - start;
+        bounds[i + 1] = length;
+      }
+      return new Document(file, size, ByteBuffer.wrap(data, 0, length), bounds, fragments);
+    } finally {
+      channel.close();
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+    while (target.hasRemaining()) {
+      int read = channel.read(target, position);
+      if (read < 0) {
+        throw new IOException("Unexpected end of file (truncated while reading?).");
+      }
+      position += read;
+    }
+  }
+
+  /**
+   * @return Returns the end of <code>data[start..end)</code> without a trailing
+   *         incomplete UTF8 sequence.
+   */
+  private static int trimIncomplete(ByteBuffer data, int start, int end) {
+    for (int i = end - 1, continuation = 0; i >= start && continuation < 4; i--, continuation++) {
+      int b = data.get(i) & 0xff;
+      if ((b & 0xc0) != 0x80) {
+        int expected = b < 0x80 ? 1 : b >= 0xf0 ? 4 : b >= 0xe0 ? 3 : b >= 0xc0 ? 2 : 1;
+        return continuation + 1 < expected ? i : end;
+      }
+    }
+    return end;
+  }
+
+  private static void classify(LangIdV3 langid, Document document, DetectedLanguage result) {
+    final ByteBuffer data = document.data;
+    final int [] bounds = document.bounds;
+    langid.reset();
+    if (data.hasArray()) {
+      for (int i = 0; i < document.fragments; i++) {
+        langid.append(data.array(), data.arrayOffset() + bounds[i], bounds[i + 1] - bounds[i]);
+      }
+    } else {
+      final ByteBuffer view = data.duplicate();
+      for (int i = 0; i < document.fragments; i++) {
+        view.limit(bounds[i + 1]).position(bounds[i]);
+        langid.append(view);
+      }
+    }
+    langid.classify(true, result);
+  }
+
+  public static void main(String [] args) throws Exception {
+    int threads = Runtime.getRuntime().availableProcessors();
+    int ioThreads = 4;
+    int maxBytes = 64 * 1024;
+    boolean sampled = false;
+    int mapThreshold = 1 << 20;
+    String languages = null;
+    String output = null;
+    List<Path> roots = new ArrayList<Path>();
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("-threads")) {
+        threads = Integer.parseInt(args[++i]);
+      } else if (arg.equals("-ioThreads")) {
+        ioThreads = Integer.parseInt(args[++i]);
+      } else if (arg.equals("-bytes")) {
+        maxBytes = Integer.parseInt(args[++i]);
+      } else if (arg.equals("-sampled")) {
+        sampled = true;
+      } else if (arg.equals("-mapThreshold")) {
+        mapThreshold = Integer.parseInt(args[++i]);
+      } else if (arg.equals("-languages")) {
+        languages = args[++i];
+      } else if (arg.equals("-output")) {
+        output = args[++i];
+      } else if (arg.startsWith("-")) {
+        roots.clear();
+        break;
+      } else {
+        roots.add(Paths.get(arg));
+      }
+    }
+    if (roots.isEmpty()) {
+      System.err.println("Usage: FileTreeClassifier [-threads N] [-ioThreads N] [-bytes N] [-sampled]"
+          + " [-mapThreshold N] [-languages en,de,...] [-output file] path...");
+      System.exit(1);
+    }
+
+    FileTreeClassifier classifier = new FileTreeClassifier(languages == null
+          ? Model.defaultModel()
+          : Model.load(new LinkedHashSet<String>(Arrays.asList(languages.split(",")))))
+      .setThreads(threads)
+      .setIoThreads(ioThreads)
+      .setMaxBytes(maxBytes)
+      .setSampled(sampled)
+      .setMapThreshold(mapThreshold);
+
+    OutputStream os = output == null ? System.out : new FileOutputStream(output);
+    final Writer out = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+    final PrintStream err = System.err;
+    try {
+      for (Path root : roots) {
+        classifier.run(root, new ISink() {
+          @Override
+          public void classified(Path file, long size, String langCode, float confidence) {
+            try {
+              out.write(file + "\t" + (langCode == null ? "" : langCode)
+                  + String.format(Locale.ROOT, "\t%.4f\n", confidence));
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          }
+
+          @Override
+          public void failed(Path file, IOException e) {
+            err.println("Could not read: " + file + " (" + e + ")");
+          }
+        });
+      }
+    } finally {
+      out.close();
+    }
+  }
+}
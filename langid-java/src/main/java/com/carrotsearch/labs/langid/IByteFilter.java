@@ -0,0 +1,49 @@
+package com.carrotsearch.labs.langid;
+
+/**
+ * A streaming, byte-level (UTF8) filter applied to the input before it reaches
+ * the n-gram automaton of {@link LangIdV3}.
+ *
+ * <p>
+ * Filters are stateful and incremental: the input may be split at arbitrary
+ * positions and fed in chunks; a filter may hold back some bytes (for example
+ * an incomplete token) until it sees more input or until {@link #flush} is
+ * called. Implementations should not allocate memory in {@link #filter} or
+ * {@link #flush}.
+ *
+ * <p>
+ * <strong>Thread safety:</strong> filters are <b>not</b> thread safe; each
+ * {@link LangIdV3} instance needs its own filter instance.
+ *
+ * @see LangIdV3#LangIdV3(Model, IByteFilter)
+ */
+public interface IByteFilter {
+  /**
+   * Reset internal state to start filtering a new document.
+   */
+  public abstract void reset();
+
+  /**
+   * Filter <code>length</code> bytes of <code>in</code>, starting at
+   * <code>start</code>, writing the output to <code>out</code> at
+   * <code>outStart</code>. The output array must have at least
+   * <code>length + {@link #maxHeldBack()}</code> bytes available.
+   *
+   * @return Returns the number of bytes written to <code>out</code>.
+   */
+  public abstract int filter(byte[] in, int start, int length, byte[] out, int outStart);
+
+  /**
+   * Emit any bytes held back from previous calls to {@link #filter}. The output
+   * array must have at least {@link #maxHeldBack()} bytes available.
+   *
+   * @return Returns the number of bytes written to <code>out</code>.
+   */
+  public abstract int flush(byte[] out, int outStart);
+
+  /**
+   * The maximum number of bytes this filter can hold back between calls (and
+   * hence emit in excess of the input length on a single call).
+   */
+  public abstract int maxHeldBack();
+}
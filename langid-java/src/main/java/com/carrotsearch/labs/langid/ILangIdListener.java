@@ -0,0 +1,61 @@
+package com.carrotsearch.labs.langid;
+
+/**
+ * Receives notifications about classification and model loading events (for
+ * metrics, tracing, etc.).
+ * 
+ * <p>
+ * Listeners are optional: no timing or counting is performed unless a
+ * listener is set (see {@link LangIdV3#setListener(ILangIdListener)} and
+ * {@link Model#setListener(ILangIdListener)}). Methods are called on the
+ * classification thread, so they should be fast and thread safe (the same
+ * listener is typically shared by all classifiers).
+ * 
+ * @see LangIdMetrics
+ */
+public interface ILangIdListener {
+  /**
+   * Called after input bytes have been appended to a classifier.
+   * 
+   * @param bytes The number of appended UTF8 bytes.
+   * @param nanos Time spent processing the input (in nanoseconds).
+   */
+  public abstract void appended(int bytes, long nanos);
+
+  /**
+   * Called after a classifier has picked the most likely language (on
+   * classification and ranking).
+   * 
+   * @param bytes The number of UTF8 bytes appended since the last reset.
+   * @param appendNanos Time spent processing input appended since the last reset
+   *        (in nanoseconds).
+   * @param dsaOutputs The number of features (automaton outputs) found in the input.
+   * @param langCode The most likely language.
+   * @param probability The confidence of the most likely language, normalized
+   *        to 0-1 range (regardless of how the classifier was called).
+   * @param nanos Time spent computing the result (in nanoseconds, excluding
+   *        appends).
+   */
+  public abstract void classified(long bytes, long appendNanos, int dsaOutputs, String langCode, float probability, long nanos);
+
+  /**
+   * Called after the default model has been loaded. If the model is loaded
+   * concurrently, the elapsed time is split between <code>decodeNanos</code> and
+   * <code>deserializeNanos</code> in proportion to the time spent in each step.
+   * 
+   * @param bytes The size of the decompressed model data.
+   * @param decodeNanos Time spent decompressing the model data (in nanoseconds).
+   * @param deserializeNanos Time spent deserializing the model (in nanoseconds).
+   */
+  public abstract void modelLoaded(long bytes, long decodeNanos, long deserializeNanos);
+
+  /**
+   * Called after a model has been trimmed to a subset of languages (see
+   * {@link Model#detectOnly(java.util.Set)}) or loaded with a subset of languages
+   * (see {@link Model#load(java.util.Set)}).
+   * 
+   * @param languages The number of languages in the trimmed model.
+   * @param nanos Time spent trimming the model (in nanoseconds).
+   */
+  public abstract void modelTrimmed(int languages, long nanos);
+}
@@ -0,0 +1,344 @@
+package com.carrotsearch.labs.langid;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache of classification results in front of {@link LangIdV3},
+ * useful for workloads where the same inputs repeat frequently (search queries,
+ * product titles, UI strings).
+ *
+ * <p>
+ * Entries are keyed by a 64-bit hash of the UTF8 bytes of the input (the bytes
+ * are stored as well, so hash collisions never return wrong results). The cache
+ * is split into lock-striped segments, each one is set-associative with a
+ * clock-style (second chance) eviction policy within a set. Only inputs up to a
+ * given number of UTF8 bytes are cached, so the memory used by keys is bounded
+ * by <code>maxEntries * maxKeyBytes</code>.
+ *
+ * <p>
+ * <strong>Thread safety:</strong> this class is thread safe. Each thread uses its
+ * own {@link LangIdV3} instance (created on demand) for cache misses.
+ */
+public final class LangIdCache {
+  /** Number of entries in each set. */
+  private final static int WAYS = 4;
+
+  /** The default maximum length of a cached key (in UTF8 bytes). */
+  public final static int DEFAULT_MAX_KEY_BYTES = 256;
+
+  private final Model model;
+  private final int maxKeyBytes;
+
+  private final Segment[] segments;
+  private final int segmentShift;
+
+  private final ThreadLocal<PerThread> perThread = new ThreadLocal<PerThread>() {
+    @Override
+    protected PerThread initialValue() {
+      return new PerThread(new LangIdV3(model), maxKeyBytes);
+    }
+  };
+
+  /**
+   * Create a cache for the default model.
+   */
+  public LangIdCache(int maxEntries) {
+    this(Model.defaultModel(), maxEntries, DEFAULT_MAX_KEY_BYTES);
+  }
+
+  /**
+   * Create a cache for the given model.
+   *
+   * @param maxEntries The maximum number of cached entries (rounded up to a power of two).
+   * @param maxKeyBytes Inputs longer than this (in UTF8 bytes) are not cached.
+   */
+  public LangIdCache(Model model, int maxEntries, int maxKeyBytes) {
+    if (maxEntries <= 0 || maxKeyBytes <= 0) {
+      throw new IllegalArgumentException("Positive entry count and key size expected.");
+    }
+    this.model = model;
+    this.maxKeyBytes = maxKeyBytes;
+
+    int entries = Math.max(WAYS, Integer.highestOneBit(maxEntries - 1) << 1);
+    int segmentCount = Math.min(16, entries / WAYS);
+    this.segments = new Segment [segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment(entries / segmentCount);
+    }
+    this.segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+  }
+
+  /**
+   * Classify the language of an input character sequence, returning a cached
+   * result if available.
+   *
+   * @see LangIdV3#classify(CharSequence, boolean)
+   */
+  public DetectedLanguage classify(CharSequence str, boolean normalizeConfidence) {
+    final PerThread local = perThread.get();
+    final byte [] key = local.key;
+    final Utf8Encoder encoder = local.encoder;
+    if (encoder.encode(str, 0, str.length(), key, 0, key.length) < str.length()) {
+      // Too long to be cached.
+      return local.langid.classify(str, normalizeConfidence);
+    }
+
+    final int keyLength = encoder.position;
+    final long hash = hash(key, 0, keyLength, normalizeConfidence ? 1 : 0);
+    final Segment segment = segmentFor(hash);
+    synchronized (segment) {
+      DetectedLanguage cached = segment.get(hash, key, 0, keyLength);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    DetectedLanguage result = local.langid.classify(str, normalizeConfidence);
+    synchronized (segment) {
+      segment.put(hash, key, 0, keyLength, result);
+    }
+    return result;
+  }
+
+  /**
+   * Classify the language of UTF8-encoded input, returning a cached result if
+   * available.
+   */
+  public DetectedLanguage classify(byte [] array, int start, int length, boolean normalizeConfidence) {
+    final LangIdV3 langid = perThread.get().langid;
+    if (length > maxKeyBytes) {
+      langid.reset();
+      langid.append(array, start, length);
+      return langid.classify(normalizeConfidence);
+    }
+
+    // Char sequences may be classified using the word model, don't share those results.
+    final long hash = hash(array, start, length, 
+        (normalizeConfidence ? 1 : 0) | (model.words != null ? 2 : 0));
+    final Segment segment = segmentFor(hash);
+    synchronized (segment) {
+      DetectedLanguage cached = segment.get(hash, array, start, length);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    langid.reset();
+    langid.append(array, start, length);
+    DetectedLanguage result = langid.classify(normalizeConfidence);
+    synchronized (segment) {
+      segment.put(hash, array, start, length, result);
+    }
+    return result;
+  }
+
+  /**
+   * Remove all entries (statistics are preserved).
+   */
+  public void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  /**
+   * @return Returns the number of cached entries.
+   */
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.size;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return Returns the total number of lookups which returned a cached result.
+   */
+  public long getHits() {
+    long hits = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        hits += segment.hits;
+      }
+    }
+    return hits;
+  }
+
+  /**
+   * @return Returns the total number of lookups which didn't find a cached result
+   * (inputs too long to be cached are not counted).
+   */
+  public long getMisses() {
+    long misses = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        misses += segment.misses;
+      }
+    }
+    return misses;
+  }
+
+  /**
+   * @return Returns the total number of evicted entries.
+   */
+  public long getEvictions() {
+    long evictions = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        evictions += segment.evictions;
+      }
+    }
+    return evictions;
+  }
+
+  /**
+   * @return Returns the ratio of hits to all cacheable lookups (0 if there were none).
+   */
+  public double getHitRate() {
+    long hits = getHits();
+    long total = hits + getMisses();
+    return total == 0 ? 0 : hits / (double) total;
+  }
+
+  private Segment segmentFor(long hash) {
+    return segmentShift == 64 ? segments[0] : segments[(int) (hash >>> segmentShift)];
+  }
+
+  /**
+   * 64-bit FNV-1a hash with a final avalanche step. Different variants of the same
+   * key yield different hashes. 
+   */
+  static long hash(byte [] array, int start, int length, int variant) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = start, max = start + length; i < max; i++) {
+      h ^= array[i] & 0xff;
+      h *= 0x100000001b3L;
+    }
+    h ^= variant * 0x9e3779b97f4a7c15L;
+
+    // MurmurHash3 fmix64.
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * Per-thread classifier and scratch data.
+   */
+  private static final class PerThread {
+    final LangIdV3 langid;
+    final Utf8Encoder encoder = new Utf8Encoder();
+    final byte [] key;
+
+    PerThread(LangIdV3 langid, int maxKeyBytes) {
+      this.langid = langid;
+      this.key = new byte [maxKeyBytes];
+    }
+  }
+
+  /**
+   * A set-associative segment of the cache. All methods must be called with the
+   * segment's monitor held.
+   */
+  private static final class Segment {
+    final int setMask;
+
+    final long [] hashes;
+    final byte [][] keys;
+    final String [] langCodes;
+    final float [] confidences;
+    final boolean [] referenced;
+    final byte [] hands;
+
+    int size;
+    long hits;
+    long misses;
+    long evictions;
+
+    Segment(int capacity) {
+      int sets = Math.max(1, capacity / WAYS);
+      this.setMask = sets - 1;
+      this.hashes = new long [sets * WAYS];
+      this.keys = new byte [sets * WAYS][];
+      this.langCodes = new String [sets * WAYS];
+      this.confidences = new float [sets * WAYS];
+      this.referenced = new boolean [sets * WAYS];
+      this.hands = new byte [sets];
+    }
+
+    DetectedLanguage get(long hash, byte [] key, int start, int length) {
+      final int base = ((int) hash & setMask) * WAYS;
+      for (int i = base; i < base + WAYS; i++) {
+        if (hashes[i] == hash && keys[i] != null && keyEquals(keys[i], key, start, length)) {
+          referenced[i] = true;
+          hits++;
+          return new DetectedLanguage(langCodes[i], confidences[i]);
+        }
+      }
+      misses++;
+      return null;
+    }
+
+    void put(long hash, byte [] key, int start, int length, DetectedLanguage value) {
+      final int set = (int) hash & setMask;
+      final int base = set * WAYS;
+
+      // Already there (added concurrently) or an empty slot?
+      int slot = -1;
+      for (int i = base; i < base + WAYS; i++) {
+        if (keys[i] == null) {
+          if (slot < 0) slot = i;
+        } else if (hashes[i] == hash && keyEquals(keys[i], key, start, length)) {
+          return;
+        }
+      }
+
+      if (slot < 0) {
+        // Clock sweep: evict the first unreferenced entry, clearing reference bits.
+        int hand = hands[set];
+        while (referenced[base + hand]) {
+          referenced[base + hand] = false;
+          hand = (hand + 1) % WAYS;
+        }
+        slot = base + hand;
+        hands[set] = (byte) ((hand + 1) % WAYS);
+        evictions++;
+        size--;
+      }
+
+      hashes[slot] = hash;
+      keys[slot] = Arrays.copyOfRange(key, start, start + length);
+      langCodes[slot] = value.langCode;
+      confidences[slot] = value.confidence;
+      referenced[slot] = false;
+      size++;
+    }
+
+    void clear() {
+      Arrays.fill(keys, null);
+      Arrays.fill(langCodes, null);
+      Arrays.fill(referenced, false);
+      size = 0;
+    }
+
+    private static boolean keyEquals(byte [] stored, byte [] key, int start, int length) {
+      if (stored.length != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (stored[i] != key[start + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
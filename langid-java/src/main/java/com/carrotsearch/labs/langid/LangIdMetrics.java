@@ -0,0 +1,246 @@
+package com.carrotsearch.labs.langid;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Low-overhead, thread-safe classification metrics: counters of documents,
+ * bytes and features, latency histograms of appends and classifications,
+ * per-language wins and low-confidence results.
+ * 
+ * <p>
+ * A single instance is typically shared by all classifiers and the model
+ * loader:
+ * <pre>
+ * LangIdMetrics metrics = new LangIdMetrics();
+ * metrics.register("default");
+ * Model.setListener(metrics);
+ * langid.setListener(metrics);
+ * </pre>
+ * 
+ * Counters are {@link LongAdder}s, so updates from many threads don't contend.
+ * Latencies are recorded in power-of-two buckets; percentiles are upper bounds
+ * of buckets and hence accurate to within a factor of two.
+ */
+public final class LangIdMetrics implements ILangIdListener, LangIdMetricsMXBean {
+  /** The default confidence threshold for low-confidence results. */
+  public final static float DEFAULT_LOW_CONFIDENCE_THRESHOLD = 0.5f;
+
+  /** JMX domain of registered metrics. */
+  public final static String JMX_DOMAIN = "com.carrotsearch.langid";
+
+  private final float lowConfidenceThreshold;
+
+  private final LongAdder documents = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final LongAdder dsaOutputs = new LongAdder();
+  private final LongAdder lowConfidence = new LongAdder();
+  private final LongAdder modelLoads = new LongAdder();
+  private final LongAdder modelLoadNanos = new LongAdder();
+  private final LongAdder modelTrims = new LongAdder();
+
+  private final LatencyHistogram appendLatency = new LatencyHistogram();
+  private final LatencyHistogram classifyLatency = new LatencyHistogram();
+
+  private final ConcurrentHashMap<String, LongAdder> wins = new ConcurrentHashMap<String, LongAdder>();
+
+  public LangIdMetrics() {
+    this(DEFAULT_LOW_CONFIDENCE_THRESHOLD);
+  }
+
+  /**
+   * @param lowConfidenceThreshold Results with the (normalized) confidence below this
+   *   threshold are counted as low-confidence results.
+   */
+  public LangIdMetrics(float lowConfidenceThreshold) {
+    this.lowConfidenceThreshold = lowConfidenceThreshold;
+  }
+
+  /**
+   * Register these metrics with the platform MBean server, under 
+   * <code>com.carrotsearch.langid:type=LangIdMetrics,name=...</code>.
+   * 
+   * @return Returns the name of the registered MBean.
+   */
+  public ObjectName register(String name) {
+    return register(ManagementFactory.getPlatformMBeanServer(), name);
+  }
+
+  /**
+   * Register these metrics with the given MBean server.
+   * 
+   * @return Returns the name of the registered MBean.
+   */
+  public ObjectName register(MBeanServer server, String name) {
+    try {
+      ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=LangIdMetrics,name=" + ObjectName.quote(name));
+      server.registerMBean(this, objectName);
+      return objectName;
+    } catch (JMException e) {
+      throw new RuntimeException("Could not register metrics: " + name, e);
+    }
+  }
+
+  /*
+   * 
+   */
+  @Override
+  public void appended(int bytes, long nanos) {
+    this.bytes.add(bytes);
+    appendLatency.record(nanos);
+  }
+
+  /*
+   * 
+   */
+  @Override
+  public void classified(long bytes, long appendNanos, int dsaOutputs, String langCode, float probability, long nanos) {
+    documents.increment();
+    this.dsaOutputs.add(dsaOutputs);
+    classifyLatency.record(nanos);
+    if (probability < lowConfidenceThreshold) {
+      lowConfidence.increment();
+    }
+
+    LongAdder langWins = wins.get(langCode);
+    if (langWins == null) {
+      LongAdder existing = wins.putIfAbsent(langCode, langWins = new LongAdder());
+      if (existing != null) {
+        langWins = existing;
+      }
+    }
+    langWins.increment();
+  }
+
+  /*
+   * 
+   */
+  @Override
+  public void modelLoaded(long bytes, long decodeNanos, long deserializeNanos) {
+    modelLoads.increment();
+    modelLoadNanos.add(decodeNanos + deserializeNanos);
+  }
+
+  /*
+   * 
+   */
+  @Override
+  public void modelTrimmed(int languages, long nanos) {
+    modelTrims.increment();
+  }
+
+  @Override
+  public long getDocuments() {
+    return documents.sum();
+  }
+
+  @Override
+  public long getBytes() {
+    return bytes.sum();
+  }
+
+  @Override
+  public long getDsaOutputs() {
+    return dsaOutputs.sum();
+  }
+
+  @Override
+  public long getLowConfidenceResults() {
+    return lowConfidence.sum();
+  }
+
+  @Override
+  public float getLowConfidenceThreshold() {
+    return lowConfidenceThreshold;
+  }
+
+  @Override
+  public Map<String, Long> getLanguageWins() {
+    Map<String, Long> result = new TreeMap<String, Long>();
+    for (Map.Entry<String, LongAdder> e : wins.entrySet()) {
+      result.put(e.getKey(), e.getValue().sum());
+    }
+    return result;
+  }
+
+  @Override
+  public long getAppends() {
+    return appendLatency.count();
+  }
+
+  @Override
+  public double getAppendMeanNanos() {
+    return appendLatency.mean();
+  }
+
+  @Override
+  public long getAppendP50Nanos() {
+    return appendLatency.percentile(0.5);
+  }
+
+  @Override
+  public long getAppendP99Nanos() {
+    return appendLatency.percentile(0.99);
+  }
+
+  @Override
+  public long [] getAppendHistogram() {
+    return appendLatency.buckets();
+  }
+
+  @Override
+  public double getClassifyMeanNanos() {
+    return classifyLatency.mean();
+  }
+
+  @Override
+  public long getClassifyP50Nanos() {
+    return classifyLatency.percentile(0.5);
+  }
+
+  @Override
+  public long getClassifyP99Nanos() {
+    return classifyLatency.percentile(0.99);
+  }
+
+  @Override
+  public long [] getClassifyHistogram() {
+    return classifyLatency.buckets();
+  }
+
+  @Override
+  public long getModelLoads() {
+    return modelLoads.sum();
+  }
+
+  @Override
+  public long getModelLoadNanos() {
+    return modelLoadNanos.sum();
+  }
+
+  @Override
+  public long getModelTrims() {
+    return modelTrims.sum();
+  }
+
+  @Override
+  public void reset() {
+    documents.reset();
+    bytes.reset();
+    dsaOutputs.reset();
+    lowConfidence.reset();
+    modelLoads.reset();
+    modelLoadNanos.reset();
+    modelTrims.reset();
+    appendLatency.reset();
+    classifyLatency.reset();
+    wins.clear();
+  }
+}
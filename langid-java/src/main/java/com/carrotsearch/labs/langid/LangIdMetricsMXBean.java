@@ -0,0 +1,50 @@
+package com.carrotsearch.labs.langid;
+
+import java.util.Map;
+
+/**
+ * JMX management interface of {@link LangIdMetrics}. Durations are in
+ * nanoseconds; percentiles are approximate (see {@link LangIdMetrics}).
+ */
+public interface LangIdMetricsMXBean {
+  /** @return Returns the number of classified documents. */
+  public long getDocuments();
+
+  /** @return Returns the number of appended UTF8 bytes. */
+  public long getBytes();
+
+  /** @return Returns the number of features (automaton outputs) in classified documents. */
+  public long getDsaOutputs();
+
+  /** @return Returns the number of results with the confidence below the threshold. */
+  public long getLowConfidenceResults();
+
+  /** @return Returns the confidence threshold for low-confidence results. */
+  public float getLowConfidenceThreshold();
+
+  /** @return Returns the number of wins of each language. */
+  public Map<String, Long> getLanguageWins();
+
+  public long getAppends();
+  public double getAppendMeanNanos();
+  public long getAppendP50Nanos();
+  public long getAppendP99Nanos();
+  public long [] getAppendHistogram();
+
+  public double getClassifyMeanNanos();
+  public long getClassifyP50Nanos();
+  public long getClassifyP99Nanos();
+  public long [] getClassifyHistogram();
+
+  /** @return Returns the number of times the default model has been loaded. */
+  public long getModelLoads();
+
+  /** @return Returns the total time spent loading the default model. */
+  public long getModelLoadNanos();
+
+  /** @return Returns the number of trimmed models. */
+  public long getModelTrims();
+
+  /** Reset all counters. */
+  public void reset();
+}
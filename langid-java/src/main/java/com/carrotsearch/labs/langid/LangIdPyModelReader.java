@@ -0,0 +1,438 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A streaming, single-pass reader of langid.py models exported to text
+ * (<code>key=value</code> lines with <code>nb_ptc</code>, <code>nb_pc</code>,
+ * <code>nb_classes</code>, <code>tk_nextmove</code> and <code>tk_output</code>
+ * keys). Numbers are parsed directly from input bytes into primitive arrays;
+ * the sizes of all arrays are validated against each other.
+ *
+ * <p>
+ * Lines without a <code>=</code> and unknown keys are ignored.
+ */
+public final class LangIdPyModelReader {
+  /** Exact powers of ten representable as doubles. */
+  private final static double [] POWERS_OF_10 = new double [23];
+  static {
+    POWERS_OF_10[0] = 1;
+    for (int i = 1; i < POWERS_OF_10.length; i++) {
+      POWERS_OF_10[i] = POWERS_OF_10[i - 1] * 10;
+    }
+  }
+
+  private final static int EOF = -1;
+
+  private final InputStream in;
+  private final byte [] buffer = new byte [1 << 16];
+  private int position;
+  private int limit;
+  private long offset;
+  private int line = 1;
+
+  /** Characters of the number being parsed (for {@link Double#parseDouble(String)}). */
+  private byte [] token = new byte [32];
+  private int tokenLength;
+
+  private LangIdPyModelReader(InputStream in) {
+    this.in = in;
+  }
+
+  /**
+   * Read a model in langid.py layout (<code>nb_ptc</code> is stored as a
+   * <code>[feature][class]</code> matrix and is transposed to the layout of
+   * {@link Model}).
+   */
+  public static Model read(InputStream in) throws IOException {
+    return read(in, true);
+  }
+
+  /**
+   * Read a model.
+   *
+   * @param transpose If <code>true</code>, <code>nb_ptc</code> is expected in
+   *   langid.py's layout (<code>[feature][class]</code>) and is transposed. If
+   *   <code>false</code>, it is expected in {@link Model}'s layout
+   *   (<code>[class][feature]</code>) already.
+   */
+  public static Model read(InputStream in, boolean transpose) throws IOException {
+    return new LangIdPyModelReader(in).readModel(transpose);
+  }
+
+  private Model readModel(boolean transpose) throws IOException {
+    float [] nb_ptc = null;
+    float [] nb_pc = null;
+    String [] nb_classes = null;
+    int [] tk_nextmove = null;
+    int [][] tk_output = null;
+
+    final StringBuilder key = new StringBuilder();
+    int c;
+    while ((c = peek()) != EOF) {
+      if (c == '\n' || c == '\r') {
+        next();
+        continue;
+      }
+
+      key.setLength(0);
+      while ((c = peek()) != EOF && c != '=' && c != '\n') {
+        key.append((char) next());
+      }
+      if (c != '=') {
+        // Not a key=value line, ignore.
+        continue;
+      }
+      next();
+
+      String k = key.toString().trim();
+      if (k.equals("nb_ptc")) {
+        nb_ptc = readFloats();
+      } else if (k.equals("nb_pc")) {
+        nb_pc = readFloats();
+      } else if (k.equals("nb_classes")) {
+        nb_classes = readStrings();
+      } else if (k.equals("tk_nextmove")) {
+        tk_nextmove = readInts();
+      } else if (k.equals("tk_output")) {
+        tk_output = readOutputs();
+      } else {
+        skipLine();
+      }
+    }
+
+    return model(nb_ptc, nb_pc, nb_classes, tk_nextmove, tk_output, transpose);
+  }
+
+  /**
+   * Validate and convert arrays into a model.
+   */
+  private static Model model(float [] nb_ptc, float [] nb_pc, String [] nb_classes,
+                             int [] tk_nextmove, int [][] tk_output, boolean transpose) throws IOException {
+    if (nb_ptc == null) throw new IOException("Missing key: nb_ptc");
+    if (nb_pc == null) throw new IOException("Missing key: nb_pc");
+    if (nb_classes == null) throw new IOException("Missing key: nb_classes");
+    if (tk_nextmove == null) throw new IOException("Missing key: tk_nextmove");
+    if (tk_output == null) throw new IOException("Missing key: tk_output");
+
+    final int numClasses = nb_classes.length;
+    if (numClasses == 0 || nb_pc.length != numClasses) {
+      throw new IOException("Expected " + numClasses + " values of nb_pc: " + nb_pc.length);
+    }
+    if (nb_ptc.length == 0 || nb_ptc.length % numClasses != 0) {
+      throw new IOException("The length of nb_ptc is not a multiple of the number of classes: " + nb_ptc.length);
+    }
+    final int numFeatures = nb_ptc.length / numClasses;
+
+    if (tk_nextmove.length == 0 || tk_nextmove.length % 256 != 0) {
+      throw new IOException("The length of tk_nextmove is not a multiple of 256: " + tk_nextmove.length);
+    }
+    final int numStates = tk_nextmove.length / 256;
+    for (int i = 0; i < tk_nextmove.length; i++) {
+      if (tk_nextmove[i] < 0 || tk_nextmove[i] >= numStates) {
+        throw new IOException("Invalid state in tk_nextmove[" + i + "]: " + tk_nextmove[i]);
+      }
+    }
+
+    if (tk_output.length > numStates) {
+      throw new IOException("Invalid state in tk_output: " + (tk_output.length - 1));
+    }
+    final int [][] dsaOutput = Arrays.copyOf(tk_output, numStates);
+    for (int s = 0; s < numStates; s++) {
+      if (dsaOutput[s] != null) {
+        for (int feature : dsaOutput[s]) {
+          if (feature < 0 || feature >= numFeatures) {
+            throw new IOException("Invalid feature in tk_output[" + s + "]: " + feature);
+          }
+        }
+      }
+    }
+
+    float [] ptc = nb_ptc;
+    if (transpose) {
+      // [feature][class] to [class][feature], so that dot products have linear access patterns.
+      ptc = new float [nb_ptc.length];
+      for (int f = 0, i = 0; f < numFeatures; f++) {
+        for (int c = 0; c < numClasses; c++) {
+          ptc[c * numFeatures + f] = nb_ptc[i++];
+        }
+      }
+    }
+
+    return Model.create(nb_classes, ptc, nb_pc, tk_nextmove, dsaOutput);
+  }
+
+  private float [] readFloats() throws IOException {
+    float [] values = new float [1024];
+    int count = 0;
+    int c;
+    while ((c = skipSeparators()) != EOF && c != '\n') {
+      if (count == values.length) {
+        values = Arrays.copyOf(values, count * 2);
+      }
+      values[count++] = (float) parseDouble();
+    }
+    return Arrays.copyOf(values, count);
+  }
+
+  private int [] readInts() throws IOException {
+    int [] values = new int [1024];
+    int count = 0;
+    int c;
+    while ((c = skipSeparators()) != EOF && c != '\n') {
+      if (count == values.length) {
+        values = Arrays.copyOf(values, count * 2);
+      }
+      values[count++] = parseInt();
+    }
+    return Arrays.copyOf(values, count);
+  }
+
+  private String [] readStrings() throws IOException {
+    List<String> values = new ArrayList<String>();
+    byte [] token = new byte [16];
+    int c;
+    while ((c = skipSeparators()) != EOF && c != '\n') {
+      int length = 0;
+      while ((c = peek()) != EOF && !isSeparator(c) && c != '\n') {
+        if (length == token.length) {
+          token = Arrays.copyOf(token, length * 2);
+        }
+        token[length++] = (byte) next();
+      }
+      values.add(new String(token, 0, length, StandardCharsets.UTF_8));
+    }
+    return values.toArray(new String [values.size()]);
+  }
+
+  /**
+   * Read <code>state:(feature, feature, ...);</code> entries.
+   */
+  private int [][] readOutputs() throws IOException {
+    int [][] outputs = new int [1024][];
+    int maxState = -1;
+    int [] features = new int [16];
+    int c;
+    while ((c = skipSeparators()) != EOF && c != '\n') {
+      if (c == ';') {
+        next();
+        continue;
+      }
+
+      int state = parseInt();
+      if (state < 0) {
+        throw malformed("Negative state in tk_output: " + state);
+      }
+      if (skipSeparators() != ':') {
+        throw malformed("Expected ':' in tk_output");
+      }
+      next();
+
+      int count = 0;
+      while ((c = skipSeparators()) != EOF && c != ';' && c != '\n') {
+        if (count == features.length) {
+          features = Arrays.copyOf(features, count * 2);
+        }
+        features[count++] = parseInt();
+      }
+
+      if (state >= outputs.length) {
+        outputs = Arrays.copyOf(outputs, Math.max(state + 1, outputs.length * 2));
+      }
+      outputs[state] = count == 0 ? null : Arrays.copyOf(features, count);
+      maxState = Math.max(maxState, state);
+    }
+    return Arrays.copyOf(outputs, maxState + 1);
+  }
+
+  private int parseInt() throws IOException {
+    boolean negative = false;
+    int c = peek();
+    if (c == '-' || c == '+') {
+      negative = (c == '-');
+      next();
+    }
+
+    long value = 0;
+    int digits = 0;
+    while ((c = peek()) >= '0' && c <= '9') {
+      value = value * 10 + (next() - '0');
+      if (value > Integer.MAX_VALUE + 1L) {
+        throw malformed("Integer out of range");
+      }
+      digits++;
+    }
+    if (digits == 0 || (c != EOF && !isSeparator(c) && c != '\n' && c != ':' && c != ';')) {
+      throw malformed("Expected an integer");
+    }
+
+    value = negative ? -value : value;
+    if (value > Integer.MAX_VALUE) {
+      throw malformed("Integer out of range");
+    }
+    return (int) value;
+  }
+
+  /**
+   * Parse a decimal number. Numbers with at most 15 significant digits and a decimal
+   * exponent within the range of exact powers of ten are computed directly (both
+   * operands are exact so the result is correctly rounded); anything else falls back 
+   * to {@link Double#parseDouble(String)} on the token.
+   */
+  private double parseDouble() throws IOException {
+    tokenLength = 0;
+    boolean negative = false;
+    int c = peek();
+    if (c == '-' || c == '+') {
+      negative = (c == '-');
+      consume();
+    }
+
+    long mantissa = 0;
+    int significant = 0;
+    int exponent = 0;
+    int digits = 0;
+    boolean fraction = false;
+    while (true) {
+      c = peek();
+      if (c >= '0' && c <= '9') {
+        consume();
+        digits++;
+        if (significant < 18) {
+          mantissa = mantissa * 10 + (c - '0');
+          if (mantissa != 0) {
+            significant++;
+          }
+          if (fraction) {
+            exponent--;
+          }
+        } else {
+          // Too many digits for the mantissa, parse the token.
+          significant++;
+        }
+      } else if (c == '.' && !fraction) {
+        consume();
+        fraction = true;
+      } else {
+        break;
+      }
+    }
+    if (digits == 0) {
+      throw malformed("Expected a number");
+    }
+
+    if (c == 'e' || c == 'E') {
+      consume();
+      c = peek();
+      boolean negativeExponent = false;
+      if (c == '-' || c == '+') {
+        negativeExponent = (c == '-');
+        consume();
+      }
+      int value = 0;
+      int exponentDigits = 0;
+      while ((c = peek()) >= '0' && c <= '9') {
+        consume();
+        value = Math.min(value * 10 + (c - '0'), 100000);
+        exponentDigits++;
+      }
+      if (exponentDigits == 0) {
+        throw malformed("Expected an exponent");
+      }
+      exponent += negativeExponent ? -value : value;
+    }
+    if (c != EOF && !isSeparator(c) && c != '\n') {
+      throw malformed("Expected a number");
+    }
+
+    double value;
+    if (mantissa == 0) {
+      value = 0;
+    } else if (significant <= 15 && Math.abs(exponent) < POWERS_OF_10.length) {
+      value = exponent >= 0
+          ? mantissa * POWERS_OF_10[exponent]
+          : mantissa / POWERS_OF_10[-exponent];
+    } else {
+      return Double.parseDouble(new String(token, 0, tokenLength, StandardCharsets.US_ASCII));
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Consume the next character and append it to the current number's token.
+   */
+  private void consume() throws IOException {
+    if (tokenLength == token.length) {
+      token = Arrays.copyOf(token, tokenLength * 2);
+    }
+    token[tokenLength++] = (byte) next();
+  }
+
+  /**
+   * Skip separators (commas, whitespace, parentheses, brackets).
+   *
+   * @return Returns the next non-separator character (not consumed).
+   */
+  private int skipSeparators() throws IOException {
+    int c;
+    while ((c = peek()) != EOF && isSeparator(c)) {
+      next();
+    }
+    return c;
+  }
+
+  private static boolean isSeparator(int c) {
+    switch (c) {
+      case ',':
+      case ' ':
+      case '\t':
+      case '\r':
+      case '(':
+      case ')':
+      case '[':
+      case ']':
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private void skipLine() throws IOException {
+    int c;
+    while ((c = peek()) != EOF && c != '\n') {
+      next();
+    }
+  }
+
+  private IOException malformed(String message) {
+    return new IOException(message + " (line " + line + ", offset " + (offset + position) + ").");
+  }
+
+  private int peek() throws IOException {
+    if (position == limit) {
+      offset += limit;
+      position = 0;
+      limit = Math.max(0, in.read(buffer));
+      if (limit == 0) {
+        return EOF;
+      }
+    }
+    return buffer[position] & 0xff;
+  }
+
+  private int next() throws IOException {
+    int c = peek();
+    if (c != EOF) {
+      position++;
+      if (c == '\n') {
+        line++;
+      }
+    }
+    return c;
+  }
+}
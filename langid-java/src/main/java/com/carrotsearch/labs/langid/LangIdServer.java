@@ -0,0 +1,571 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded HTTP classification server (on the JDK's built-in
+ * <code>com.sun.net.httpserver</code>).
+ *
+ * <p>
+ * Endpoints:
+ * <ul>
+ * <li><code>POST /classify</code>: the request body (UTF8 text) is classified,
+ * the response is <code>{"lang": "en", "confidence": 0.99}</code>,</li>
+ * <li><code>POST /classify/batch</code>: each line of the request body is
+ * classified, the response is a JSON array of results (empty lines yield a
+ * <code>null</code> language),</li>
+ * <li><code>GET /health</code>: always 200 while the server is running,</li>
+ * <li><code>GET /ready</code>: 200 once the model is loaded, 503 before,</li>
+ * <li><code>GET /metrics</code>: server and classification counters in the
+ * Prometheus text format.</li>
+ * </ul>
+ *
+ * <p>
+ * Classification requests are queued (a full queue yields 503) and served by a
+ * fixed number of workers, each with its own {@link LangIdV3}. A worker takes
+ * all requests waiting in the queue (up to a maximum number of documents,
+ * optionally waiting a short while for more to arrive), packs their documents
+ * into a single buffer and classifies them in one pass (see
+ * {@link LangIdV3#classifyAll(byte[], int[], int, boolean, short[], float[])}),
+ * so bursts of small concurrent requests don't pay for a thread hand-off and a
+ * scoring call each. Responses are sent by workers; HTTP threads never block.
+ *
+ * <pre>
+ * LangIdServer [-host 127.0.0.1] [-port 8080] [-workers N] [-queue 1024]
+ *              [-maxBatch 64] [-maxDelayMicros 0] [-languages en,de,...]
+ * </pre>
+ */
+public final class LangIdServer {
+  private final InetSocketAddress address;
+  private volatile Model model;
+  private int workers = Runtime.getRuntime().availableProcessors();
+  private int queueSize = 1024;
+  private int maxBatch = 64;
+  private long maxDelayNanos;
+  private int maxBodyBytes = 1 << 20;
+
+  private final LangIdMetrics metrics = new LangIdMetrics();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder documents = new LongAdder();
+  private final LongAdder passes = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+
+  private HttpServer server;
+  private ExecutorService httpExecutor;
+  private BlockingQueue<Request> queue;
+  private final List<Thread> threads = new ArrayList<Thread>();
+  private volatile boolean running;
+
+  /**
+   * A server for the default model (loaded in the background, see
+   * <code>/ready</code>).
+   */
+  public LangIdServer(InetSocketAddress address) {
+    this(address, null);
+  }
+
+  /**
+   * @param model The model or <code>null</code> to load the default model in the
+   *   background once the server is started.
+   */
+  public LangIdServer(InetSocketAddress address, Model model) {
+    this.address = address;
+    this.model = model;
+  }
+
+  public LangIdServer setWorkers(int workers) {
+    if (workers <= 0) {
+      throw new IllegalArgumentException("Workers must be positive: " + workers);
+    }
+    this.workers = workers;
+    return this;
+  }
+
+  /** The maximum number of queued requests (excess requests are rejected with 503). */
+  public LangIdServer setQueueSize(int queueSize) {
+    if (queueSize <= 0) {
+      throw new IllegalArgumentException("Queue size must be positive: " + queueSize);
+    }
+    this.queueSize = queueSize;
+    return this;
+  }
+
+  /** The maximum number of documents classified by a worker in a single pass. */
+  public LangIdServer setMaxBatch(int maxBatch) {
+    if (maxBatch <= 0) {
+      throw new IllegalArgumentException("Max batch must be positive: " + maxBatch);
+    }
+    this.maxBatch = maxBatch;
+    return this;
+  }
+
+  /**
+   * How long a worker waits for more requests to fill a batch (zero, the
+   * default: only requests already queued are merged).
+   */
+  public LangIdServer setMaxBatchDelay(long time, TimeUnit unit) {
+    if (time < 0) {
+      throw new IllegalArgumentException("Delay must be >= 0: " + time);
+    }
+    this.maxDelayNanos = unit.toNanos(time);
+    return this;
+  }
+
+  /** The maximum size of a request body (larger requests are rejected with 413). */
+  public LangIdServer setMaxBodyBytes(int maxBodyBytes) {
+    if (maxBodyBytes <= 0) {
+      throw new IllegalArgumentException("Max body size must be positive: " + maxBodyBytes);
+    }
+    this.maxBodyBytes = maxBodyBytes;
+    return this;
+  }
+
+  /**
+   * @return Returns classification metrics of all workers.
+   */
+  public LangIdMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @return Returns the address the server is bound to (after {@link #start()}).
+   */
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+  /**
+   * @return Returns <code>true</code> once the model is loaded.
+   */
+  public boolean isReady() {
+    return model != null;
+  }
+
+  public synchronized void start() throws IOException {
+    if (server != null) {
+      throw new IllegalStateException("Already started.");
+    }
+
+    queue = new ArrayBlockingQueue<Request>(queueSize);
+    running = true;
+    server = HttpServer.create(address, 0);
+    httpExecutor = Executors.newFixedThreadPool(Math.max(2, workers), new ThreadFactory() {
+      @Override
+      public synchronized Thread newThread(Runnable r) {
+        return thread(r, "langid-http-");
+      }
+    });
+    server.setExecutor(httpExecutor);
+
+    server.createContext("/classify", new ClassifyHandler(false));
+    server.createContext("/classify/batch", new ClassifyHandler(true));
+    server.createContext("/health", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, "text/plain", "ok\n".getBytes(StandardCharsets.UTF_8));
+      }
+    });
+    server.createContext("/ready", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        if (isReady()) {
+          respond(exchange, 200, "text/plain", "ready\n".getBytes(StandardCharsets.UTF_8));
+        } else {
+          respond(exchange, 503, "text/plain", "loading\n".getBytes(StandardCharsets.UTF_8));
+        }
+      }
+    });
+    server.createContext("/metrics", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, "text/plain; version=0.0.4", metricsText().getBytes(StandardCharsets.UTF_8));
+      }
+    });
+
+    if (model == null) {
+      thread(new Runnable() {
+        @Override
+        public void run() {
+          model = Model.defaultModel();
+        }
+      }, "langid-model-loader").start();
+    }
+    for (int i = 0; i < workers; i++) {
+      thread(new Worker(), "langid-worker-").start();
+    }
+    server.start();
+  }
+
+  private Thread thread(Runnable r, String name) {
+    synchronized (threads) {
+      Thread t = new Thread(r, name.endsWith("-") ? name + threads.size() : name);
+      t.setDaemon(true);
+      threads.add(t);
+      return t;
+    }
+  }
+
+  /**
+   * Stop the server, waiting for all threads to terminate. Queued requests are
+   * rejected.
+   */
+  public synchronized void stop() throws InterruptedException {
+    if (server == null) {
+      return;
+    }
+    server.stop(0);
+    running = false;
+    httpExecutor.shutdown();
+    httpExecutor.awaitTermination(10, TimeUnit.SECONDS);
+
+    Thread [] all;
+    synchronized (threads) {
+      all = threads.toArray(new Thread [threads.size()]);
+    }
+    for (Thread t : all) {
+      t.interrupt();
+    }
+    for (Thread t : all) {
+      t.join();
+    }
+    synchronized (threads) {
+      threads.clear();
+    }
+
+    Request r;
+    while ((r = queue.poll()) != null) {
+      reject(r.exchange, 503, "Server stopped.");
+    }
+    server = null;
+  }
+
+  /**
+   * A queued classification request.
+   */
+  private static final class Request {
+    final HttpExchange exchange;
+    final byte [] body;
+    final int length;
+    final boolean batch;
+
+    /** Document boundaries (start, end pairs). */
+    final int [] docs;
+
+    Request(HttpExchange exchange, byte [] body, int length, boolean batch) {
+      this.exchange = exchange;
+      this.body = body;
+      this.length = length;
+      this.batch = batch;
+
+      if (!batch) {
+        this.docs = new int [] {0, length};
+      } else {
+        int [] docs = new int [16];
+        int count = 0;
+        for (int i = 0; i < length;) {
+          int end = i;
+          while (end < length && body[end] != '\n') {
+            end++;
+          }
+          int docEnd = end > i && body[end - 1] == '\r' ? end - 1 : end;
+          if (count + 2 > docs.length) {
+            docs = Arrays.copyOf(docs, docs.length * 2);
+          }
+          docs[count++] = i;
+          docs[count++] = docEnd;
+          i = end + 1;
+        }
+        this.docs = Arrays.copyOf(docs, count);
+      }
+    }
+
+    int count() {
+      return docs.length / 2;
+    }
+  }
+
+  private final class ClassifyHandler implements HttpHandler {
+    private final boolean batch;
+
+    ClassifyHandler(boolean batch) {
+      this.batch = batch;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      requests.increment();
+      if (!exchange.getRequestMethod().equals("POST")) {
+        exchange.getResponseHeaders().set("Allow", "POST");
+        respond(exchange, 405, "text/plain", "POST expected.\n".getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+      if (!isReady()) {
+        reject(exchange, 503, "Model not loaded yet.");
+        return;
+      }
+
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      byte [] buffer = new byte [8192];
+      InputStream is = exchange.getRequestBody();
+      try {
+        int read;
+        while ((read = is.read(buffer)) > 0) {
+          if (body.size() + read > maxBodyBytes) {
+            reject(exchange, 413, "Request body too large (max. " + maxBodyBytes + " bytes).");
+            return;
+          }
+          body.write(buffer, 0, read);
+        }
+      } finally {
+        is.close();
+      }
+
+      Request request = new Request(exchange, body.toByteArray(), body.size(), batch);
+      if (!queue.offer(request)) {
+        reject(exchange, 503, "Too many requests.");
+      }
+    }
+  }
+
+  /**
+   * Takes queued requests, classifies them and sends responses.
+   */
+  private final class Worker implements Runnable {
+    private final List<Request> batch = new ArrayList<Request>();
+    private final StringBuilder json = new StringBuilder();
+    private LangIdV3 langid;
+
+    /** Non-empty documents of all requests in a batch, packed for {@link LangIdV3#classifyAll}. */
+    private byte [] packed = new byte [1024 * 16];
+    private int [] offsets = new int [maxBatch + 1];
+    private short [] outLang = new short [maxBatch];
+    private float [] outConf = new float [maxBatch];
+
+    @Override
+    public void run() {
+      try {
+        while (running) {
+          Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+          if (first == null) {
+            continue;
+          }
+
+          batch.clear();
+          batch.add(first);
+          int docs = first.count();
+          final long deadline = System.nanoTime() + maxDelayNanos;
+          while (docs < maxBatch) {
+            Request next = queue.poll();
+            if (next == null) {
+              long wait = deadline - System.nanoTime();
+              if (wait <= 0 || (next = queue.poll(wait, TimeUnit.NANOSECONDS)) == null) {
+                break;
+              }
+            }
+            batch.add(next);
+            docs += next.count();
+          }
+
+          passes.increment();
+          documents.add(docs);
+          classify(batch, docs);
+        }
+      } catch (InterruptedException e) {
+        // Stopped.
+      }
+    }
+
+    private void classify(List<Request> batch, int docs) {
+      if (langid == null) {
+        langid = new LangIdV3(model);
+        langid.setListener(metrics);
+      }
+
+      // Pack non-empty documents of all requests and classify them in one pass.
+      if (offsets.length < docs + 1) {
+        offsets = new int [docs + 1];
+        outLang = new short [docs];
+        outConf = new float [docs];
+      }
+      int count = 0;
+      int length = 0;
+      for (Request r : batch) {
+        for (int i = 0; i < r.docs.length; i += 2) {
+          int start = r.docs[i];
+          int end = r.docs[i + 1];
+          if (start < end) {
+            if (length + end - start > packed.length) {
+              packed = Arrays.copyOf(packed, Math.max(packed.length * 2, length + end - start));
+            }
+            System.arraycopy(r.body, start, packed, length, end - start);
+            offsets[count++] = length;
+            length += end - start;
+          }
+        }
+      }
+      offsets[count] = length;
+      langid.classifyAll(packed, offsets, count, true, outLang, outConf);
+
+      final Model model = langid.getModel();
+      int doc = 0;
+      for (Request r : batch) {
+        json.setLength(0);
+        if (r.batch) {
+          json.append('[');
+        }
+        for (int i = 0; i < r.docs.length; i += 2) {
+          if (i > 0) {
+            json.append(", ");
+          }
+          if (r.docs[i] == r.docs[i + 1]) {
+            json.append("{\"lang\": null, \"confidence\": 0}");
+          } else {
+            json.append("{\"lang\": \"").append(model.getLanguageCode(outLang[doc]))
+                .append("\", \"confidence\": ").append(outConf[doc]).append('}');
+            doc++;
+          }
+        }
+        if (r.batch) {
+          json.append(']');
+        }
+        json.append('\n');
+
+        try {
+          respond(r.exchange, 200, "application/json", json.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+          // The client is gone.
+          errors.increment();
+        }
+      }
+    }
+  }
+
+  private void reject(HttpExchange exchange, int code, String message) {
+    rejected.increment();
+    try {
+      respond(exchange, code, "text/plain", (message + "\n").getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      errors.increment();
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int code, String contentType, byte [] body) throws IOException {
+    try {
+      exchange.getResponseHeaders().set("Content-Type", contentType + (contentType.contains(";") ? "" : "; charset=utf-8"));
+      exchange.sendResponseHeaders(code, body.length);
+      OutputStream os = exchange.getResponseBody();
+      os.write(body);
+      os.close();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * @return Returns metrics in the Prometheus text exposition format.
+   */
+  String metricsText() {
+    StringBuilder b = new StringBuilder();
+    counter(b, "langid_server_requests_total", "Classification requests received.", requests.sum());
+    counter(b, "langid_server_documents_total", "Documents classified.", documents.sum());
+    counter(b, "langid_server_passes_total", "Classification passes (merged requests).", passes.sum());
+    counter(b, "langid_server_rejected_total", "Requests rejected (overload, not ready, too large).", rejected.sum());
+    counter(b, "langid_server_errors_total", "Responses that could not be sent.", errors.sum());
+    gauge(b, "langid_server_queue_depth", "Queued requests.", queue.size());
+    gauge(b, "langid_server_ready", "1 if the model is loaded.", isReady() ? 1 : 0);
+
+    counter(b, "langid_bytes_total", "Classified UTF8 bytes.", metrics.getBytes());
+    counter(b, "langid_low_confidence_total", "Results with low confidence.", metrics.getLowConfidenceResults());
+    gauge(b, "langid_classify_p50_nanos", "Median classification time (upper bound).", metrics.getClassifyP50Nanos());
+    gauge(b, "langid_classify_p99_nanos", "99th percentile of classification time (upper bound).", metrics.getClassifyP99Nanos());
+
+    b.append("# HELP langid_language_wins_total Documents classified as each language.\n");
+    b.append("# TYPE langid_language_wins_total counter\n");
+    for (Map.Entry<String, Long> e : new TreeMap<String, Long>(metrics.getLanguageWins()).entrySet()) {
+      b.append("langid_language_wins_total{lang=\"").append(e.getKey()).append("\"} ").append(e.getValue()).append('\n');
+    }
+    return b.toString();
+  }
+
+  private static void counter(StringBuilder b, String name, String help, long value) {
+    metric(b, name, help, "counter", value);
+  }
+
+  private static void gauge(StringBuilder b, String name, String help, long value) {
+    metric(b, name, help, "gauge", value);
+  }
+
+  private static void metric(StringBuilder b, String name, String help, String type, long value) {
+    b.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    b.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    b.append(name).append(' ').append(value).append('\n');
+  }
+
+  public static void main(String [] args) throws Exception {
+    String host = "127.0.0.1";
+    int port = 8080;
+    Model model = null;
+    List<String> options = new ArrayList<String>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-host")) {
+        host = args[++i];
+      } else if (args[i].equals("-port")) {
+        port = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-languages")) {
+        model = Model.load(new LinkedHashSet<String>(Arrays.asList(args[++i].split(","))));
+      } else if (args[i].startsWith("-") && i + 1 < args.length) {
+        options.add(args[i]);
+        options.add(args[++i]);
+      } else {
+        System.err.println("Usage: LangIdServer [-host 127.0.0.1] [-port 8080] [-workers N] [-queue 1024]"
+            + " [-maxBatch 64] [-maxDelayMicros 0] [-languages en,de,...]");
+        System.exit(1);
+      }
+    }
+
+    LangIdServer server = new LangIdServer(new InetSocketAddress(InetAddress.getByName(host), port), model);
+    for (int i = 0; i < options.size(); i += 2) {
+      String option = options.get(i);
+      int value = Integer.parseInt(options.get(i + 1));
+      if (option.equals("-workers")) {
+        server.setWorkers(value);
+      } else if (option.equals("-queue")) {
+        server.setQueueSize(value);
+      } else if (option.equals("-maxBatch")) {
+        server.setMaxBatch(value);
+      } else if (option.equals("-maxDelayMicros")) {
+        server.setMaxBatchDelay(value, TimeUnit.MICROSECONDS);
+      } else {
+        throw new IllegalArgumentException("Unknown option: " + option);
+      }
+    }
+
+    server.start();
+    System.out.println("Listening on: http://" + host + ":" + server.getAddress().getPort() + "/");
+    Thread.sleep(Long.MAX_VALUE);
+  }
+}
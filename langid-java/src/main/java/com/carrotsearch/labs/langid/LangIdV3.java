@@ -1,17 +1,20 @@
 package com.carrotsearch.labs.langid;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
-// TODO: sub-sampling for stable detection and quicker termination?
-// TODO: add a classify method operating directly on a byte[] or a byte buffer.
 // TODO: add classify returning all predictions.
 
 /**
@@ -28,7 +31,8 @@ import java.util.List;
  * performance characteristics.
  * 
  * <p>
- * See performance notes in {@link #classify(CharSequence, boolean)}.
+ * See performance notes in {@link #classify(CharSequence, boolean)}. Large inputs
+ * can be classified in bounded time using {@link #classifySampled(CharSequence, int, boolean)}.
  * 
  * <p><strong>Thread safety:</strong> an instance of this class is <b>not</b> safe
  * for use by multiple threads at the same time. There are data buffers that are reused
@@ -38,6 +42,21 @@ import java.util.List;
  * @see "https://github.com/saffsd/langid.py"
  */
 public final class LangIdV3 implements ILangIdClassifier {
+  /** Maximum number of input bytes passed to the filter at once. */
+  private final static int FILTER_CHUNK = 1024 * 4;
+
+  /** Size of a single fragment in sampled classification. */
+  private final static int SAMPLE_FRAGMENT = 256;
+
+  /** How often (in bytes) confidence is checked in stream classification. */
+  final static int STREAM_CHECK_BYTES = 1024 * 4;
+
+  /** 
+   * Maximum length (in UTF8 bytes) of the input for which the word model is used
+   * (if available). 
+   */
+  final static int SHORT_TEXT_BYTES = 30;
+
   /** Data model for the classifier. */
   final Model model;
 
@@ -48,15 +67,41 @@ public final class LangIdV3 implements ILangIdClassifier {
   private final float[] scratchPdc;
 
   // UTF16 to UTF8 encoder.
-  private final CharsetEncoder encoder;
+  private final Utf8Encoder encoder = new Utf8Encoder();
 
   // Scratch data.
-  private final ByteBuffer scratchUtf8 = ByteBuffer.allocate(1024 * 4 /* 4 kB */);
+  private final byte[] scratchUtf8 = new byte [1024 * 4 /* 4 kB */];
+
+  // Charset decoder and its input and output buffers (allocated on first use).
+  private CharsetDecoder decoder;
+  private ByteBuffer scratchEncoded;
+  private CharBuffer scratchDecoded;
+
+  // Input filter (optional).
+  private final IByteFilter filter;
+
+  // Filter output and input (for non-array byte buffers); allocated if filter != null.
+  private final byte[] scratchFiltered;
+  private final byte[] scratchFilterInput;
+
+  // Automaton state after the last filtered bytes (the held-back tail continues from it).
+  private int filterState;
+
+  // Metrics listener (optional).
+  private ILangIdListener listener;
+
+  // Number of bytes appended since the last reset and time spent appending them
+  // (only counted if listener != null).
+  private long appendedBytes;
+  private long appendedNanos;
 
   // Reusable rank list.
   private final ArrayList<DetectedLanguage> rankList;
   private final List<DetectedLanguage> rankListView;
 
+  // Reusable result holder for batch classification.
+  private final DetectedLanguage scratchResult = new DetectedLanguage(null, 0);
+
   /**
    * Create a language identifier with the default model (full set of languages).
    * @see Model#detectOnly(java.util.Set)
@@ -70,7 +115,30 @@ public final class LangIdV3 implements ILangIdClassifier {
    * Create a language identifier with a restricted model (set of languages).
    */
   public LangIdV3(Model model) {
+    this(model, null);
+  }
+
+  /**
+   * Create a language identifier with a restricted model (set of languages) and
+   * an input filter applied to all appended data before it is processed. 
+   * 
+   * @param filter The input filter or <code>null</code>. The filter is stateful and
+   *   will be owned by this object. Any bytes held back by the filter are flushed
+   *   on {@link #classify(boolean)} and {@link #rank(boolean)}.
+   * @see NormalizingByteFilter
+   * @see MarkupByteFilter
+   * @see ChainedByteFilter
+   */
+  public LangIdV3(Model model, IByteFilter filter) {
     this.model = model;
+    this.filter = filter;
+    if (filter != null) {
+      this.scratchFilterInput = new byte [FILTER_CHUNK];
+      this.scratchFiltered = new byte [FILTER_CHUNK + filter.maxHeldBack()];
+    } else {
+      this.scratchFilterInput = null;
+      this.scratchFiltered = null;
+    }
 
     this.fv = new DoubleLinkedCountingSet(model.numFeatures, model.numFeatures); 
     this.scratchPdc = new float [model.numClasses];
@@ -80,30 +148,474 @@ public final class LangIdV3 implements ILangIdClassifier {
       rankList.add(new DetectedLanguage(langCode, 0));
     }
     this.rankListView = Collections.unmodifiableList(rankList);
+  }
 
-    this.encoder = Charset.forName("UTF-8")
-        .newEncoder()
-        .onMalformedInput(CodingErrorAction.IGNORE)
-        .onUnmappableCharacter(CodingErrorAction.IGNORE);
+  /**
+   * Set a listener notified about appends and classifications (or
+   * <code>null</code> to remove the listener). No timing is performed if there
+   * is no listener, so there is no overhead in that case.
+   * 
+   * @see LangIdMetrics
+   */
+  public void setListener(ILangIdListener listener) {
+    this.listener = listener;
   }
 
-  /* 
-   *
+  /**
+   * @return Returns the listener of this classifier (may be <code>null</code>).
+   */
+  public ILangIdListener getListener() {
+    return listener;
+  }
+
+  /**
+   * @return Returns the model used by this classifier.
+   */
+  public Model getModel() {
+    return model;
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * <p>
+   * If the model has a {@link WordModel} attached (see {@link Model#withWordModel(WordModel)}),
+   * very short inputs (up to {@value #SHORT_TEXT_BYTES} bytes in UTF8) are classified
+   * based on the words they contain. If none of the words is known, n-gram features
+   * are used, as for any other input. The default model has no word model, so this
+   * is opt-in.
    */
   @Override
   public DetectedLanguage classify(CharSequence str, boolean normalizeConfidence) {
+    DetectedLanguage result = new DetectedLanguage(null, 0);
+    classify(str, normalizeConfidence, result);
+    return result;
+  }
+
+  /**
+   * Same as {@link #classify(CharSequence, boolean)} but does not allocate any
+   * objects: the language and confidence are stored in <code>result</code>.
+   *
+   * @param result The holder for the result (may be <code>null</code>).
+   * @return Returns the index of the most likely language in the model
+   *         (see {@link Model#getLanguageCode(int)}).
+   */
+  public int classify(CharSequence str, boolean normalizeConfidence, DetectedLanguage result) {
+    if (model.words != null && fitsUtf8(str, SHORT_TEXT_BYTES)) {
+      reset();
+      final ILangIdListener listener = this.listener;
+      final long startTime = listener != null ? System.nanoTime() : 0L;
+      if (wordConfidence(str, scratchPdc)) {
+        final int c = best(scratchPdc, normalizeConfidence, result);
+        if (listener != null) {
+          classified(listener, scratchPdc, c, System.nanoTime() - startTime);
+        }
+        return c;
+      }
+    }
+
     // Compute the features and apply NB
     reset();
     append(str);
+    return classify(normalizeConfidence, result);
+  }
+
+  /**
+   * Classify the language of an input character sequence using a sample of at most
+   * <code>byteBudget</code> UTF8 bytes. The sample consists of fragments taken from
+   * evenly spaced positions across the entire input (the input is split into equal
+   * slices and a fragment from the middle of each slice is used). Fragments are
+   * aligned to code point boundaries.
+   * 
+   * <p>
+   * Sampling is deterministic: the same input and budget always yield the same
+   * result. If the entire input fits in the budget, it is classified as a whole.
+   * 
+   * @param str The input character sequence to identify.
+   * @param byteBudget The maximum number of UTF8 bytes to process (positive).
+   * @param normalizeConfidence Normalize prediction confidence to 0-1 range.
+   */
+  public DetectedLanguage classifySampled(CharSequence str, int byteBudget, boolean normalizeConfidence) {
+    checkBudget(byteBudget);
+
+    reset();
+    final int length = str.length();
+    if (fitsUtf8(str, byteBudget)) {
+      append(str);
+    } else {
+      final int fragment = Math.min(SAMPLE_FRAGMENT, byteBudget);
+      final int fragments = byteBudget / fragment;
+      for (int i = 0; i < fragments; i++) {
+        int sliceStart = (int) ((long) length * i / fragments);
+        int sliceEnd   = (int) ((long) length * (i + 1) / fragments);
+        int window = Math.min(fragment, sliceEnd - sliceStart);
+        int from = sliceStart + (sliceEnd - sliceStart - window) / 2;
+        if (from > 0 && Character.isLowSurrogate(str.charAt(from))) {
+          from++;
+          window--;
+        }
+        appendFragment(str, from, from + window, fragment);
+      }
+    }
     return classify(normalizeConfidence);
   }
 
+  /**
+   * Classify the language of UTF8-encoded input using a sample of at most
+   * <code>byteBudget</code> bytes. 
+   * 
+   * @see #classifySampled(CharSequence, int, boolean)
+   */
+  public DetectedLanguage classifySampled(byte [] array, int start, int length, int byteBudget, boolean normalizeConfidence) {
+    checkBudget(byteBudget);
+
+    reset();
+    if (length <= byteBudget) {
+      append(array, start, length);
+    } else {
+      final int fragment = Math.min(SAMPLE_FRAGMENT, byteBudget);
+      final int fragments = byteBudget / fragment;
+      for (int i = 0; i < fragments; i++) {
+        int sliceStart = start + (int) ((long) length * i / fragments);
+        int sliceEnd   = start + (int) ((long) length * (i + 1) / fragments);
+        int from = sliceStart + (sliceEnd - sliceStart - fragment) / 2;
+        int to = from + fragment;
+        while (from < to && isContinuationByte(array[from])) {
+          from++;
+        }
+        while (to > from && to < start + length && isContinuationByte(array[to])) {
+          to--;
+        }
+        append(array, from, to - from);
+      }
+    }
+    return classify(normalizeConfidence);
+  }
+
+  /**
+   * Classify the language of UTF8-encoded input read from a stream. Input is read
+   * in chunks into a reusable buffer and processed incrementally (as if it was
+   * appended at once); reading stops at the end of the stream, after
+   * <code>byteBudget</code> bytes or once the (normalized) confidence of the most
+   * likely language reaches <code>minConfidence</code>, whichever comes first.
+   * Confidence is checked after every {@value #STREAM_CHECK_BYTES} bytes (unless
+   * early stopping is disabled). The stream is not closed.
+   * 
+   * <p>
+   * Compressed input can be read through a {@link Decompressor}: it inflates only
+   * as much as is read, so nothing is decompressed after reading stops.
+   * 
+   * @param byteBudget The maximum number of bytes to read (positive).
+   * @param minConfidence Confidence sufficient to stop reading (a value above 
+   *        <code>1</code> disables early stopping).
+   * @param result The holder for the result (may be <code>null</code>).
+   * @return Returns the index of the most likely language in the model
+   *         (see {@link Model#getLanguageCode(int)}).
+   */
+  public int classify(InputStream in, long byteBudget, float minConfidence, 
+                      boolean normalizeConfidence, DetectedLanguage result) throws IOException {
+    checkBudget(byteBudget);
+
+    reset();
+    final byte [] buffer = scratchUtf8;
+    long total = 0;
+    int state = 0;
+    while (total < byteBudget) {
+      int read = in.read(buffer, 0, (int) Math.min(buffer.length, byteBudget - total));
+      if (read < 0) {
+        break;
+      }
+      state = appendStreamed(state, buffer, read);
+      final long before = total;
+      total += read;
+      if (minConfidence <= 1 && checkpoint(before, total) && peekConfidence() >= minConfidence) {
+        break;
+      }
+    }
+    return classify(normalizeConfidence, result);
+  }
+
+  /**
+   * Same as {@link #classify(InputStream, long, float, boolean, DetectedLanguage)}, but
+   * reads from a channel. The channel is not closed.
+   */
+  public int classify(ReadableByteChannel in, long byteBudget, float minConfidence, 
+                      boolean normalizeConfidence, DetectedLanguage result) throws IOException {
+    checkBudget(byteBudget);
+
+    reset();
+    final ByteBuffer buffer = ByteBuffer.wrap(scratchUtf8);
+    long total = 0;
+    int state = 0;
+    while (total < byteBudget) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), byteBudget - total));
+      int read = in.read(buffer);
+      if (read < 0) {
+        break;
+      }
+      state = appendStreamed(state, scratchUtf8, read);
+      final long before = total;
+      total += read;
+      if (minConfidence <= 1 && checkpoint(before, total) && peekConfidence() >= minConfidence) {
+        break;
+      }
+    }
+    return classify(normalizeConfidence, result);
+  }
+
+  /**
+   * Append a chunk of a stream, continuing from the automaton's <code>state</code>.
+   */
+  private int appendStreamed(int state, byte [] buffer, int length) {
+    final ILangIdListener listener = this.listener;
+    if (listener == null) {
+      return appendBytes(state, buffer, 0, length);
+    } else {
+      final long startTime = System.nanoTime();
+      state = appendBytes(state, buffer, 0, length);
+      appended(listener, length, System.nanoTime() - startTime);
+      return state;
+    }
+  }
+
+  /**
+   * @return Returns <code>true</code> if a multiple of {@link #STREAM_CHECK_BYTES}
+   *         is within <code>(before, after]</code>.
+   */
+  private static boolean checkpoint(long before, long after) {
+    return before / STREAM_CHECK_BYTES != after / STREAM_CHECK_BYTES;
+  }
+
+  /**
+   * @return Returns the normalized confidence of the most likely language for 
+   *         the current buffer (the listener is not notified).
+   */
+  private float peekConfidence() {
+    final float [] probs = naiveBayesClassConfidence(fv);
+    return normalizeConfidenceAsProbability(probs, argmax(probs));
+  }
+
+  /**
+   * Classify the language of text read from a stream in the given charset. 
+   * 
+   * @see #classify(InputStream, Charset, boolean, DetectedLanguage)
+   */
+  public DetectedLanguage classify(InputStream in, Charset charset, boolean normalizeConfidence) throws IOException {
+    DetectedLanguage result = new DetectedLanguage(null, 0);
+    classify(in, charset, normalizeConfidence, result);
+    return result;
+  }
+
+  /**
+   * Classify the language of text read from a stream (up to its end) in the given
+   * charset. The result is the same as classifying (appending) a string decoded from 
+   * the stream, but input is transcoded to UTF8 in small chunks, without creating 
+   * the string (malformed input and unmappable characters are replaced with 
+   * <code>U+FFFD</code>). UTF8 and US-ASCII input is not transcoded at all (nor
+   * validated). The stream is not closed.
+   * 
+   * @param result The holder for the result (may be <code>null</code>).
+   * @return Returns the index of the most likely language in the model
+   *         (see {@link Model#getLanguageCode(int)}).
+   */
+  public int classify(InputStream in, Charset charset, 
+                      boolean normalizeConfidence, DetectedLanguage result) throws IOException {
+    reset();
+    int state = 0;
+    int read;
+    if (isUtf8(charset)) {
+      // Pass-through, without any confidence checks.
+      final byte [] buffer = scratchUtf8;
+      while ((read = in.read(buffer, 0, buffer.length)) >= 0) {
+        state = appendStreamed(state, buffer, read);
+      }
+      return classify(normalizeConfidence, result);
+    }
+
+    final CharsetDecoder decoder = decoder(charset);
+    final ByteBuffer input = scratchEncoded;
+    input.clear();
+    while ((read = in.read(input.array(), input.position(), input.remaining())) >= 0) {
+      input.position(input.position() + read);
+      input.flip();
+      state = transcode(state, decoder, input, false);
+      input.compact();
+    }
+    input.flip();
+    state = transcode(state, decoder, input, true);
+    flush(state, decoder);
+    return classify(normalizeConfidence, result);
+  }
+
+  /**
+   * Classify the language of text in the given charset.
+   * 
+   * @see #classify(ByteBuffer, Charset, boolean, DetectedLanguage)
+   */
+  public DetectedLanguage classify(ByteBuffer buffer, Charset charset, boolean normalizeConfidence) {
+    DetectedLanguage result = new DetectedLanguage(null, 0);
+    classify(buffer, charset, normalizeConfidence, result);
+    return result;
+  }
+
+  /**
+   * Classify the language of text in the given charset, from the buffer's position 
+   * to its limit (the buffer's position is moved to its limit). Same as 
+   * {@link #classify(InputStream, Charset, boolean, DetectedLanguage)}, input is 
+   * transcoded to UTF8 in small chunks (unless it already is UTF8 or US-ASCII).
+   * 
+   * @param result The holder for the result (may be <code>null</code>).
+   * @return Returns the index of the most likely language in the model
+   *         (see {@link Model#getLanguageCode(int)}).
+   */
+  public int classify(ByteBuffer buffer, Charset charset, 
+                      boolean normalizeConfidence, DetectedLanguage result) {
+    reset();
+    if (isUtf8(charset)) {
+      append(buffer);
+    } else {
+      final CharsetDecoder decoder = decoder(charset);
+      flush(transcode(0, decoder, buffer, true), decoder);
+    }
+    return classify(normalizeConfidence, result);
+  }
+
+  /**
+   * @return Returns <code>true</code> if input in <code>charset</code> can be
+   *         appended as-is.
+   */
+  private static boolean isUtf8(Charset charset) {
+    return charset.equals(StandardCharsets.UTF_8) ||
+           charset.equals(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * @return Returns a (reset) decoder for the charset, reusing the previous one
+   *         if possible.
+   */
+  private CharsetDecoder decoder(Charset charset) {
+    if (decoder == null || !decoder.charset().equals(charset)) {
+      decoder = charset.newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+    if (scratchEncoded == null) {
+      scratchEncoded = ByteBuffer.allocate(1024 * 4);
+      scratchDecoded = CharBuffer.allocate(1024 * 2);
+    }
+    return decoder.reset();
+  }
+
+  /**
+   * Decode (all complete characters of) the input and append them.
+   * 
+   * @return Returns the automaton's state.
+   */
+  private int transcode(int state, CharsetDecoder decoder, ByteBuffer input, boolean endOfInput) {
+    CoderResult result;
+    do {
+      result = decoder.decode(input, scratchDecoded, endOfInput);
+      state = appendDecoded(state, false);
+    } while (result.isOverflow());
+    return state;
+  }
+
+  /**
+   * Flush the decoder and append any remaining characters.
+   */
+  private void flush(int state, CharsetDecoder decoder) {
+    while (decoder.flush(scratchDecoded).isOverflow()) {
+      state = appendDecoded(state, false);
+    }
+    appendDecoded(state, true);
+  }
+
+  /**
+   * Encode decoded characters to UTF8 and append them. Unless this is the
+   * last call, a trailing high surrogate is kept for the next call.
+   * 
+   * @return Returns the automaton's state.
+   */
+  private int appendDecoded(int state, boolean last) {
+    final CharBuffer chars = scratchDecoded;
+    chars.flip();
+    int end = chars.limit();
+    if (!last && end > 0 && Character.isHighSurrogate(chars.get(end - 1))) {
+      end--;
+    }
+    for (int i = 0; i < end;) {
+      i = encoder.encode(chars, i, end, scratchUtf8, 0, scratchUtf8.length);
+      state = appendStreamed(state, scratchUtf8, encoder.position);
+    }
+    chars.position(end);
+    chars.compact();
+    return state;
+  }
+
+  /**
+   * @return Returns <code>true</code> if the UTF8 encoding of <code>str</code> (as
+   *         appended by {@link #append(CharSequence)}) is at most <code>maxBytes</code> long.
+   */
+  private static boolean fitsUtf8(CharSequence str, int maxBytes) {
+    final int length = str.length();
+    // Every char takes at least one byte and at most three.
+    if (length > maxBytes) {
+      return false;
+    }
+    if (length <= maxBytes / 3) {
+      return true;
+    }
+    int bytes = 0;
+    for (int i = 0; i < length && bytes <= maxBytes; i++) {
+      final char c = str.charAt(i);
+      if (c < 0x80) {
+        bytes += 1;
+      } else if (c < 0x800) {
+        bytes += 2;
+      } else if (Character.isHighSurrogate(c)) {
+        if (i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+          bytes += 4;
+          i++;
+        }
+        // Unpaired surrogates are skipped by the encoder.
+      } else if (!Character.isLowSurrogate(c)) {
+        bytes += 3;
+      }
+    }
+    return bytes <= maxBytes;
+  }
+
+  private static boolean isContinuationByte(byte b) {
+    return (b & 0xc0) == 0x80;
+  }
+
+  private static void checkBudget(long byteBudget) {
+    if (byteBudget <= 0) {
+      throw new IllegalArgumentException("Byte budget must be positive: " + byteBudget);
+    }
+  }
+
+  /**
+   * Append UTF8 bytes of a fragment of a char sequence, up to <code>maxBytes</code>.
+   */
+  private void appendFragment(CharSequence str, int from, int to, int maxBytes) {
+    encoder.encode(str, from, to, scratchUtf8, 0, maxBytes);
+    append(scratchUtf8, 0, encoder.position);
+  }
+
   /* 
    *
    */
   @Override
   public void reset() {
     fv.clear();
+    appendedBytes = 0;
+    appendedNanos = 0;
+    if (filter != null) {
+      filter.reset();
+      filterState = 0;
+    }
   }
 
   /* 
@@ -111,16 +623,27 @@ public final class LangIdV3 implements ILangIdClassifier {
    */
   @Override
   public void append(CharSequence str) {
-    encoder.reset();
-    CharBuffer chbuf = CharBuffer.wrap(str);
-    CoderResult result;
-    do {
-      scratchUtf8.clear();
-      result = encoder.encode(chbuf, scratchUtf8, true);
-      scratchUtf8.flip();
+    final ILangIdListener listener = this.listener;
+    if (listener == null) {
+      appendChars(str);
+    } else {
+      final long startTime = System.nanoTime();
+      final int bytes = appendChars(str);
+      appended(listener, bytes, System.nanoTime() - startTime);
+    }
+  }
 
-      append(scratchUtf8);
-    } while (result.isOverflow());
+  /**
+   * @return Returns the number of UTF8 bytes appended.
+   */
+  private int appendChars(CharSequence str) {
+    int bytes = 0;
+    for (int i = 0, length = str.length(); i < length;) {
+      i = encoder.encode(str, i, length, scratchUtf8, 0, scratchUtf8.length);
+      appendBytes(scratchUtf8, 0, encoder.position);
+      bytes += encoder.position;
+    }
+    return bytes;
   }
 
   /* 
@@ -128,6 +651,37 @@ public final class LangIdV3 implements ILangIdClassifier {
    */
   @Override
   public void append(ByteBuffer buffer) {
+    final ILangIdListener listener = this.listener;
+    if (listener == null) {
+      appendBuffer(buffer);
+    } else {
+      final long startTime = System.nanoTime();
+      final int bytes = buffer.remaining();
+      appendBuffer(buffer);
+      appended(listener, bytes, System.nanoTime() - startTime);
+    }
+  }
+
+  private void appendBuffer(ByteBuffer buffer) {
+    if (filter != null) {
+      if (buffer.hasArray()) {
+        appendBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        buffer.position(buffer.limit());
+      } else {
+        while (buffer.hasRemaining()) {
+          int length = Math.min(buffer.remaining(), scratchFilterInput.length);
+          buffer.get(scratchFilterInput, 0, length);
+          appendBytes(scratchFilterInput, 0, length);
+        }
+      }
+      return;
+    }
+
+    if (model.dsa == null) {
+      walkWide(buffer);
+      return;
+    }
+
     // Update predictions (without an intermediate statecount as in the original)
     short state = 0;
     int[][] tk_output = model.dsaOutput;
@@ -146,13 +700,104 @@ public final class LangIdV3 implements ILangIdClassifier {
     }
   }
 
+  /**
+   * Walk the wide automaton ({@link Model#dsaChar} or {@link Model#dsaInt}) over 
+   * the remaining bytes of a buffer.
+   */
+  private void walkWide(ByteBuffer buffer) {
+    int state = 0;
+    int[][] tk_output = model.dsaOutput;
+    if (model.dsaChar != null) {
+      char[] tk_nextmove = model.dsaChar;
+      while (buffer.hasRemaining()) {
+        byte b = buffer.get();
+        state = tk_nextmove[(state << 8) + (b & 0xff)];
+
+        int[] is = tk_output[state];
+        if (is != null) {
+          for (int feature : is) {
+            fv.increment(feature);
+          }
+        }
+      }
+    } else {
+      int[] tk_nextmove = model.dsaInt;
+      while (buffer.hasRemaining()) {
+        byte b = buffer.get();
+        state = tk_nextmove[(state << 8) + (b & 0xff)];
+
+        int[] is = tk_output[state];
+        if (is != null) {
+          for (int feature : is) {
+            fv.increment(feature);
+          }
+        }
+      }
+    }
+  }
+
   /* 
    *
    */
   @Override
   public void append(byte [] array, int start, int length) {
+    final ILangIdListener listener = this.listener;
+    if (listener == null) {
+      appendBytes(array, start, length);
+    } else {
+      final long startTime = System.nanoTime();
+      appendBytes(array, start, length);
+      appended(listener, length, System.nanoTime() - startTime);
+    }
+  }
+
+  private void appended(ILangIdListener listener, int bytes, long nanos) {
+    appendedBytes += bytes;
+    appendedNanos += nanos;
+    listener.appended(bytes, nanos);
+  }
+
+  private void appendBytes(byte [] array, int start, int length) {
+    appendBytes(0, array, start, length);
+  }
+
+  /**
+   * Append bytes starting from automaton state <code>state</code>.
+   * 
+   * @return Returns the final state.
+   */
+  private int appendBytes(int state, byte [] array, int start, int length) {
+    if (filter != null) {
+      for (int max = start + length; start < max;) {
+        int chunk = Math.min(max - start, FILTER_CHUNK);
+        int filtered = filter.filter(array, start, chunk, scratchFiltered, 0);
+        state = walk(state, scratchFiltered, 0, filtered);
+        start += chunk;
+      }
+      filterState = state;
+      return state;
+    } else {
+      return walk(state, array, start, length);
+    }
+  }
+
+  /**
+   * Walk the automaton over the given bytes, starting from <code>state</code>.
+   * 
+   * @return Returns the final state.
+   */
+  private int walk(int state, byte [] array, int start, int length) {
+    if (model.dsa != null) {
+      return walkShort((short) state, array, start, length);
+    } else if (model.dsaChar != null) {
+      return walkChar(state, array, start, length);
+    } else {
+      return walkInt(state, array, start, length);
+    }
+  }
+
+  private short walkShort(short state, byte [] array, int start, int length) {
     // Update predictions (without an intermediate statecount as in the original)
-    short state = 0;
     int[][] tk_output = model.dsaOutput;
     short[] tk_nextmove = model.dsa;
 
@@ -167,6 +812,54 @@ public final class LangIdV3 implements ILangIdClassifier {
         }
       }
     }
+    return state;
+  }
+
+  private int walkChar(int state, byte [] array, int start, int length) {
+    int[][] tk_output = model.dsaOutput;
+    char[] tk_nextmove = model.dsaChar;
+
+    for (int i = start, max = start + length; i < max; i++) {
+      byte b = array[i];
+      state = tk_nextmove[(state << 8) + (b & 0xff)];
+
+      int[] is = tk_output[state];
+      if (is != null) {
+        for (int feature : is) {
+          fv.increment(feature);
+        }
+      }
+    }
+    return state;
+  }
+
+  private int walkInt(int state, byte [] array, int start, int length) {
+    int[][] tk_output = model.dsaOutput;
+    int[] tk_nextmove = model.dsaInt;
+
+    for (int i = start, max = start + length; i < max; i++) {
+      byte b = array[i];
+      state = tk_nextmove[(state << 8) + (b & 0xff)];
+
+      int[] is = tk_output[state];
+      if (is != null) {
+        for (int feature : is) {
+          fv.increment(feature);
+        }
+      }
+    }
+    return state;
+  }
+
+  /**
+   * Process any bytes held back by the input filter, continuing from the state
+   * after the last filtered bytes.
+   */
+  private void flushFilter() {
+    if (filter != null) {
+      int filtered = filter.flush(scratchFiltered, 0);
+      filterState = walk(filterState, scratchFiltered, 0, filtered);
+    }
   }
 
   /* 
@@ -174,9 +867,64 @@ public final class LangIdV3 implements ILangIdClassifier {
    */
   @Override
   public DetectedLanguage classify(boolean normalizeConfidence) {
-    final float [] probs = naiveBayesClassConfidence(fv);
+    DetectedLanguage result = new DetectedLanguage(null, 0);
+    classify(normalizeConfidence, result);
+    return result;
+  }
+
+  /**
+   * Same as {@link #classify(boolean)} but does not allocate any objects: the
+   * language and confidence are stored in <code>result</code>.
+   *
+   * @param result The holder for the result (may be <code>null</code>).
+   * @return Returns the index of the most likely language in the model
+   *         (see {@link Model#getLanguageCode(int)}).
+   */
+  public int classify(boolean normalizeConfidence, DetectedLanguage result) {
+    flushFilter();
+    final ILangIdListener listener = this.listener;
+    if (listener == null) {
+      return best(naiveBayesClassConfidence(fv), normalizeConfidence, result);
+    } else {
+      final long startTime = System.nanoTime();
+      final float [] probs = naiveBayesClassConfidence(fv);
+      final int c = best(probs, normalizeConfidence, result);
+      classified(listener, probs, c, System.nanoTime() - startTime);
+      return c;
+    }
+  }
 
-    // Search for argmax(language certainty)
+  /**
+   * Notify the listener about the most likely class.
+   */
+  private void classified(ILangIdListener listener, float [] probs, int c, long nanos) {
+    int dsaOutputs = 0;
+    for (int i = 0, max = fv.elementsCount; i < max; i++) {
+      dsaOutputs += fv.counts[i];
+    }
+    listener.classified(appendedBytes, appendedNanos, dsaOutputs, model.langClasses[c], 
+        normalizeConfidenceAsProbability(probs, c), nanos);
+  }
+
+  /**
+   * Pick the language with the highest confidence.
+   */
+  private int best(float [] probs, boolean normalizeConfidence, DetectedLanguage result) {
+    int c = argmax(probs);
+    if (result != null) {
+      result.langCode = model.langClasses[c];
+      result.confidence = 
+            normalizeConfidence 
+          ? normalizeConfidenceAsProbability(probs, c)
+          : probs[c];
+    }
+    return c;
+  }
+
+  /**
+   * Search for argmax(language certainty).
+   */
+  private static int argmax(float [] probs) {
     int c = 0;
     float max = probs[c];
     for (int i = 1; i < probs.length; i++) {
@@ -185,12 +933,7 @@ public final class LangIdV3 implements ILangIdClassifier {
         max = probs[i];
       }
     }
-    
-    if (normalizeConfidence) {
-      max = normalizeConfidenceAsProbability(probs, c);
-    }
-    
-    return new DetectedLanguage(model.langClasses[c], max);    
+    return c;
   }
 
   /* 
@@ -198,6 +941,9 @@ public final class LangIdV3 implements ILangIdClassifier {
    */
   @Override
   public List<DetectedLanguage> rank(boolean normalizeConfidence) {
+    flushFilter();
+    final ILangIdListener listener = this.listener;
+    final long startTime = listener != null ? System.nanoTime() : 0L;
     final float [] probs = naiveBayesClassConfidence(fv);
 
     for (int c = model.numClasses; --c >= 0;) {
@@ -209,9 +955,121 @@ public final class LangIdV3 implements ILangIdClassifier {
       rankList.get(c).confidence = confidence;
     }
 
+    if (listener != null) {
+      classified(listener, probs, argmax(probs), System.nanoTime() - startTime);
+    }
     return rankListView;
   }
 
+  /**
+   * Store the confidence of each language for the current buffer in
+   * <code>confidences</code> (indexed like languages in the model, see
+   * {@link Model#getLanguageCode(int)}). Unlike {@link #rank(boolean)}, this
+   * method does not allocate or expose any shared objects.
+   * 
+   * @param confidences An array of at least {@link Model#getLanguageCount()} elements.
+   * @return Returns the index of the most likely language.
+   */
+  public int rank(boolean normalizeConfidence, float [] confidences) {
+    flushFilter();
+    final ILangIdListener listener = this.listener;
+    final long startTime = listener != null ? System.nanoTime() : 0L;
+    final float [] probs = naiveBayesClassConfidence(fv);
+    final int best = argmax(probs);
+    if (normalizeConfidence) {
+      // Same as normalizeConfidenceAsProbability, but in linear time.
+      final float v = probs[best];
+      float s = 0;
+      for (int j = 0; j < probs.length; j++) {
+        s += Math.exp(probs[j] - v);
+      }
+      for (int c = 0; c < probs.length; c++) {
+        confidences[c] = (float) Math.exp(probs[c] - v) / s;
+      }
+    } else {
+      System.arraycopy(probs, 0, confidences, 0, probs.length);
+    }
+
+    if (listener != null) {
+      classified(listener, probs, best, System.nanoTime() - startTime);
+    }
+    return best;
+  }
+
+  /**
+   * Classify a number of UTF8-encoded documents packed in a single array. Document
+   * <code>i</code> spans bytes from <code>offsets[i]</code> (inclusive) to
+   * <code>offsets[i + 1]</code> (exclusive); each document is classified
+   * independently (as if {@link #reset()}, {@link #append(byte[], int, int)} and
+   * {@link #classify(boolean, DetectedLanguage)} were called for it), but no
+   * objects are allocated.
+   *
+   * <p>
+   * The state of this classifier after this method returns corresponds to the last
+   * document.
+   *
+   * @param data Packed documents.
+   * @param offsets Document boundaries (at least <code>count + 1</code> elements).
+   * @param count The number of documents.
+   * @param outLang Receives the index of the most likely language of each document
+   *        (see {@link Model#getLanguageCode(int)}); at least <code>count</code> elements.
+   * @param outConf Receives the confidence of the most likely language of each
+   *        document (may be <code>null</code>); at least <code>count</code> elements.
+   */
+  public void classifyAll(byte [] data, int [] offsets, int count, boolean normalizeConfidence,
+                          short [] outLang, float [] outConf) {
+    checkBatch(offsets, count, outLang, outConf);
+    for (int i = 0; i < count; i++) {
+      reset();
+      append(data, offsets[i], offsets[i + 1] - offsets[i]);
+      store(i, classify(normalizeConfidence, scratchResult), outLang, outConf);
+    }
+  }
+
+  /**
+   * Same as {@link #classifyAll(byte[], int[], int, boolean, short[], float[])} but for
+   * documents packed in a byte buffer. Offsets are relative to the buffer's position;
+   * the position and limit of the buffer are not changed.
+   */
+  public void classifyAll(ByteBuffer data, int [] offsets, int count, boolean normalizeConfidence,
+                          short [] outLang, float [] outConf) {
+    checkBatch(offsets, count, outLang, outConf);
+    final int base = data.position();
+    if (data.hasArray()) {
+      final byte [] array = data.array();
+      final int arrayBase = data.arrayOffset() + base;
+      for (int i = 0; i < count; i++) {
+        reset();
+        append(array, arrayBase + offsets[i], offsets[i + 1] - offsets[i]);
+        store(i, classify(normalizeConfidence, scratchResult), outLang, outConf);
+      }
+    } else {
+      final ByteBuffer view = data.duplicate();
+      for (int i = 0; i < count; i++) {
+        view.limit(base + offsets[i + 1]);
+        view.position(base + offsets[i]);
+        reset();
+        append(view);
+        store(i, classify(normalizeConfidence, scratchResult), outLang, outConf);
+      }
+    }
+  }
+
+  private static void checkBatch(int [] offsets, int count, short [] outLang, float [] outConf) {
+    if (count < 0 || offsets.length < count + 1 || outLang.length < count
+        || (outConf != null && outConf.length < count)) {
+      throw new IllegalArgumentException("Offsets must have at least count + 1 elements and "
+          + "outputs at least count elements: " + count);
+    }
+  }
+
+  private void store(int i, int c, short [] outLang, float [] outConf) {
+    outLang[i] = (short) c;
+    if (outConf != null) {
+      outConf[i] = scratchResult.confidence;
+    }
+  }
+
   /**
    * Normalize confidence to 0..1 interval.
    */
@@ -225,6 +1083,52 @@ public final class LangIdV3 implements ILangIdClassifier {
     return  1 / s;
   }
 
+  /**
+   * Compute class confidence values based on words in the input (using the word
+   * model).
+   * 
+   * @return Returns <code>false</code> if no known words were found.
+   */
+  private boolean wordConfidence(CharSequence str, float [] pdc) {
+    final WordModel words = model.words;
+    final int [] wordClasses = model.wordClasses;
+    final float [] floors = words.floors;
+    final int numClasses = model.numClasses;
+
+    Arrays.fill(pdc, 0);
+    boolean found = false;
+    for (int i = 0, length = str.length(); i < length;) {
+      // Skip to the start of a word, then to its end.
+      while (i < length && !WordModel.isWordCodePoint(Character.codePointAt(str, i))) {
+        i += Character.charCount(Character.codePointAt(str, i));
+      }
+      int start = i;
+      while (i < length && WordModel.isWordCodePoint(Character.codePointAt(str, i))) {
+        i += Character.charCount(Character.codePointAt(str, i));
+      }
+      if (start == i) {
+        continue;
+      }
+
+      int word = words.lookup(str, start, i);
+      if (word >= 0) {
+        found = true;
+        for (int c = 0; c < numClasses; c++) {
+          int wc = wordClasses[c];
+          float logProb = floors[wc];
+          for (int s = words.wordScores[word], max = words.wordScores[word + 1]; s < max; s++) {
+            if (words.scoreClasses[s] == wc) {
+              logProb = words.scoreLogProbs[s];
+              break;
+            }
+          }
+          pdc[c] += logProb;
+        }
+      }
+    }
+    return found;
+  }
+
   /**
    * Compute naive bayes class confidence values.
    */
@@ -0,0 +1,76 @@
+package com.carrotsearch.labs.langid;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe histogram of durations (in nanoseconds) with power-of-two
+ * buckets. Bucket <code>i</code> counts values in the
+ * <code>[2<sup>i-1</sup>, 2<sup>i</sup>)</code> range (bucket zero counts
+ * zeros), so percentiles are accurate to within a factor of two.
+ */
+final class LatencyHistogram {
+  private final LongAdder [] buckets = new LongAdder [64];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+
+  LatencyHistogram() {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    buckets[Math.min(63, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+    count.increment();
+    sum.add(nanos);
+  }
+
+  long count() {
+    return count.sum();
+  }
+
+  double mean() {
+    long count = count();
+    return count == 0 ? 0 : sum.sum() / (double) count;
+  }
+
+  /**
+   * @return Returns the (inclusive) upper bound of the bucket containing the
+   *         given quantile (0-1) or zero if there are no values.
+   */
+  long percentile(double quantile) {
+    long [] counts = buckets();
+    long total = 0;
+    for (long c : counts) {
+      total += c;
+    }
+    long rank = (long) Math.ceil(quantile * total);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen > 0 && seen >= rank) {
+        return i == 0 ? 0 : (1L << i) - 1;
+      }
+    }
+    return 0;
+  }
+
+  long [] buckets() {
+    long [] counts = new long [buckets.length];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = buckets[i].sum();
+    }
+    return counts;
+  }
+
+  void reset() {
+    for (LongAdder bucket : buckets) {
+      bucket.reset();
+    }
+    count.reset();
+    sum.reset();
+  }
+}
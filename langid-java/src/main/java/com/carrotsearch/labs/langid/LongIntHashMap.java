@@ -0,0 +1,115 @@
+package com.carrotsearch.labs.langid;
+
+/**
+ * An open-addressing (linear probing) map of <code>long</code> keys to
+ * <code>int</code> values; trimmed and specific to training. Zero keys are
+ * not allowed (zero marks empty slots). 
+ */
+final class LongIntHashMap {
+  public long[] keys;
+  public int[] values;
+
+  public int elementsCount;
+  private int mask;
+  private int resizeAt;
+
+  public LongIntHashMap() {
+    this(16);
+  }
+
+  public LongIntHashMap(int expectedElements) {
+    int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, expectedElements * 4 / 3)) << 1);
+    allocate(capacity);
+  }
+
+  /**
+   * Add <code>increment</code> to the value of <code>key</code> (a new key starts at zero).
+   */
+  public void addTo(long key, int increment) {
+    assert key != 0;
+    int slot = slot(key);
+    if (keys[slot] == key) {
+      values[slot] += increment;
+    } else {
+      keys[slot] = key;
+      values[slot] = increment;
+      if (++elementsCount >= resizeAt) {
+        resize();
+      }
+    }
+  }
+
+  /**
+   * Set the value of <code>key</code>.
+   */
+  public void put(long key, int value) {
+    assert key != 0;
+    int slot = slot(key);
+    if (keys[slot] == key) {
+      values[slot] = value;
+    } else {
+      keys[slot] = key;
+      values[slot] = value;
+      if (++elementsCount >= resizeAt) {
+        resize();
+      }
+    }
+  }
+
+  /**
+   * @return Returns the value of <code>key</code> or zero if there is no such key.
+   */
+  public int get(long key) {
+    int slot = slot(key);
+    return keys[slot] == key ? values[slot] : 0;
+  }
+
+  /**
+   * Add all values from another map.
+   */
+  public void addAll(LongIntHashMap other) {
+    final long [] keys = other.keys;
+    final int [] values = other.values;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != 0) {
+        addTo(keys[i], values[i]);
+      }
+    }
+  }
+
+  /**
+   * @return Returns the slot of <code>key</code> or the empty slot it should be put in. 
+   */
+  private int slot(long key) {
+    int slot = mix(key) & mask;
+    while (keys[slot] != 0 && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void resize() {
+    final long [] oldKeys = keys;
+    final int [] oldValues = values;
+    allocate(oldKeys.length << 1);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != 0) {
+        int slot = slot(oldKeys[i]);
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    this.keys = new long [capacity];
+    this.values = new int [capacity];
+    this.mask = capacity - 1;
+    this.resizeAt = (int) (capacity * 0.75);
+  }
+
+  private static int mix(long key) {
+    key *= 0x9e3779b97f4a7c15L;
+    return (int) (key ^ (key >>> 32));
+  }
+}
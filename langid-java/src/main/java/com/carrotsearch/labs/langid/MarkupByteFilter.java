@@ -0,0 +1,447 @@
+package com.carrotsearch.labs.langid;
+
+/**
+ * Strips HTML/XML markup from UTF8 input, passing only text content to the
+ * classifier. This filter:
+ * <ul>
+ * <li>drops tags (including attributes and quoted attribute values),
+ * comments, declarations and processing instructions; each of these is
+ * replaced with a single space,</li>
+ * <li>drops the content of <code>&lt;script&gt;</code> and
+ * <code>&lt;style&gt;</code> elements,</li>
+ * <li>decodes numeric character references and common named entities (XML
+ * entities, the Latin-1 set and typographic punctuation); unknown entities are
+ * passed through verbatim.</li>
+ * </ul>
+ *
+ * <p>
+ * The filter is a simple state machine: it is not a validating parser and does
+ * not allocate memory. All of its state is preserved between calls to
+ * {@link #filter}, so the input can be split at arbitrary byte positions (markup
+ * characters are all ASCII so this is safe for UTF8).
+ *
+ * @see ChainedByteFilter
+ */
+public final class MarkupByteFilter implements IByteFilter {
+  private final static int TEXT = 0;
+  private final static int TAG_OPEN = 1;
+  private final static int TAG_NAME = 2;
+  private final static int TAG = 3;
+  private final static int TAG_DQUOTE = 4;
+  private final static int TAG_SQUOTE = 5;
+  private final static int BANG = 6;
+  private final static int BANG_DASH = 7;
+  private final static int COMMENT = 8;
+  private final static int DECLARATION = 9;
+  private final static int RAW_TEXT = 10;
+  private final static int ENTITY = 11;
+
+  /** Elements with content skipped entirely. */
+  private final static byte[][] RAW_ELEMENTS = {
+    ascii("script"),
+    ascii("style"),
+  };
+
+  /** Maximum entity length (without the leading '&amp;' and trailing ';'). */
+  private final static int MAX_ENTITY = 10;
+
+  /** Names of Latin-1 entities, code points 160-255. */
+  private final static String[] LATIN1_ENTITIES = {
+    "nbsp", "iexcl", "cent", "pound", "curren", "yen", "brvbar", "sect",
+    "uml", "copy", "ordf", "laquo", "not", "shy", "reg", "macr",
+    "deg", "plusmn", "sup2", "sup3", "acute", "micro", "para", "middot",
+    "cedil", "sup1", "ordm", "raquo", "frac14", "frac12", "frac34", "iquest",
+    "Agrave", "Aacute", "Acirc", "Atilde", "Auml", "Aring", "AElig", "Ccedil",
+    "Egrave", "Eacute", "Ecirc", "Euml", "Igrave", "Iacute", "Icirc", "Iuml",
+    "ETH", "Ntilde", "Ograve", "Oacute", "Ocirc", "Otilde", "Ouml", "times",
+    "Oslash", "Ugrave", "Uacute", "Ucirc", "Uuml", "Yacute", "THORN", "szlig",
+    "agrave", "aacute", "acirc", "atilde", "auml", "aring", "aelig", "ccedil",
+    "egrave", "eacute", "ecirc", "euml", "igrave", "iacute", "icirc", "iuml",
+    "eth", "ntilde", "ograve", "oacute", "ocirc", "otilde", "ouml", "divide",
+    "oslash", "ugrave", "uacute", "ucirc", "uuml", "yacute", "thorn", "yuml",
+  };
+
+  /** Other common entities and their code points. */
+  private final static String[] OTHER_ENTITIES = {
+    "quot", "amp", "apos", "lt", "gt",
+    "OElig", "oelig", "Scaron", "scaron", "Yuml",
+    "ndash", "mdash", "lsquo", "rsquo", "sbquo", "ldquo", "rdquo", "bdquo",
+    "bull", "hellip", "euro", "trade",
+  };
+  private final static int[] OTHER_CODEPOINTS = {
+    '"', '&', '\'', '<', '>',
+    0x152, 0x153, 0x160, 0x161, 0x178,
+    0x2013, 0x2014, 0x2018, 0x2019, 0x201a, 0x201c, 0x201d, 0x201e,
+    0x2022, 0x2026, 0x20ac, 0x2122,
+  };
+
+  private int state = TEXT;
+
+  // Tag name (only as long as the longest raw element name).
+  private final byte[] name = new byte[6];
+  private int nameLength;
+  private boolean nameOverflow;
+  private boolean closing;
+
+  // Raw element opened by the current tag and the element we're inside of.
+  private byte[] pendingRaw;
+  private byte[] raw;
+  private int rawMatch;
+
+  // Comment dashes.
+  private int dashes;
+
+  // Entity buffer.
+  private final byte[] entity = new byte[MAX_ENTITY];
+  private int entityLength;
+
+  // Was the last emitted byte a space?
+  private boolean lastSpace = true;
+
+  /*
+   *
+   */
+  @Override
+  public void reset() {
+    state = TEXT;
+    pendingRaw = raw = null;
+    lastSpace = true;
+  }
+
+  /*
+   *
+   */
+  @Override
+  public int filter(byte[] in, int start, int length, byte[] out, int outStart) {
+    int o = outStart;
+    for (int i = start, max = start + length; i < max; i++) {
+      o = process(in[i], out, o);
+    }
+    return o - outStart;
+  }
+
+  /*
+   *
+   */
+  @Override
+  public int flush(byte[] out, int outStart) {
+    int o = outStart;
+    switch (state) {
+      case TAG_OPEN:
+        o = emit((byte) '<', out, o);
+        state = TEXT;
+        break;
+      case ENTITY:
+        o = emitRawEntity(out, o);
+        state = TEXT;
+        break;
+    }
+    return o - outStart;
+  }
+
+  /*
+   *
+   */
+  @Override
+  public int maxHeldBack() {
+    // '&', entity bytes and a separator.
+    return MAX_ENTITY + 2;
+  }
+
+  private int process(byte b, byte[] out, int o) {
+    switch (state) {
+      case TEXT:
+        if (b == '<') {
+          state = TAG_OPEN;
+        } else if (b == '&') {
+          state = ENTITY;
+          entityLength = 0;
+        } else {
+          o = emit(b, out, o);
+        }
+        break;
+
+      case TAG_OPEN:
+        if (isLetter(b) || b == '/') {
+          closing = (b == '/');
+          nameLength = 0;
+          nameOverflow = false;
+          pendingRaw = null;
+          if (!closing) {
+            appendName(b);
+          }
+          state = TAG_NAME;
+        } else if (b == '!') {
+          state = BANG;
+        } else if (b == '?') {
+          state = DECLARATION;
+        } else {
+          // Not a tag, a literal '<'.
+          o = emit((byte) '<', out, o);
+          state = TEXT;
+          o = process(b, out, o);
+        }
+        break;
+
+      case TAG_NAME:
+        if (isLetter(b) || (b >= '0' && b <= '9') || b == '-' || b == ':') {
+          appendName(b);
+        } else {
+          if (!closing && !nameOverflow) {
+            pendingRaw = rawElement();
+          }
+          state = TAG;
+          o = process(b, out, o);
+        }
+        break;
+
+      case TAG:
+        if (b == '>') {
+          o = tagEnd(out, o);
+        } else if (b == '"') {
+          state = TAG_DQUOTE;
+        } else if (b == '\'') {
+          state = TAG_SQUOTE;
+        }
+        break;
+
+      case TAG_DQUOTE:
+        if (b == '"') state = TAG;
+        break;
+
+      case TAG_SQUOTE:
+        if (b == '\'') state = TAG;
+        break;
+
+      case BANG:
+        if (b == '-') {
+          state = BANG_DASH;
+        } else if (b == '>') {
+          o = tagEnd(out, o);
+        } else {
+          state = DECLARATION;
+        }
+        break;
+
+      case BANG_DASH:
+        if (b == '-') {
+          state = COMMENT;
+          dashes = 0;
+        } else if (b == '>') {
+          o = tagEnd(out, o);
+        } else {
+          state = DECLARATION;
+        }
+        break;
+
+      case COMMENT:
+        if (b == '-') {
+          dashes++;
+        } else {
+          if (b == '>' && dashes >= 2) {
+            o = tagEnd(out, o);
+          }
+          dashes = 0;
+        }
+        break;
+
+      case DECLARATION:
+        if (b == '>') {
+          o = tagEnd(out, o);
+        }
+        break;
+
+      case RAW_TEXT:
+        // Look for "</" + raw element name.
+        if (rawMatches(b, rawMatch)) {
+          if (++rawMatch == raw.length + 2) {
+            raw = null;
+            closing = true;
+            state = TAG;
+          }
+        } else {
+          rawMatch = (b == '<' ? 1 : 0);
+        }
+        break;
+
+      case ENTITY:
+        if (b == ';') {
+          o = emitEntity(out, o);
+          state = TEXT;
+        } else if (entityLength < MAX_ENTITY && (isLetter(b) || (b >= '0' && b <= '9') || (b == '#' && entityLength == 0))) {
+          entity[entityLength++] = b;
+        } else {
+          o = emitRawEntity(out, o);
+          state = TEXT;
+          o = process(b, out, o);
+        }
+        break;
+
+      default:
+        throw new RuntimeException("Unreachable: " + state);
+    }
+    return o;
+  }
+
+  private int tagEnd(byte[] out, int o) {
+    if (pendingRaw != null) {
+      raw = pendingRaw;
+      rawMatch = 0;
+      pendingRaw = null;
+      state = RAW_TEXT;
+    } else {
+      state = TEXT;
+    }
+    return emit((byte) ' ', out, o);
+  }
+
+  private boolean rawMatches(byte b, int index) {
+    switch (index) {
+      case 0:  return b == '<';
+      case 1:  return b == '/';
+      default: return (b | 0x20) == raw[index - 2];
+    }
+  }
+
+  private void appendName(byte b) {
+    if (nameLength < name.length) {
+      name[nameLength++] = (byte) (b | 0x20);
+    } else {
+      nameOverflow = true;
+    }
+  }
+
+  private byte[] rawElement() {
+    outer:
+    for (byte[] element : RAW_ELEMENTS) {
+      if (element.length == nameLength) {
+        for (int i = 0; i < nameLength; i++) {
+          if (element[i] != name[i]) continue outer;
+        }
+        return element;
+      }
+    }
+    return null;
+  }
+
+  private int emit(byte b, byte[] out, int o) {
+    boolean space = (b == ' ');
+    if (!space || !lastSpace) {
+      out[o++] = b;
+    }
+    lastSpace = space;
+    return o;
+  }
+
+  private int emitRawEntity(byte[] out, int o) {
+    o = emit((byte) '&', out, o);
+    for (int i = 0; i < entityLength; i++) {
+      o = emit(entity[i], out, o);
+    }
+    return o;
+  }
+
+  private int emitEntity(byte[] out, int o) {
+    int codePoint = decodeEntity();
+    if (codePoint < 0) {
+      o = emitRawEntity(out, o);
+      return emit((byte) ';', out, o);
+    }
+
+    if (codePoint == 0xa0) {
+      // Non-breaking space.
+      return emit((byte) ' ', out, o);
+    }
+
+    if (codePoint < 0x80) {
+      return emit((byte) codePoint, out, o);
+    }
+
+    lastSpace = false;
+    if (codePoint < 0x800) {
+      out[o++] = (byte) (0xc0 | (codePoint >> 6));
+    } else {
+      if (codePoint < 0x10000) {
+        out[o++] = (byte) (0xe0 | (codePoint >> 12));
+      } else {
+        out[o++] = (byte) (0xf0 | (codePoint >> 18));
+        out[o++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+      }
+      out[o++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+    }
+    out[o++] = (byte) (0x80 | (codePoint & 0x3f));
+    return o;
+  }
+
+  /**
+   * Decode the buffered entity, returns -1 if unknown or invalid.
+   */
+  private int decodeEntity() {
+    if (entityLength == 0) {
+      return -1;
+    }
+
+    if (entity[0] == '#') {
+      int codePoint = 0;
+      int radix = 10;
+      int i = 1;
+      if (entityLength > 1 && (entity[1] | 0x20) == 'x') {
+        radix = 16;
+        i++;
+      }
+      if (i == entityLength) {
+        return -1;
+      }
+      for (; i < entityLength; i++) {
+        int digit = Character.digit(entity[i], radix);
+        if (digit < 0) {
+          return -1;
+        }
+        codePoint = codePoint * radix + digit;
+        if (codePoint > Character.MAX_CODE_POINT) {
+          return -1;
+        }
+      }
+      if (codePoint == 0 || (codePoint >= 0xd800 && codePoint <= 0xdfff)) {
+        return -1;
+      }
+      return codePoint;
+    }
+
+    for (int i = 0; i < LATIN1_ENTITIES.length; i++) {
+      if (entityEquals(LATIN1_ENTITIES[i])) {
+        return 0xa0 + i;
+      }
+    }
+    for (int i = 0; i < OTHER_ENTITIES.length; i++) {
+      if (entityEquals(OTHER_ENTITIES[i])) {
+        return OTHER_CODEPOINTS[i];
+      }
+    }
+    return -1;
+  }
+
+  private boolean entityEquals(String name) {
+    if (name.length() != entityLength) {
+      return false;
+    }
+    for (int i = 0; i < entityLength; i++) {
+      if (entity[i] != name.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isLetter(byte b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+  }
+
+  private static byte[] ascii(String s) {
+    byte[] bytes = new byte[s.length()];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) s.charAt(i);
+    }
+    return bytes;
+  }
+}
@@ -1,16 +1,14 @@
 package com.carrotsearch.labs.langid;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 
@@ -21,9 +19,18 @@ import java.util.Set;
  * @see #defaultModel()
  */
 public final class Model {
+  /** Maximum number of automaton states encoded in a <code>short[]</code>. */
+  final static int MAX_SHORT_STATES = Short.MAX_VALUE + 1;
+
+  /** Maximum number of automaton states encoded in a <code>char[]</code>. */
+  final static int MAX_CHAR_STATES = Character.MAX_VALUE + 1;
+
   /** The default model, initialized lazily (once). */
   private static Model defaultModel;
 
+  /** Model loading listener (optional). */
+  private static volatile ILangIdListener listener;
+
   /**
    * Language classes.
    */
@@ -45,10 +52,21 @@ public final class Model {
   float[] nb_pc;
 
   /**
-   * State machine for walking byte n-grams. 
+   * State machine for walking byte n-grams (up to {@value #MAX_SHORT_STATES} states). 
+   * Exactly one of {@link #dsa}, {@link #dsaChar} and {@link #dsaInt} is not null.
    */
   short[] dsa;
 
+  /**
+   * State machine for walking byte n-grams (up to {@value #MAX_CHAR_STATES} states).
+   */
+  char[] dsaChar;
+
+  /**
+   * State machine for walking byte n-grams (any number of states).
+   */
+  int[] dsaInt;
+
   /**
    * An output (may be null) associated with each state.
    */
@@ -60,46 +78,108 @@ public final class Model {
   /** Number of features (total). */
   int numFeatures;
 
+  /** Optional word model for very short texts (may be null). */
+  WordModel words;
+
+  /** Word model language class for each of this model's classes. */
+  int[] wordClasses;
+
   /**
    * Create a new model.
    */
   Model(String [] langClasses, float [] ptc, float [] pc, short [] dsa, int[][] dsaOutput) {
+    this(langClasses, ptc, pc, dsa, null, null, dsaOutput);
+  }
+
+  /**
+   * Create a new model with one of the automaton encodings (the others must be null).
+   */
+  Model(String [] langClasses, float [] ptc, float [] pc, 
+        short [] dsa, char [] dsaChar, int [] dsaInt, int[][] dsaOutput) {
     this.langClasses = langClasses;
     this.nb_ptc = ptc;
     this.nb_pc = pc;
     this.dsa = dsa;
+    this.dsaChar = dsaChar;
+    this.dsaInt = dsaInt;
     this.dsaOutput = dsaOutput;
 
     assert nb_pc.length == langClasses.length;
+    assert (dsa != null ? 1 : 0) + (dsaChar != null ? 1 : 0) + (dsaInt != null ? 1 : 0) == 1;
     this.numClasses  = langClasses.length;
     this.numFeatures = nb_ptc.length / numClasses; 
   }
 
   /**
-   * Read a model from an external data stream.
+   * Create a new model with the automaton's transitions (<code>256</code> per state,
+   * state <code>s</code> and byte <code>b</code> at index <code>(s &lt;&lt; 8) + b</code>)
+   * stored in the narrowest encoding that fits the number of states.
+   */
+  static Model create(String [] langClasses, float [] ptc, float [] pc, int [] transitions, int[][] dsaOutput) {
+    final int numStates = dsaOutput.length;
+    if (numStates <= MAX_SHORT_STATES) {
+      short [] dsa = new short [transitions.length];
+      for (int i = 0; i < dsa.length; i++) {
+        dsa[i] = (short) transitions[i];
+      }
+      return new Model(langClasses, ptc, pc, dsa, dsaOutput);
+    } else if (numStates <= MAX_CHAR_STATES) {
+      char [] dsaChar = new char [transitions.length];
+      for (int i = 0; i < dsaChar.length; i++) {
+        dsaChar[i] = (char) transitions[i];
+      }
+      return new Model(langClasses, ptc, pc, null, dsaChar, null, dsaOutput);
+    } else {
+      return new Model(langClasses, ptc, pc, null, null, transitions, dsaOutput);
+    }
+  }
+
+  /**
+   * Return a copy of this model with different classes, sharing the automaton.
+   */
+  private Model withClasses(String [] langClasses, float [] ptc, float [] pc) {
+    return new Model(langClasses, ptc, pc, dsa, dsaChar, dsaInt, dsaOutput);
+  }
+
+  /**
+   * Read a model from an external data stream. The automaton may be stored as a 
+   * <code>short[]</code>, <code>char[]</code> or <code>int[]</code> (depending on
+   * the number of states).
    */
   public static Model readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
     String [] langClasses = (String[]) in.readObject();
     float[] nb_ptc = (float[]) in.readObject();
     float[] nb_pc = (float[]) in.readObject();
-    short[] dsa = (short[]) in.readObject();
+    Object dsa = in.readObject();
     int[][] dsaOutput = (int[][]) in.readObject();
-    return new Model(langClasses, nb_ptc, nb_pc, dsa, dsaOutput);
+    if (dsa instanceof short[]) {
+      return new Model(langClasses, nb_ptc, nb_pc, (short[]) dsa, dsaOutput);
+    } else if (dsa instanceof char[]) {
+      return new Model(langClasses, nb_ptc, nb_pc, null, (char[]) dsa, null, dsaOutput);
+    } else if (dsa instanceof int[]) {
+      return new Model(langClasses, nb_ptc, nb_pc, null, null, (int[]) dsa, dsaOutput);
+    } else {
+      throw new IOException("Unexpected automaton encoding: " 
+          + (dsa == null ? null : dsa.getClass().getName()));
+    }
   }
 
   void writeExternal(ObjectOutput out) throws IOException {
     out.writeObject(langClasses);
     out.writeObject(nb_ptc);
     out.writeObject(nb_pc);
-    out.writeObject(dsa);
+    out.writeObject(dsa != null ? dsa : dsaChar != null ? dsaChar : dsaInt);
     out.writeObject(dsaOutput);
   }
   
   /**
-   * Return a copy of this model trimmed to detect only a subset of languages.  
+   * Return a copy of the default model trimmed to detect only a subset of languages.
+   * The default model is loaded (and kept) if it hasn't been loaded yet; use
+   * {@link #load(Set)} if the full model isn't needed.
    */
   public static Model detectOnly(Set<String> langCodes) {
     final Model source = defaultModel();
+    final long startTime = System.nanoTime();
 
     Set<String> newClasses = new LinkedHashSet<String>(Arrays.asList(source.langClasses));
     newClasses.retainAll(langCodes);
@@ -123,14 +203,63 @@ public final class Model {
       }
     }
 
-    return new Model(
+    Model trimmed = source.withClasses(
         trimmed_nb_classes,
         trimmed_nb_ptc,
-        trimmed_nb_pc,
-        source.dsa,
-        source.dsaOutput);
+        trimmed_nb_pc);
+
+    final ILangIdListener listener = Model.listener;
+    if (listener != null) {
+      listener.modelTrimmed(trimmed.numClasses, System.nanoTime() - startTime);
+    }
+    return trimmed;
   }
   
+  /**
+   * Return a copy of this model with the given word model used for very short
+   * texts (see {@link LangIdV3#classify(CharSequence, boolean)}). The word model must
+   * cover all of this model's languages; use {@link #detectOnly(Set)} to trim 
+   * the set of languages if needed. No word model is bundled with the default
+   * model; one can be built from a corpus with <code>BuildWordModel</code> (in the
+   * experiments module).
+   * 
+   * @param words The word model or <code>null</code> to remove the word model.
+   */
+  public Model withWordModel(WordModel words) {
+    Model copy = withClasses(langClasses, nb_ptc, nb_pc);
+    if (words != null) {
+      List<String> wordLanguages = Arrays.asList(words.langClasses);
+      Set<String> missing = new LinkedHashSet<String>();
+      copy.wordClasses = new int [numClasses];
+      for (int i = 0; i < numClasses; i++) {
+        copy.wordClasses[i] = wordLanguages.indexOf(langClasses[i]);
+        if (copy.wordClasses[i] < 0) {
+          missing.add(langClasses[i]);
+        }
+      }
+      if (!missing.isEmpty()) {
+        throw new IllegalArgumentException("The word model does not cover languages: " + missing);
+      }
+      copy.words = words;
+    }
+    return copy;
+  }
+
+  /**
+   * Return the number of detected languages.
+   */
+  public int getLanguageCount() {
+    return numClasses;
+  }
+
+  /**
+   * Return the code of a language at the given index (as returned by 
+   * {@link LangIdV3#classify(boolean, DetectedLanguage)}, for example).
+   */
+  public String getLanguageCode(int index) {
+    return langClasses[index];
+  }
+
   /**
    * Return a set of detected languages.
    */
@@ -139,46 +268,86 @@ public final class Model {
   }  
 
   /**
-   * Return the default model with a full set of detected languages.
+   * Set a listener notified when the default model is loaded or a model is
+   * trimmed (or <code>null</code> to remove the listener).
    */
-  public static synchronized Model defaultModel() {
-    if (defaultModel != null) {
-      return defaultModel;
-    }
-
-    DataInputStream is = null;
-    try {
-      ByteArrayOutputStream os = new ByteArrayOutputStream();
-      is = new DataInputStream(
-              new BufferedInputStream(
-                  Model.class.getResourceAsStream("langid.lzma")));
-
-      byte[] streamProperties = new byte[5];
-      is.readFully(streamProperties);
+  public static void setListener(ILangIdListener listener) {
+    Model.listener = listener;
+  }
 
-      LzmaDecoder decoder = new LzmaDecoder();
-      if (!decoder.SetDecoderProperties(streamProperties))
-        throw new IOException("Incorrect stream properties.");
+  /**
+   * @return Returns the model loading listener (may be <code>null</code>).
+   */
+  public static ILangIdListener getListener() {
+    return listener;
+  }
 
-      byte [] streamSize = new byte [8];
-      is.readFully(streamSize);
+  /**
+   * Load the default model restricted to a subset of languages. Unlike 
+   * {@link #detectOnly(Set)}, only the weights of the given languages (and the
+   * shared automaton) are decoded and the full default model is never materialized.
+   * Each call loads a new model.
+   * 
+   * @throws IllegalArgumentException If fewer than two of the languages are
+   *         supported by the default model.
+   */
+  public static Model load(Set<String> langCodes) {
+    final long startTime = System.nanoTime();
+    InputStream is = null;
+    try {
+      is = Model.class.getResourceAsStream("langid.sections");
+      ModelSections sections = ModelSections.read(is);
+      Model model = sections.load(langCodes);
 
-      long streamSizeLong = 0;
-      for (int i = 8; --i >= 0;) {
-        streamSizeLong <<= 8;
-        streamSizeLong |= streamSize[i] & 0xFF;
+      final ILangIdListener listener = Model.listener;
+      if (listener != null) {
+        listener.modelTrimmed(model.numClasses, System.nanoTime() - startTime);
       }
-
-      if (!decoder.Code(is, os, streamSizeLong)) {
-        throw new IOException("Error in data stream");
+      return model;
+    } catch (IOException e) {
+      throw new RuntimeException("Default model not available.", e);
+    } finally {
+      if (is != null) {
+        try {
+          is.close();
+        } catch (IOException e) {
+          // Ignore, nothing to do.
+        }
       }
+    }
+  }
+
+  /**
+   * Return the default model with a full set of detected languages.
+   */
+  public static synchronized Model defaultModel() {
+    if (defaultModel == null) {
+      defaultModel = loadDefaultModel();
+    }
+    return defaultModel;
+  }
 
-      os.flush();
+  /**
+   * Load (decompress and deserialize) the default model. Sections of the model
+   * are decoded in parallel (see {@link ModelSections}).
+   */
+  static Model loadDefaultModel() {
+    InputStream is = null;
+    try {
+      final long startTime = System.nanoTime();
+      is = Model.class.getResourceAsStream("langid.sections");
+      ModelSections sections = ModelSections.read(is);
+      Model model = sections.load();
 
-      return Model.readExternal(
-          new ObjectInputStream(
-              new ByteArrayInputStream(
-                  os.toByteArray())));
+      final ILangIdListener listener = Model.listener;
+      if (listener != null) {
+        // Sections are decompressed and decoded concurrently: split the elapsed
+        // time in proportion to the time spent in each step.
+        final long totalNanos = System.nanoTime() - startTime;
+        final long decodeNanos = (long) (totalNanos * sections.inflateShare());
+        listener.modelLoaded(sections.rawBytes(), decodeNanos, totalNanos - decodeNanos);
+      }
+      return model;
     } catch (Exception e) {
       throw new RuntimeException("Default model not available.", e);
     } finally {
@@ -191,4 +360,4 @@ public final class Model {
       }
     }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,661 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A model container in which language classes, {@link Model#nb_pc}, per-language
+ * blocks of {@link Model#nb_ptc} and blocks of the automaton ({@link Model#dsa}
+ * and {@link Model#dsaOutput}) are compressed independently, so that they can
+ * be decoded in parallel and weights of a subset of languages can be loaded
+ * without decoding the others (see {@link #load(Set)}).
+ *
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * int     magic ('LIDS')
+ * int     version
+ * int     number of features
+ * int     number of automaton states
+ * byte    automaton encoding (short, char or int transitions)
+ * int     number of sections
+ * (byte type, int index, int raw length, int compressed length) for each section
+ * deflated section data, in the same order
+ * </pre>
+ *
+ * The language classes section is decoded first, all other sections are decoded
+ * concurrently on a fork/join pool (see {@link #setPool(ForkJoinPool)}), directly
+ * into the model's arrays.
+ *
+ * <pre>
+ * java com.carrotsearch.labs.langid.ModelSections [input.model] output.sections
+ * </pre>
+ *
+ * converts a model written with {@link Model#writeExternal} (or re-writes the
+ * default model if no input is given).
+ *
+ * @see Model#defaultModel()
+ */
+public final class ModelSections {
+  private final static int MAGIC = ('L' << 24) | ('I' << 16) | ('D' << 8) | 'S';
+  private final static int VERSION = 1;
+
+  /** Section types. */
+  private final static byte CLASSES = 0;
+  private final static byte NB_PC = 1;
+  private final static byte NB_PTC = 2;
+  private final static byte DSA = 3;
+  private final static byte DSA_OUTPUT = 4;
+
+  /** Automaton encodings. */
+  private final static byte ENCODING_SHORT = 0;
+  private final static byte ENCODING_CHAR = 1;
+  private final static byte ENCODING_INT = 2;
+
+  /** Number of automaton states in a single block of {@link #DSA} or {@link #DSA_OUTPUT}. */
+  private final static int STATES_PER_BLOCK = 1024;
+
+  /** A section of the container. */
+  private static final class Section {
+    final byte type;
+    final int index;
+    final int rawLength;
+    final int compressedLength;
+    final int offset;
+
+    Section(byte type, int index, int rawLength, int compressedLength, int offset) {
+      this.type = type;
+      this.index = index;
+      this.rawLength = rawLength;
+      this.compressedLength = compressedLength;
+      this.offset = offset;
+    }
+  }
+
+  private final ByteBuffer data;
+  private final int numFeatures;
+  private final int numStates;
+  private final byte encoding;
+  private final List<Section> sections;
+
+  private ForkJoinPool pool;
+
+  /** Time spent decompressing and decoding sections by the last load (summed over threads). */
+  private final AtomicLong inflateNanos = new AtomicLong();
+  private final AtomicLong decodeNanos = new AtomicLong();
+
+  private ModelSections(ByteBuffer data) throws IOException {
+    this.data = data;
+
+    final ByteBuffer header = data.duplicate();
+    try {
+      if (header.getInt() != MAGIC) {
+        throw new IOException("Not a sectioned model.");
+      }
+      final int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported sectioned model version: " + version);
+      }
+      this.numFeatures = header.getInt();
+      this.numStates = header.getInt();
+      this.encoding = header.get();
+      if (numFeatures <= 0 || numStates <= 0 || encoding < ENCODING_SHORT || encoding > ENCODING_INT) {
+        throw new IOException("Invalid sectioned model header.");
+      }
+
+      final int numSections = header.getInt();
+      this.sections = new ArrayList<Section>(numSections);
+      int offset = header.position() + numSections * (1 + 4 + 4 + 4);
+      for (int i = 0; i < numSections; i++) {
+        Section s = new Section(header.get(), header.getInt(), header.getInt(), header.getInt(), offset);
+        if (s.rawLength < 0 || s.compressedLength < 0 || offset + s.compressedLength > data.limit()) {
+          throw new IOException("Invalid section: " + i);
+        }
+        offset += s.compressedLength;
+        sections.add(s);
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated sectioned model.", e);
+    }
+  }
+
+  /**
+   * Open a container from a buffer (the buffer's position must be at the start of the
+   * container). The buffer is not copied.
+   */
+  public static ModelSections open(ByteBuffer data) throws IOException {
+    return new ModelSections(data.slice());
+  }
+
+  /**
+   * Open a container from a file (the file is memory mapped).
+   */
+  public static ModelSections open(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      return open(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Set the pool used for decoding sections. By default (or if <code>null</code>), 
+   * a temporary pool with a thread per available processor is created and shut 
+   * down after loading.
+   */
+  public ModelSections setPool(ForkJoinPool pool) {
+    this.pool = pool;
+    return this;
+  }
+
+  /**
+   * @return Returns the total size of decompressed sections.
+   */
+  long rawBytes() {
+    long bytes = 0;
+    for (Section s : sections) {
+      bytes += s.rawLength;
+    }
+    return bytes;
+  }
+
+  /**
+   * @return Returns the fraction of the last load's (summed) time spent 
+   *         decompressing sections, the rest was spent decoding them into 
+   *         the model's arrays.
+   */
+  double inflateShare() {
+    final long inflate = inflateNanos.get();
+    final long total = inflate + decodeNanos.get();
+    return total == 0 ? 1 : inflate / (double) total;
+  }
+
+  /**
+   * Decode all sections and assemble them into a model.
+   */
+  public Model load() throws IOException {
+    return load(null);
+  }
+
+  /**
+   * Decode the automaton and weights of the given languages only (the weights of
+   * other languages are not decompressed) and assemble them into a model.
+   * 
+   * @param langCodes Languages to load or <code>null</code> to load all languages.
+   *        Languages not present in the container are ignored.
+   * @throws IllegalArgumentException If fewer than two languages are left.
+   * @see Model#detectOnly(Set)
+   */
+  public Model load(Set<String> langCodes) throws IOException {
+    inflateNanos.set(0);
+    decodeNanos.set(0);
+    final String [] allClasses = readClasses();
+
+    // Map class indexes in the container to class indexes in the model (-1 if skipped).
+    final int [] remap = new int [allClasses.length];
+    final List<String> selected = new ArrayList<String>();
+    for (int i = 0; i < allClasses.length; i++) {
+      if (langCodes == null || langCodes.contains(allClasses[i])) {
+        remap[i] = selected.size();
+        selected.add(allClasses[i]);
+      } else {
+        remap[i] = -1;
+      }
+    }
+    if (langCodes != null && selected.size() < 2) {
+      throw new IllegalArgumentException("A model must contain at least two languages.");
+    }
+
+    final String [] langClasses = selected.toArray(new String [selected.size()]);
+    final int numClasses = langClasses.length;
+
+    final float [] nb_pc = new float [numClasses];
+    final float [] nb_ptc = new float [numClasses * numFeatures];
+    final short [] dsa = encoding == ENCODING_SHORT ? new short [numStates * 256] : null;
+    final char [] dsaChar = encoding == ENCODING_CHAR ? new char [numStates * 256] : null;
+    final int [] dsaInt = encoding == ENCODING_INT ? new int [numStates * 256] : null;
+    final int [][] dsaOutput = new int [numStates][];
+
+    // Sections seen (each must be present exactly once).
+    boolean pcSeen = false;
+    final boolean [] ptcSeen = new boolean [allClasses.length];
+    final boolean [] dsaSeen = new boolean [blocks()];
+    final boolean [] outputSeen = new boolean [blocks()];
+
+    final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+    for (final Section s : sections) {
+      switch (s.type) {
+        case CLASSES:
+          break;
+        case NB_PC:
+          checkUnique(s, pcSeen);
+          pcSeen = true;
+          tasks.add(new SectionTask(s) {
+            @Override
+            void decode(ByteBuffer raw) {
+              for (int i = 0; i < remap.length; i++) {
+                float pc = raw.getFloat();
+                if (remap[i] >= 0) {
+                  nb_pc[remap[i]] = pc;
+                }
+              }
+            }
+          });
+          break;
+        case NB_PTC:
+          checkIndex(s, remap.length);
+          checkUnique(s, ptcSeen[s.index]);
+          ptcSeen[s.index] = true;
+          if (remap[s.index] >= 0) {
+            tasks.add(new SectionTask(s) {
+              @Override
+              void decode(ByteBuffer raw) {
+                raw.asFloatBuffer().get(nb_ptc, remap[s.index] * numFeatures, numFeatures);
+              }
+            });
+          }
+          break;
+        case DSA:
+          checkIndex(s, blocks());
+          checkUnique(s, dsaSeen[s.index]);
+          dsaSeen[s.index] = true;
+          tasks.add(new SectionTask(s) {
+            @Override
+            void decode(ByteBuffer raw) {
+              final int offset = s.index * STATES_PER_BLOCK * 256;
+              final int length = blockStates(s.index) * 256;
+              if (dsa != null) {
+                raw.asShortBuffer().get(dsa, offset, length);
+              } else if (dsaChar != null) {
+                raw.asCharBuffer().get(dsaChar, offset, length);
+              } else {
+                raw.asIntBuffer().get(dsaInt, offset, length);
+              }
+            }
+          });
+          break;
+        case DSA_OUTPUT:
+          checkIndex(s, blocks());
+          checkUnique(s, outputSeen[s.index]);
+          outputSeen[s.index] = true;
+          tasks.add(new SectionTask(s) {
+            @Override
+            void decode(ByteBuffer raw) {
+              for (int state = s.index * STATES_PER_BLOCK,
+                       max = state + blockStates(s.index); state < max; state++) {
+                final int count = raw.getInt();
+                if (count >= 0) {
+                  final int [] features = new int [count];
+                  raw.asIntBuffer().get(features);
+                  raw.position(raw.position() + count * 4);
+                  dsaOutput[state] = features;
+                }
+              }
+            }
+          });
+          break;
+        default:
+          throw new IOException("Unknown section type: " + s.type);
+      }
+    }
+
+    // Missing sections would silently leave zero weights or transitions.
+    if (!pcSeen) {
+      throw new IOException("Missing section of type " + NB_PC + ".");
+    }
+    for (int i = 0; i < allClasses.length; i++) {
+      if (remap[i] >= 0 && !ptcSeen[i]) {
+        throw new IOException("Missing section of type " + NB_PTC + ": " + i);
+      }
+    }
+    for (int i = 0; i < blocks(); i++) {
+      if (!dsaSeen[i]) {
+        throw new IOException("Missing section of type " + DSA + ": " + i);
+      }
+      if (!outputSeen[i]) {
+        throw new IOException("Missing section of type " + DSA_OUTPUT + ": " + i);
+      }
+    }
+
+    invokeAll(tasks);
+    return new Model(langClasses, nb_ptc, nb_pc, dsa, dsaChar, dsaInt, dsaOutput);
+  }
+
+  /**
+   * Decode the language classes section.
+   */
+  private String [] readClasses() throws IOException {
+    for (Section s : sections) {
+      if (s.type == CLASSES) {
+        final long start = System.nanoTime();
+        final byte [] raw = inflate(s).array();
+        final long inflated = System.nanoTime();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+        String [] langClasses = new String [in.readInt()];
+        for (int i = 0; i < langClasses.length; i++) {
+          langClasses[i] = in.readUTF();
+        }
+        inflateNanos.addAndGet(inflated - start);
+        decodeNanos.addAndGet(System.nanoTime() - inflated);
+        return langClasses;
+      }
+    }
+    throw new IOException("Missing language classes section.");
+  }
+
+  private int blocks() {
+    return (numStates + STATES_PER_BLOCK - 1) / STATES_PER_BLOCK;
+  }
+
+  private int blockStates(int block) {
+    return Math.min(STATES_PER_BLOCK, numStates - block * STATES_PER_BLOCK);
+  }
+
+  private static void checkIndex(Section s, int max) throws IOException {
+    if (s.index < 0 || s.index >= max) {
+      throw new IOException("Invalid index of section type " + s.type + ": " + s.index);
+    }
+  }
+
+  private static void checkUnique(Section s, boolean seen) throws IOException {
+    if (seen) {
+      throw new IOException("Duplicate section of type " + s.type + ": " + s.index);
+    }
+  }
+
+  /**
+   * Run decoding tasks on the pool and rethrow any I/O exception.
+   */
+  private void invokeAll(final List<RecursiveAction> tasks) throws IOException {
+    final List<Thread> workers = new ArrayList<Thread>();
+    final ForkJoinPool pool;
+    if (this.pool != null) {
+      pool = this.pool;
+    } else {
+      pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), 
+          new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+              ForkJoinWorkerThread t = new ForkJoinWorkerThread(pool) {};
+              t.setName("langid-model-" + t.getName());
+              synchronized (workers) {
+                workers.add(t);
+              }
+              return t;
+            }
+          }, null, false);
+    }
+
+    try {
+      pool.invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(tasks);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      if (pool != this.pool) {
+        pool.shutdown();
+        synchronized (workers) {
+          for (Thread t : workers) {
+            try {
+              t.join();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              break;
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Decompress a section into a (heap) buffer.
+   */
+  private ByteBuffer inflate(Section s) throws IOException {
+    final byte [] input;
+    final int inputOffset;
+    if (data.hasArray()) {
+      input = data.array();
+      inputOffset = data.arrayOffset() + s.offset;
+    } else {
+      input = new byte [s.compressedLength];
+      inputOffset = 0;
+      ByteBuffer slice = data.duplicate();
+      slice.position(s.offset);
+      slice.get(input);
+    }
+
+    final byte [] raw = new byte [s.rawLength];
+    final Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(input, inputOffset, s.compressedLength);
+      int length = 0;
+      while (length < raw.length) {
+        int n = inflater.inflate(raw, length, raw.length - length);
+        if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+          break;
+        }
+        length += n;
+      }
+      if (length != raw.length) {
+        throw new IOException("Truncated section of type " + s.type + ": " + s.index);
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupted section of type " + s.type + ": " + s.index, e);
+    } finally {
+      inflater.end();
+    }
+    return ByteBuffer.wrap(raw);
+  }
+
+  /**
+   * Decompress and decode a single section.
+   */
+  @SuppressWarnings("serial")
+  private abstract class SectionTask extends RecursiveAction {
+    final Section section;
+
+    SectionTask(Section section) {
+      this.section = section;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        final long start = System.nanoTime();
+        final ByteBuffer raw = inflate(section);
+        final long inflated = System.nanoTime();
+        decode(raw);
+        inflateNanos.addAndGet(inflated - start);
+        decodeNanos.addAndGet(System.nanoTime() - inflated);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } catch (RuntimeException e) {
+        throw new UncheckedIOException(
+            new IOException("Invalid section of type " + section.type + ": " + section.index, e));
+      }
+    }
+
+    abstract void decode(ByteBuffer raw);
+  }
+
+  /**
+   * Write a model as a sectioned container.
+   */
+  public static void write(Model model, OutputStream out) throws IOException {
+    final List<Block> blocks = new ArrayList<Block>();
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(baos);
+    dos.writeInt(model.numClasses);
+    for (String langClass : model.langClasses) {
+      dos.writeUTF(langClass);
+    }
+    dos.close();
+    blocks.add(new Block(CLASSES, 0, baos.toByteArray()));
+
+    ByteBuffer buffer = ByteBuffer.allocate(model.numClasses * 4);
+    buffer.asFloatBuffer().put(model.nb_pc);
+    blocks.add(new Block(NB_PC, 0, buffer.array()));
+
+    for (int c = 0; c < model.numClasses; c++) {
+      buffer = ByteBuffer.allocate(model.numFeatures * 4);
+      buffer.asFloatBuffer().put(model.nb_ptc, c * model.numFeatures, model.numFeatures);
+      blocks.add(new Block(NB_PTC, c, buffer.array()));
+    }
+
+    final int numStates = model.dsaOutput.length;
+    for (int block = 0, first = 0; first < numStates; block++, first += STATES_PER_BLOCK) {
+      final int states = Math.min(STATES_PER_BLOCK, numStates - first);
+      if (model.dsa != null) {
+        buffer = ByteBuffer.allocate(states * 256 * 2);
+        buffer.asShortBuffer().put(model.dsa, first * 256, states * 256);
+      } else if (model.dsaChar != null) {
+        buffer = ByteBuffer.allocate(states * 256 * 2);
+        buffer.asCharBuffer().put(model.dsaChar, first * 256, states * 256);
+      } else {
+        buffer = ByteBuffer.allocate(states * 256 * 4);
+        buffer.asIntBuffer().put(model.dsaInt, first * 256, states * 256);
+      }
+      blocks.add(new Block(DSA, block, buffer.array()));
+
+      baos = new ByteArrayOutputStream();
+      dos = new DataOutputStream(baos);
+      for (int state = first; state < first + states; state++) {
+        int [] features = model.dsaOutput[state];
+        if (features == null) {
+          dos.writeInt(-1);
+        } else {
+          dos.writeInt(features.length);
+          for (int feature : features) {
+            dos.writeInt(feature);
+          }
+        }
+      }
+      dos.close();
+      blocks.add(new Block(DSA_OUTPUT, block, baos.toByteArray()));
+    }
+
+    final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try {
+      final byte [] chunk = new byte [64 * 1024];
+      for (Block block : blocks) {
+        deflater.reset();
+        deflater.setInput(block.raw);
+        deflater.finish();
+        baos = new ByteArrayOutputStream();
+        while (!deflater.finished()) {
+          baos.write(chunk, 0, deflater.deflate(chunk));
+        }
+        block.compressed = baos.toByteArray();
+      }
+    } finally {
+      deflater.end();
+    }
+
+    dos = new DataOutputStream(out);
+    dos.writeInt(MAGIC);
+    dos.writeInt(VERSION);
+    dos.writeInt(model.numFeatures);
+    dos.writeInt(numStates);
+    dos.writeByte(model.dsa != null ? ENCODING_SHORT : model.dsaChar != null ? ENCODING_CHAR : ENCODING_INT);
+    dos.writeInt(blocks.size());
+    for (Block block : blocks) {
+      dos.writeByte(block.type);
+      dos.writeInt(block.index);
+      dos.writeInt(block.raw.length);
+      dos.writeInt(block.compressed.length);
+    }
+    for (Block block : blocks) {
+      dos.write(block.compressed);
+    }
+    dos.flush();
+  }
+
+  /** A section being written. */
+  private static final class Block {
+    final byte type;
+    final int index;
+    final byte [] raw;
+    byte [] compressed;
+
+    Block(byte type, int index, byte [] raw) {
+      this.type = type;
+      this.index = index;
+      this.raw = raw;
+    }
+  }
+
+  /**
+   * Read a container fully from a stream.
+   */
+  static ModelSections read(InputStream is) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    byte [] buffer = new byte [64 * 1024];
+    int read;
+    while ((read = is.read(buffer)) > 0) {
+      baos.write(buffer, 0, read);
+    }
+    return open(ByteBuffer.wrap(baos.toByteArray()));
+  }
+
+  public static void main(String [] args) throws Exception {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: ModelSections [input.model] output.sections");
+      System.exit(1);
+    }
+
+    final Model model;
+    if (args.length == 2) {
+      ObjectInputStream ois = new ObjectInputStream(new FileInputStream(args[0]));
+      try {
+        model = Model.readExternal(ois);
+      } finally {
+        ois.close();
+      }
+    } else {
+      model = Model.loadDefaultModel();
+    }
+
+    File output = new File(args[args.length - 1]);
+    OutputStream os = new BufferedOutputStream(new FileOutputStream(output));
+    try {
+      write(model, os);
+    } finally {
+      os.close();
+    }
+    System.out.println(String.format("Written: %d languages, %d features, %d states, %d bytes to: %s",
+        model.numClasses, model.numFeatures, model.dsaOutput.length, output.length(),
+        output.getAbsolutePath()));
+  }
+}
@@ -0,0 +1,810 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trains a {@link Model} from tab-delimited corpora (one document per line:
+ * <code>language\ttext</code>, UTF8-encoded). Each corpus file is a separate
+ * domain. The pipeline follows langid.py:
+ * <ol>
+ * <li>document frequencies of byte n-grams (orders 1 to {@link #setMaxOrder(int)})
+ *     are counted per language and per domain,</li>
+ * <li>the most frequent n-grams of each language become candidate features,</li>
+ * <li>for each language, candidates are scored by LD (the information gain
+ *     with respect to that language minus the information gain with respect to
+ *     domains) and the best-scoring ones are selected,</li>
+ * <li>an Aho-Corasick automaton matching the selected features is built
+ *     ({@link Model#dsa}, {@link Model#dsaOutput}; {@link Model#dsaChar} or
+ *     {@link Model#dsaInt} for automata with more than 32K states),</li>
+ * <li>naive Bayes parameters ({@link Model#nb_ptc}, {@link Model#nb_pc}) are
+ *     estimated from feature counts (with Laplace smoothing).</li>
+ * </ol>
+ *
+ * <p>
+ * Both passes over the corpora (document frequencies and feature counts) are
+ * parallelized on a fork/join pool and read documents directly from memory
+ * mapped files; document frequency tables are kept in memory, so the number of
+ * distinct n-grams (rather than the size of the corpus) bounds the memory
+ * required. Per-thread partial results are only kept for the duration of a pass.
+ *
+ * <pre>
+ * ModelTrainer [-order 4] [-df 15000] [-features 300] output.model corpus.tsv...
+ * </pre>
+ *
+ * The output can be read with {@link Model#readExternal(java.io.ObjectInput)}.
+ */
+public final class ModelTrainer {
+  /** Maximum supported n-gram order (n-grams are packed into 32 bits). */
+  public final static int MAX_ORDER = 4;
+
+  /*
+   * Packed n-gram keys: bytes in bits 0-31, n-gram length in bits 32-34,
+   * class or domain index above.
+   */
+  private final static int LENGTH_SHIFT = 32;
+  private final static int CLASS_SHIFT = 35;
+  private final static long NGRAM_MASK = (1L << CLASS_SHIFT) - 1;
+
+  /** Maximum size of a single memory mapped region. */
+  private final static int MAX_MAPPING = 1 << 30;
+
+  /** Regions larger than this are split into separate tasks. */
+  private final static int SPLIT_BYTES = 1 << 22;
+
+  private int maxOrder = MAX_ORDER;
+  private int dfTokens = 15000;
+  private int featuresPerLanguage = 300;
+  private ForkJoinPool pool;
+
+  /**
+   * Set the maximum n-gram order (1 to {@link #MAX_ORDER}, default: 4).
+   */
+  public void setMaxOrder(int maxOrder) {
+    if (maxOrder < 1 || maxOrder > MAX_ORDER) {
+      throw new IllegalArgumentException("Order must be between 1 and " + MAX_ORDER + ": " + maxOrder);
+    }
+    this.maxOrder = maxOrder;
+  }
+
+  /**
+   * Set the number of most frequent (by document frequency) n-grams of each
+   * language which are candidate features (default: 15000).
+   */
+  public void setDfTokens(int dfTokens) {
+    if (dfTokens <= 0) {
+      throw new IllegalArgumentException("Positive number of tokens expected: " + dfTokens);
+    }
+    this.dfTokens = dfTokens;
+  }
+
+  /**
+   * Set the number of features selected for each language (default: 300).
+   */
+  public void setFeaturesPerLanguage(int featuresPerLanguage) {
+    if (featuresPerLanguage <= 0) {
+      throw new IllegalArgumentException("Positive number of features expected: " + featuresPerLanguage);
+    }
+    this.featuresPerLanguage = featuresPerLanguage;
+  }
+
+  /**
+   * Set the pool used for parallel passes over corpora. By default (or if 
+   * <code>null</code>), a temporary pool with a thread per available processor
+   * is created and shut down after training.
+   */
+  public void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Train a model from the given corpora (each file is a separate domain).
+   */
+  public Model train(List<File> corpora) throws IOException {
+    if (pool != null) {
+      return train(corpora, pool);
+    }
+
+    final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    try {
+      return train(corpora, pool);
+    } finally {
+      pool.shutdown();
+      try {
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private Model train(List<File> corpora, ForkJoinPool pool) throws IOException {
+    final List<Region> regions = map(corpora);
+    final int numDomains = corpora.size();
+
+    // Document frequencies of n-grams per class and per domain.
+    final ConcurrentHashMap<String, Integer> classIds = new ConcurrentHashMap<String, Integer>();
+    final List<DfCounts> dfPartials = new DfPass(classIds, maxOrder).run(pool, regions);
+    final DfCounts df = dfPartials.get(0);
+    for (DfCounts other : dfPartials.subList(1, dfPartials.size())) {
+      df.merge(other);
+    }
+
+    // Order classes by language code (ids are assigned in encounter order).
+    final Map<String, Integer> sorted = new TreeMap<String, Integer>(classIds);
+    if (sorted.size() < 2) {
+      throw new IllegalArgumentException("At least two languages are required: " + sorted.keySet());
+    }
+    final String [] langClasses = sorted.keySet().toArray(new String [sorted.size()]);
+    final int numClasses = langClasses.length;
+    final int [] remap = new int [numClasses];
+    for (int c = 0; c < numClasses; c++) {
+      remap[sorted.get(langClasses[c])] = c;
+    }
+    final long [] classDocs = new long [numClasses];
+    for (int id = 0; id < numClasses; id++) {
+      classDocs[remap[id]] = id < df.classDocs.length ? df.classDocs[id] : 0;
+    }
+    final long [] domainDocs = new long [numDomains];
+    for (int d = 0; d < df.domainDocs.length; d++) {
+      domainDocs[d] = df.domainDocs[d];
+    }
+
+    // Candidate features and feature selection.
+    final long [] candidates = candidates(df.byClass, remap, numClasses);
+    final long [] features = selectFeatures(candidates, df, remap, classDocs, domainDocs);
+    df.byClass = df.byDomain = null;
+
+    // The automaton.
+    final Automaton automaton = new Automaton(features);
+
+    // Naive bayes parameters.
+    final int numFeatures = features.length;
+    final List<long[]> nbPartials = new NbPass(sorted, remap, automaton, numFeatures).run(pool, regions);
+    final long [] counts = nbPartials.get(0);
+    for (long [] other : nbPartials.subList(1, nbPartials.size())) {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += other[i];
+      }
+    }
+
+    long totalDocs = 0;
+    for (long docs : classDocs) {
+      totalDocs += docs;
+    }
+
+    final float [] nb_pc = new float [numClasses];
+    final float [] nb_ptc = new float [numClasses * numFeatures];
+    for (int c = 0; c < numClasses; c++) {
+      nb_pc[c] = (float) Math.log(classDocs[c] / (double) totalDocs);
+
+      long total = 0;
+      for (int f = 0; f < numFeatures; f++) {
+        total += counts[c * numFeatures + f];
+      }
+      for (int f = 0; f < numFeatures; f++) {
+        nb_ptc[c * numFeatures + f] =
+            (float) Math.log((counts[c * numFeatures + f] + 1) / (double) (total + numFeatures));
+      }
+    }
+
+    return Model.create(langClasses, nb_ptc, nb_pc, automaton.dsa, automaton.dsaOutput);
+  }
+
+  /**
+   * Pick the n-grams with the highest document frequency in each class.
+   *
+   * @return Returns sorted, unique n-grams.
+   */
+  private long [] candidates(LongIntHashMap byClass, int [] remap, int numClasses) {
+    // (df, ngram) pairs of each class.
+    final long [][] entries = new long [numClasses][];
+    final int [] sizes = new int [numClasses];
+    for (int c = 0; c < numClasses; c++) {
+      entries[c] = new long [16];
+    }
+
+    final long [] keys = byClass.keys;
+    final int [] values = byClass.values;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != 0) {
+        int c = remap[(int) (keys[i] >>> CLASS_SHIFT)];
+        if (sizes[c] == entries[c].length) {
+          entries[c] = Arrays.copyOf(entries[c], sizes[c] * 2);
+        }
+        entries[c][sizes[c]++] = ((long) values[i] << CLASS_SHIFT) | (keys[i] & NGRAM_MASK);
+      }
+    }
+
+    final LongIntHashMap unique = new LongIntHashMap(dfTokens * numClasses);
+    for (int c = 0; c < numClasses; c++) {
+      Arrays.sort(entries[c], 0, sizes[c]);
+      for (int i = sizes[c], min = Math.max(0, sizes[c] - dfTokens); --i >= min;) {
+        unique.put(entries[c][i] & NGRAM_MASK, 1);
+      }
+      entries[c] = null;
+    }
+
+    return sortedKeys(unique);
+  }
+
+  /**
+   * Score candidates by LD (information gain with respect to each language
+   * minus information gain with respect to domains) and pick the best ones for
+   * each language.
+   *
+   * @return Returns sorted, unique n-grams.
+   */
+  private long [] selectFeatures(long [] candidates, DfCounts df, int [] remap, long [] classDocs, long [] domainDocs) {
+    final int numCandidates = candidates.length;
+    final int numClasses = classDocs.length;
+    final int numDomains = domainDocs.length;
+
+    final LongIntHashMap candidateIndex = new LongIntHashMap(numCandidates);
+    for (int i = 0; i < numCandidates; i++) {
+      candidateIndex.put(candidates[i], i + 1);
+    }
+
+    // Document frequencies of candidates.
+    final int [] dfClass = new int [numCandidates * numClasses];
+    final long [] dfTotal = new long [numCandidates];
+    {
+      final long [] keys = df.byClass.keys;
+      final int [] values = df.byClass.values;
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] != 0) {
+          int index = candidateIndex.get(keys[i] & NGRAM_MASK) - 1;
+          if (index >= 0) {
+            dfClass[index * numClasses + remap[(int) (keys[i] >>> CLASS_SHIFT)]] = values[i];
+            dfTotal[index] += values[i];
+          }
+        }
+      }
+    }
+
+    final int [] dfDomain = new int [numCandidates * numDomains];
+    {
+      final long [] keys = df.byDomain.keys;
+      final int [] values = df.byDomain.values;
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] != 0) {
+          int index = candidateIndex.get(keys[i] & NGRAM_MASK) - 1;
+          if (index >= 0) {
+            dfDomain[index * numDomains + (int) (keys[i] >>> CLASS_SHIFT)] = values[i];
+          }
+        }
+      }
+    }
+
+    long totalDocs = 0;
+    for (long docs : classDocs) {
+      totalDocs += docs;
+    }
+
+    // Information gain with respect to domains.
+    final double [] igDomain = new double [numCandidates];
+    if (numDomains > 1) {
+      final double [] present = new double [numDomains];
+      final double [] absent = new double [numDomains];
+      final double hDomains = entropy(toDouble(domainDocs));
+      for (int f = 0; f < numCandidates; f++) {
+        for (int d = 0; d < numDomains; d++) {
+          present[d] = dfDomain[f * numDomains + d];
+          absent[d] = domainDocs[d] - present[d];
+        }
+        igDomain[f] = informationGain(hDomains, present, absent, dfTotal[f], totalDocs);
+      }
+    }
+
+    // Binarized information gain with respect to each language, minus domain IG.
+    final LongIntHashMap selected = new LongIntHashMap(featuresPerLanguage * numClasses);
+    final long [] scored = new long [numCandidates];
+    final double [] present = new double [2];
+    final double [] absent = new double [2];
+    for (int c = 0; c < numClasses; c++) {
+      final double hClass = entropy(new double [] {classDocs[c], totalDocs - classDocs[c]});
+      for (int f = 0; f < numCandidates; f++) {
+        present[0] = dfClass[f * numClasses + c];
+        present[1] = dfTotal[f] - present[0];
+        absent[0] = classDocs[c] - present[0];
+        absent[1] = (totalDocs - classDocs[c]) - present[1];
+        double ld = informationGain(hClass, present, absent, dfTotal[f], totalDocs) - igDomain[f];
+
+        // Sortable (score, index) pairs.
+        int bits = Float.floatToIntBits((float) ld);
+        bits ^= (bits >> 31) & 0x7fffffff;
+        scored[f] = ((long) bits << 32) | f;
+      }
+      Arrays.sort(scored);
+      for (int i = numCandidates, min = Math.max(0, numCandidates - featuresPerLanguage); --i >= min;) {
+        selected.put(candidates[(int) (scored[i] & 0xffffffffL)], 1);
+      }
+    }
+
+    return sortedKeys(selected);
+  }
+
+  private static double informationGain(double h, double [] present, double [] absent, double dfTotal, double totalDocs) {
+    double pPresent = dfTotal / totalDocs;
+    return h - (pPresent * entropy(present) + (1 - pPresent) * entropy(absent));
+  }
+
+  private static double entropy(double [] counts) {
+    double total = 0;
+    for (double c : counts) {
+      total += c;
+    }
+    if (total <= 0) {
+      return 0;
+    }
+    double h = 0;
+    for (double c : counts) {
+      if (c > 0) {
+        double p = c / total;
+        h -= p * Math.log(p);
+      }
+    }
+    return h;
+  }
+
+  private static double [] toDouble(long [] values) {
+    double [] result = new double [values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = values[i];
+    }
+    return result;
+  }
+
+  private static long [] sortedKeys(LongIntHashMap map) {
+    long [] result = new long [map.elementsCount];
+    int j = 0;
+    for (long key : map.keys) {
+      if (key != 0) {
+        result[j++] = key;
+      }
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+   * @return Returns the bytes of a packed n-gram.
+   */
+  static byte [] ngramBytes(long ngram) {
+    int length = (int) (ngram >>> LENGTH_SHIFT);
+    byte [] bytes = new byte [length];
+    for (int i = length; --i >= 0;) {
+      bytes[i] = (byte) ngram;
+      ngram >>>= 8;
+    }
+    return bytes;
+  }
+
+  /**
+   * Memory map corpora into line-aligned regions.
+   */
+  private static List<Region> map(List<File> corpora) throws IOException {
+    final List<Region> regions = new ArrayList<Region>();
+    for (int domain = 0; domain < corpora.size(); domain++) {
+      final File file = corpora.get(domain);
+      final RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        final FileChannel channel = raf.getChannel();
+        final long size = channel.size();
+        for (long position = 0; position < size;) {
+          long length = Math.min(MAX_MAPPING, size - position);
+          ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+          int limit = (int) length;
+          if (position + length < size) {
+            while (limit > 0 && buffer.get(limit - 1) != '\n') {
+              limit--;
+            }
+            if (limit == 0) {
+              throw new IOException("Line too long at offset " + position + " of " + file);
+            }
+          }
+          regions.add(new Region(buffer, domain, 0, limit));
+          position += limit;
+        }
+      } finally {
+        raf.close();
+      }
+    }
+    return regions;
+  }
+
+  /** A line-aligned range of a memory mapped corpus. */
+  private static final class Region {
+    final ByteBuffer buffer;
+    final int domain;
+    final int start;
+    final int end;
+
+    Region(ByteBuffer buffer, int domain, int start, int end) {
+      this.buffer = buffer;
+      this.domain = domain;
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  /**
+   * A parallel pass over all documents of the corpora. Each worker thread
+   * accumulates its own partial result (for the duration of {@link #run}).
+   */
+  private static abstract class Pass<T> {
+    abstract T newPartial();
+
+    /**
+     * Process a single document (the text is in <code>data[start..start+length)</code>).
+     */
+    abstract void document(T partial, String lang, int domain, ByteBuffer data, int start, int length);
+
+    /**
+     * @return Returns partial results of all threads (at least one).
+     */
+    List<T> run(ForkJoinPool pool, List<Region> regions) {
+      final ConcurrentHashMap<Thread, T> partials = new ConcurrentHashMap<Thread, T>();
+      final List<RegionTask> tasks = new ArrayList<RegionTask>();
+      for (Region region : regions) {
+        tasks.add(new RegionTask(region, partials));
+      }
+      pool.invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(tasks);
+        }
+      });
+
+      final List<T> result = new ArrayList<T>(partials.values());
+      if (result.isEmpty()) {
+        result.add(newPartial());
+      }
+      return result;
+    }
+
+    @SuppressWarnings("serial")
+    private final class RegionTask extends RecursiveAction {
+      private final Region region;
+      private final ConcurrentHashMap<Thread, T> partials;
+
+      RegionTask(Region region, ConcurrentHashMap<Thread, T> partials) {
+        this.region = region;
+        this.partials = partials;
+      }
+
+      @Override
+      protected void compute() {
+        final ByteBuffer buffer = region.buffer;
+        final int start = region.start;
+        final int end = region.end;
+        if (end - start > SPLIT_BYTES) {
+          int mid = start + (end - start) / 2;
+          while (mid < end && buffer.get(mid) != '\n') {
+            mid++;
+          }
+          if (mid < end - 1) {
+            invokeAll(
+                new RegionTask(new Region(buffer, region.domain, start, mid + 1), partials),
+                new RegionTask(new Region(buffer, region.domain, mid + 1, end), partials));
+            return;
+          }
+        }
+        process();
+      }
+
+      private void process() {
+        // Only the current thread adds its own partial.
+        final Thread thread = Thread.currentThread();
+        T partial = partials.get(thread);
+        if (partial == null) {
+          partials.put(thread, partial = newPartial());
+        }
+
+        final ByteBuffer data = region.buffer;
+        for (int i = region.start, end = region.end; i < end;) {
+          int lineEnd = i;
+          while (lineEnd < end && data.get(lineEnd) != '\n') {
+            lineEnd++;
+          }
+          int textEnd = lineEnd;
+          if (textEnd > i && data.get(textEnd - 1) == '\r') {
+            textEnd--;
+          }
+
+          if (textEnd > i) {
+            int tab = i;
+            while (tab < textEnd && data.get(tab) != '\t') {
+              tab++;
+            }
+            if (tab == textEnd) {
+              throw new IllegalArgumentException("Expected a tab on every line: "
+                  + string(data, i, Math.min(100, textEnd - i)));
+            }
+            document(partial, string(data, i, tab - i), region.domain, data, tab + 1, textEnd - tab - 1);
+          }
+          i = lineEnd + 1;
+        }
+      }
+    }
+
+    private static String string(ByteBuffer data, int start, int length) {
+      final byte [] bytes = new byte [length];
+      for (int i = 0; i < length; i++) {
+        bytes[i] = data.get(start + i);
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+
+  /** Document frequencies (partial). */
+  private static final class DfCounts {
+    LongIntHashMap byClass = new LongIntHashMap(1 << 16);
+    LongIntHashMap byDomain = new LongIntHashMap(1 << 16);
+    int [] classDocs = new int [0];
+    int [] domainDocs = new int [0];
+    long [] ngrams = new long [1024];
+
+    void merge(DfCounts other) {
+      byClass.addAll(other.byClass);
+      byDomain.addAll(other.byDomain);
+      classDocs = add(classDocs, other.classDocs);
+      domainDocs = add(domainDocs, other.domainDocs);
+    }
+
+    private static int [] add(int [] a, int [] b) {
+      int [] result = Arrays.copyOf(a, Math.max(a.length, b.length));
+      for (int i = 0; i < b.length; i++) {
+        result[i] += b[i];
+      }
+      return result;
+    }
+  }
+
+  private static final class DfPass extends Pass<DfCounts> {
+    private final ConcurrentHashMap<String, Integer> classIds;
+    private final int maxOrder;
+
+    DfPass(ConcurrentHashMap<String, Integer> classIds, int maxOrder) {
+      this.classIds = classIds;
+      this.maxOrder = maxOrder;
+    }
+
+    @Override
+    DfCounts newPartial() {
+      return new DfCounts();
+    }
+
+    @Override
+    void document(DfCounts partial, String lang, int domain, ByteBuffer data, int start, int length) {
+      final int classId = classId(lang);
+
+      // Collect unique n-grams of the document.
+      long [] ngrams = partial.ngrams;
+      if (ngrams.length < length * maxOrder) {
+        partial.ngrams = ngrams = new long [length * maxOrder];
+      }
+      int count = 0;
+      for (int i = start, end = start + length; i < end; i++) {
+        long bytes = 0;
+        for (int order = 1; order <= maxOrder && i + order <= end; order++) {
+          bytes = (bytes << 8) | (data.get(i + order - 1) & 0xff);
+          ngrams[count++] = ((long) order << LENGTH_SHIFT) | bytes;
+        }
+      }
+      Arrays.sort(ngrams, 0, count);
+
+      final LongIntHashMap byClass = partial.byClass;
+      final LongIntHashMap byDomain = partial.byDomain;
+      final long classBits = (long) classId << CLASS_SHIFT;
+      final long domainBits = (long) domain << CLASS_SHIFT;
+      for (int i = 0; i < count; i++) {
+        if (i == 0 || ngrams[i] != ngrams[i - 1]) {
+          byClass.addTo(ngrams[i] | classBits, 1);
+          byDomain.addTo(ngrams[i] | domainBits, 1);
+        }
+      }
+
+      if (partial.classDocs.length <= classId) {
+        partial.classDocs = Arrays.copyOf(partial.classDocs, classId + 1);
+      }
+      partial.classDocs[classId]++;
+      if (partial.domainDocs.length <= domain) {
+        partial.domainDocs = Arrays.copyOf(partial.domainDocs, domain + 1);
+      }
+      partial.domainDocs[domain]++;
+    }
+
+    private int classId(String lang) {
+      Integer id = classIds.get(lang);
+      if (id == null) {
+        synchronized (classIds) {
+          id = classIds.get(lang);
+          if (id == null) {
+            classIds.put(lang, id = classIds.size());
+          }
+        }
+      }
+      return id;
+    }
+  }
+
+  /** Counts of features in each class. */
+  private static final class NbPass extends Pass<long[]> {
+    private final Map<String, Integer> classIds;
+    private final int [] remap;
+    private final Automaton automaton;
+    private final int numFeatures;
+
+    NbPass(Map<String, Integer> classIds, int [] remap, Automaton automaton, int numFeatures) {
+      this.classIds = classIds;
+      this.remap = remap;
+      this.automaton = automaton;
+      this.numFeatures = numFeatures;
+    }
+
+    @Override
+    long [] newPartial() {
+      return new long [remap.length * numFeatures];
+    }
+
+    @Override
+    void document(long [] counts, String lang, int domain, ByteBuffer data, int start, int length) {
+      final int offset = remap[classIds.get(lang)] * numFeatures;
+      final int [] dsa = automaton.dsa;
+      final int [][] dsaOutput = automaton.dsaOutput;
+
+      int state = 0;
+      for (int i = start, end = start + length; i < end; i++) {
+        state = dsa[(state << 8) + (data.get(i) & 0xff)];
+        int [] is = dsaOutput[state];
+        if (is != null) {
+          for (int feature : is) {
+            counts[offset + feature]++;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * An Aho-Corasick automaton (with all transitions resolved) matching a set
+   * of n-grams.
+   */
+  static final class Automaton {
+    final int [] dsa;
+    final int [][] dsaOutput;
+
+    Automaton(long [] features) {
+      // Build the trie.
+      int [] next = new int [256 * 16];
+      Arrays.fill(next, -1);
+      int numStates = 1;
+      List<int[]> outputs = new ArrayList<int[]>();
+      outputs.add(null);
+
+      for (int f = 0; f < features.length; f++) {
+        int state = 0;
+        for (byte b : ngramBytes(features[f])) {
+          int index = (state << 8) + (b & 0xff);
+          if (next[index] < 0) {
+            if (numStates >= Integer.MAX_VALUE / 512) {
+              throw new IllegalArgumentException("Too many automaton states (reduce the number of features): " + numStates);
+            }
+            if ((numStates + 1) * 256 > next.length) {
+              int oldLength = next.length;
+              next = Arrays.copyOf(next, oldLength * 2);
+              Arrays.fill(next, oldLength, next.length, -1);
+            }
+            next[index] = numStates++;
+            outputs.add(null);
+          }
+          state = next[index];
+        }
+        outputs.set(state, append(outputs.get(state), new int [] {f}));
+      }
+
+      // Resolve failure transitions in breadth-first order.
+      final int [] fail = new int [numStates];
+      final int [] queue = new int [numStates];
+      int head = 0, tail = 0;
+      for (int b = 0; b < 256; b++) {
+        int s = next[b];
+        if (s < 0) {
+          next[b] = 0;
+        } else {
+          fail[s] = 0;
+          queue[tail++] = s;
+        }
+      }
+      while (head < tail) {
+        int r = queue[head++];
+        for (int b = 0; b < 256; b++) {
+          int s = next[(r << 8) + b];
+          int failNext = next[(fail[r] << 8) + b];
+          if (s < 0) {
+            next[(r << 8) + b] = failNext;
+          } else {
+            fail[s] = failNext;
+            outputs.set(s, append(outputs.get(s), outputs.get(failNext)));
+            queue[tail++] = s;
+          }
+        }
+      }
+
+      this.dsa = Arrays.copyOf(next, numStates * 256);
+      this.dsaOutput = new int [numStates][];
+      for (int s = 0; s < numStates; s++) {
+        int [] out = outputs.get(s);
+        if (out != null) {
+          Arrays.sort(out);
+        }
+        dsaOutput[s] = out;
+      }
+    }
+
+    private static int [] append(int [] a, int [] b) {
+      if (a == null) return b == null ? null : b.clone();
+      if (b == null) return a;
+      int [] result = Arrays.copyOf(a, a.length + b.length);
+      System.arraycopy(b, 0, result, a.length, b.length);
+      return result;
+    }
+  }
+
+  public static void main(String [] args) throws IOException {
+    ModelTrainer trainer = new ModelTrainer();
+    int i = 0;
+    for (; i < args.length && args[i].startsWith("-"); i += 2) {
+      int value = Integer.parseInt(args[i + 1]);
+      if (args[i].equals("-order")) {
+        trainer.setMaxOrder(value);
+      } else if (args[i].equals("-df")) {
+        trainer.setDfTokens(value);
+      } else if (args[i].equals("-features")) {
+        trainer.setFeaturesPerLanguage(value);
+      } else {
+        throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+    if (args.length - i < 2) {
+      throw new IllegalArgumentException(
+          "Usage: ModelTrainer [-order 4] [-df 15000] [-features 300] output.model corpus.tsv...");
+    }
+
+    File output = new File(args[i++]);
+    List<File> corpora = new ArrayList<File>();
+    for (; i < args.length; i++) {
+      corpora.add(new File(args[i]));
+    }
+
+    long start = System.currentTimeMillis();
+    Model model = trainer.train(corpora);
+    ObjectOutputStream oos = new ObjectOutputStream(
+        new BufferedOutputStream(new FileOutputStream(output)));
+    try {
+      model.writeExternal(oos);
+    } finally {
+      oos.close();
+    }
+    System.out.println(String.format("Trained: %d languages, %d features, %d states in %.1fs, written to: %s",
+        model.numClasses, model.numFeatures, model.dsaOutput.length,
+        (System.currentTimeMillis() - start) / 1000.0, output.getAbsolutePath()));
+  }
+}
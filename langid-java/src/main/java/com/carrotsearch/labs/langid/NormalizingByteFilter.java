@@ -0,0 +1,259 @@
+package com.carrotsearch.labs.langid;
+
+/**
+ * Sanity normalization of the input prior to language identification. This
+ * filter works on whitespace-delimited tokens of UTF8 input and:
+ * <ul>
+ * <li>drops URLs (tokens containing <code>://</code> or starting with
+ * <code>www.</code>) and e-mail addresses,</li>
+ * <li>drops tokens without any letters (numbers, dates, punctuation-only
+ * tokens),</li>
+ * <li>removes digit runs and collapses runs of punctuation characters inside
+ * tokens to a single character,</li>
+ * <li>collapses whitespace runs into a single space.</li>
+ * </ul>
+ *
+ * <p>
+ * Everything is done in a single pass over the input without allocating
+ * memory; tokens longer than an internal buffer are passed through (or skipped,
+ * if their prefix looks like a URL or an e-mail).
+ *
+ * <p>
+ * Such content carries little (or misleading) language information and is
+ * common in web snippets, see the <code>PROBLEMS</code> file.
+ */
+public final class NormalizingByteFilter implements IByteFilter {
+  /** Maximum token length buffered for inspection. */
+  private final static int MAX_TOKEN = 256;
+
+  private final static int IN_SPACE = 0;
+  private final static int IN_TOKEN = 1;
+  private final static int PASS_TOKEN = 2;
+  private final static int SKIP_TOKEN = 3;
+
+  // Current token buffer.
+  private final byte[] token = new byte[MAX_TOKEN];
+  private int tokenLength;
+
+  private int mode = IN_SPACE;
+
+  // Anything emitted since reset (for separators)?
+  private boolean emitted;
+
+  // Was the last emitted byte a punctuation character?
+  private boolean lastPunctuation;
+
+  /*
+   *
+   */
+  @Override
+  public void reset() {
+    mode = IN_SPACE;
+    tokenLength = 0;
+    emitted = false;
+    lastPunctuation = false;
+  }
+
+  /*
+   *
+   */
+  @Override
+  public int filter(byte[] in, int start, int length, byte[] out, int outStart) {
+    int o = outStart;
+    for (int i = start, max = start + length; i < max; i++) {
+      final byte b = in[i];
+      if (isWhitespace(b)) {
+        if (mode == IN_TOKEN) {
+          o = emitToken(out, o);
+        }
+        mode = IN_SPACE;
+        continue;
+      }
+
+      switch (mode) {
+        case IN_SPACE:
+          mode = IN_TOKEN;
+          tokenLength = 0;
+          // fall-through.
+        case IN_TOKEN:
+          if (tokenLength < MAX_TOKEN) {
+            token[tokenLength++] = b;
+          } else {
+            // Too long to buffer; decide on the prefix and process the remainder on the fly.
+            if (isUrlOrEmailPrefix()) {
+              mode = SKIP_TOKEN;
+            } else {
+              mode = PASS_TOKEN;
+              o = emitTokenBytes(out, o);
+              o = emitTokenByte(b, out, o);
+            }
+          }
+          break;
+        case PASS_TOKEN:
+          o = emitTokenByte(b, out, o);
+          break;
+        case SKIP_TOKEN:
+          break;
+        default:
+          throw new RuntimeException("Unreachable: " + mode);
+      }
+    }
+    return o - outStart;
+  }
+
+  /*
+   *
+   */
+  @Override
+  public int flush(byte[] out, int outStart) {
+    int o = outStart;
+    if (mode == IN_TOKEN) {
+      o = emitToken(out, o);
+    }
+    mode = IN_SPACE;
+    return o - outStart;
+  }
+
+  /*
+   *
+   */
+  @Override
+  public int maxHeldBack() {
+    // Buffered token and a separator.
+    return MAX_TOKEN + 1;
+  }
+
+  /**
+   * Emit the buffered token, unless it should be skipped entirely.
+   */
+  private int emitToken(byte[] out, int o) {
+    if (hasLetter() && !isUrlOrEmail()) {
+      o = emitTokenBytes(out, o);
+    }
+    tokenLength = 0;
+    return o;
+  }
+
+  /**
+   * Emit the buffered token (with a preceding separator).
+   */
+  private int emitTokenBytes(byte[] out, int o) {
+    if (emitted) {
+      out[o++] = ' ';
+    }
+    emitted = true;
+    lastPunctuation = false;
+    for (int i = 0; i < tokenLength; i++) {
+      o = emitTokenByte(token[i], out, o);
+    }
+    return o;
+  }
+
+  /**
+   * Emit a single byte from inside a token, dropping digits and collapsing
+   * punctuation runs.
+   */
+  private int emitTokenByte(byte b, byte[] out, int o) {
+    if (isDigit(b)) {
+      return o;
+    }
+
+    if (isPunctuation(b)) {
+      if (lastPunctuation) {
+        return o;
+      }
+      lastPunctuation = true;
+    } else {
+      lastPunctuation = false;
+    }
+    out[o++] = b;
+    return o;
+  }
+
+  /**
+   * Any letter in the buffered token? All non-ASCII (multibyte UTF8) sequences
+   * are considered letters.
+   */
+  private boolean hasLetter() {
+    for (int i = 0; i < tokenLength; i++) {
+      byte b = token[i];
+      if (b < 0 || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isUrlOrEmail() {
+    return isUrl() || isEmail();
+  }
+
+  /**
+   * Does the token (or its prefix) look like a URL or contain an e-mail marker?
+   */
+  private boolean isUrlOrEmailPrefix() {
+    return isUrl() || indexOf((byte) '@') > 0;
+  }
+
+  private boolean isUrl() {
+    return startsWithIgnoreCase("www.") || indexOfSchemeSeparator() >= 0;
+  }
+
+  private boolean isEmail() {
+    int at = indexOf((byte) '@');
+    if (at <= 0) {
+      return false;
+    }
+    for (int i = at + 2; i < tokenLength - 1; i++) {
+      if (token[i] == '.') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int indexOf(byte b) {
+    for (int i = 0; i < tokenLength; i++) {
+      if (token[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int indexOfSchemeSeparator() {
+    for (int i = 0; i + 2 < tokenLength; i++) {
+      if (token[i] == ':' && token[i + 1] == '/' && token[i + 2] == '/') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private boolean startsWithIgnoreCase(String prefix) {
+    if (tokenLength < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if ((token[i] | 0x20) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == 0x0b;
+  }
+
+  private static boolean isDigit(byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  private static boolean isPunctuation(byte b) {
+    return (b >= '!' && b <= '/') ||
+           (b >= ':' && b <= '@') ||
+           (b >= '[' && b <= '`') ||
+           (b >= '{' && b <= '~');
+  }
+}
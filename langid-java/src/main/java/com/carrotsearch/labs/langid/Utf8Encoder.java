@@ -0,0 +1,56 @@
+package com.carrotsearch.labs.langid;
+
+/**
+ * An allocation-free UTF16 to UTF8 encoder for char sequences. Unpaired
+ * surrogates are skipped (like a {@link java.nio.charset.CharsetEncoder} with
+ * {@link java.nio.charset.CodingErrorAction#IGNORE}).
+ */
+final class Utf8Encoder {
+  /** The end of encoded bytes after the last call to {@link #encode}. */
+  int position;
+
+  /**
+   * Encode chars from <code>from</code> to <code>to</code>, writing bytes to
+   * <code>out</code> from <code>outStart</code> up to (exclusive)
+   * <code>outLimit</code>. Encoding stops at the first code point which
+   * doesn't fit in the output.
+   *
+   * @return Returns the index of the first char not encoded (<code>to</code> if
+   *         all chars have been encoded). The end of encoded bytes is available
+   *         in {@link #position}.
+   */
+  int encode(CharSequence s, int from, int to, byte[] out, int outStart, int outLimit) {
+    int o = outStart;
+    int i = from;
+    for (; i < to; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        if (o >= outLimit) break;
+        out[o++] = (byte) c;
+      } else if (c < 0x800) {
+        if (o + 2 > outLimit) break;
+        out[o++] = (byte) (0xc0 | (c >> 6));
+        out[o++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c)) {
+        if (i + 1 < to && Character.isLowSurrogate(s.charAt(i + 1))) {
+          if (o + 4 > outLimit) break;
+          int cp = Character.toCodePoint(c, s.charAt(++i));
+          out[o++] = (byte) (0xf0 | (cp >> 18));
+          out[o++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+          out[o++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+          out[o++] = (byte) (0x80 | (cp & 0x3f));
+        }
+        // Unpaired high surrogate, skip.
+      } else if (Character.isLowSurrogate(c)) {
+        // Unpaired low surrogate, skip.
+      } else {
+        if (o + 3 > outLimit) break;
+        out[o++] = (byte) (0xe0 | (c >> 12));
+        out[o++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        out[o++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    position = o;
+    return i;
+  }
+}
@@ -0,0 +1,321 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Per-language probabilities of the most frequent (top-K) words, used by
+ * {@link LangIdV3} for very short texts (queries, titles) where n-gram
+ * statistics are unreliable.
+ *
+ * <p>
+ * Words are stored in a byte-level automaton (a trie over lowercased UTF8
+ * sequences, with sorted transitions). Each word has a sparse list of languages
+ * for which it is among the top words, together with its log-probability in
+ * that language. Languages for which the word is not listed score a
+ * per-language <i>floor</i> log-probability.
+ *
+ * <p>
+ * Attach a word model to a {@link Model} using
+ * {@link Model#withWordModel(WordModel)}. This is opt-in: the default model has 
+ * no word model attached.
+ */
+public final class WordModel {
+  /** Language classes. */
+  final String[] langClasses;
+
+  /** Log-probability of a word outside of the top-K words, for each language. */
+  final float[] floors;
+
+  /** Index of the first arc of each state (with a sentinel at the end). */
+  final int[] stateArcs;
+
+  /** Arc labels (sorted, unsigned, within each state). */
+  final byte[] arcLabels;
+
+  /** Arc target states. */
+  final int[] arcTargets;
+
+  /** The word index of a state (-1 if the state is not final). */
+  final int[] stateWords;
+
+  /** Index of the first score of each word (with a sentinel at the end). */
+  final int[] wordScores;
+
+  /** Language class of each score. */
+  final short[] scoreClasses;
+
+  /** Log-probability of each score. */
+  final float[] scoreLogProbs;
+
+  WordModel(String[] langClasses, float[] floors,
+            int[] stateArcs, byte[] arcLabels, int[] arcTargets, int[] stateWords,
+            int[] wordScores, short[] scoreClasses, float[] scoreLogProbs) {
+    this.langClasses = langClasses;
+    this.floors = floors;
+    this.stateArcs = stateArcs;
+    this.arcLabels = arcLabels;
+    this.arcTargets = arcTargets;
+    this.stateWords = stateWords;
+    this.wordScores = wordScores;
+    this.scoreClasses = scoreClasses;
+    this.scoreLogProbs = scoreLogProbs;
+
+    assert floors.length == langClasses.length;
+  }
+
+  /**
+   * Build a word model.
+   *
+   * @param logProbs Top words and their log-probabilities, for each language.
+   * @param floors Log-probability of any word outside of the top words, for each language
+   *   (typically lower than any log-probability in <code>logProbs</code>).
+   */
+  public static WordModel build(Map<String, Map<String, Float>> logProbs, Map<String, Float> floors) {
+    String [] langClasses = logProbs.keySet().toArray(new String [logProbs.size()]);
+    float [] floorValues = new float [langClasses.length];
+    for (int i = 0; i < langClasses.length; i++) {
+      Float floor = floors.get(langClasses[i]);
+      if (floor == null) {
+        throw new IllegalArgumentException("No floor log-probability for language: " + langClasses[i]);
+      }
+      floorValues[i] = floor;
+    }
+
+    // Collect words (normalized).
+    final Charset utf8 = Charset.forName("UTF-8");
+    TreeMap<String, Map<Integer, Float>> words = new TreeMap<String, Map<Integer, Float>>();
+    for (int i = 0; i < langClasses.length; i++) {
+      for (Map.Entry<String, Float> e : logProbs.get(langClasses[i]).entrySet()) {
+        String word = normalize(e.getKey());
+        if (word.isEmpty()) {
+          throw new IllegalArgumentException("Empty word.");
+        }
+        Map<Integer, Float> scores = words.get(word);
+        if (scores == null) {
+          words.put(word, scores = new TreeMap<Integer, Float>());
+        }
+        scores.put(i, e.getValue());
+      }
+    }
+
+    // Build the trie.
+    Node root = new Node();
+    int wordIndex = 0;
+    int numScores = 0;
+    for (Map.Entry<String, Map<Integer, Float>> e : words.entrySet()) {
+      Node node = root;
+      for (byte b : e.getKey().getBytes(utf8)) {
+        node = node.child(b);
+      }
+      node.word = wordIndex++;
+      numScores += e.getValue().size();
+    }
+
+    int [] wordScores = new int [words.size() + 1];
+    short [] scoreClasses = new short [numScores];
+    float [] scoreLogProbs = new float [numScores];
+    int w = 0, s = 0;
+    for (Map<Integer, Float> scores : words.values()) {
+      wordScores[w++] = s;
+      for (Map.Entry<Integer, Float> e : scores.entrySet()) {
+        scoreClasses[s] = (short) e.getKey().intValue();
+        scoreLogProbs[s] = e.getValue();
+        s++;
+      }
+    }
+    wordScores[w] = s;
+
+    // Flatten the trie breadth-first so that each state's arcs are contiguous.
+    List<Node> states = new ArrayList<Node>();
+    states.add(root);
+    int numArcs = 0;
+    for (int i = 0; i < states.size(); i++) {
+      Node node = states.get(i);
+      Collections.sort(node.children, new Comparator<Node>() {
+        @Override
+        public int compare(Node a, Node b) {
+          return (a.label & 0xff) - (b.label & 0xff);
+        }
+      });
+      for (Node child : node.children) {
+        child.state = states.size();
+        states.add(child);
+        numArcs++;
+      }
+    }
+
+    int [] stateArcs = new int [states.size() + 1];
+    int [] stateWords = new int [states.size()];
+    byte [] arcLabels = new byte [numArcs];
+    int [] arcTargets = new int [numArcs];
+    int arc = 0;
+    for (int i = 0; i < states.size(); i++) {
+      Node node = states.get(i);
+      stateArcs[i] = arc;
+      stateWords[i] = node.word;
+      for (Node child : node.children) {
+        arcLabels[arc] = child.label;
+        arcTargets[arc] = child.state;
+        arc++;
+      }
+    }
+    stateArcs[states.size()] = arc;
+
+    return new WordModel(langClasses, floorValues,
+        stateArcs, arcLabels, arcTargets, stateWords,
+        wordScores, scoreClasses, scoreLogProbs);
+  }
+
+  /**
+   * Return a set of languages in this model.
+   */
+  public Set<String> getLanguages() {
+    return Collections.unmodifiableSet(new LinkedHashSet<String>(Arrays.asList(langClasses)));
+  }
+
+  /**
+   * Look up a word in the automaton. Characters are lowercased on the fly (see
+   * {@link #normalize(String)}).
+   *
+   * @return Returns the word index or -1 if not found.
+   */
+  int lookup(CharSequence s, int from, int to) {
+    int state = 0;
+    for (int i = from; i < to && state >= 0; i++) {
+      int cp = s.charAt(i);
+      if (Character.isHighSurrogate((char) cp) && i + 1 < to && Character.isLowSurrogate(s.charAt(i + 1))) {
+        cp = Character.toCodePoint((char) cp, s.charAt(++i));
+      }
+      cp = Character.toLowerCase(cp);
+
+      if (cp < 0x80) {
+        state = next(state, cp);
+      } else if (cp < 0x800) {
+        state = next(state, 0xc0 | (cp >> 6));
+        state = next(state, 0x80 | (cp & 0x3f));
+      } else if (cp < 0x10000) {
+        state = next(state, 0xe0 | (cp >> 12));
+        state = next(state, 0x80 | ((cp >> 6) & 0x3f));
+        state = next(state, 0x80 | (cp & 0x3f));
+      } else {
+        state = next(state, 0xf0 | (cp >> 18));
+        state = next(state, 0x80 | ((cp >> 12) & 0x3f));
+        state = next(state, 0x80 | ((cp >> 6) & 0x3f));
+        state = next(state, 0x80 | (cp & 0x3f));
+      }
+    }
+    return state >= 0 ? stateWords[state] : -1;
+  }
+
+  /**
+   * Follow an arc labeled with <code>label</code> (unsigned) from the given state.
+   *
+   * @return Returns the target state or -1 if there is no such arc (or the state is -1).
+   */
+  private int next(int state, int label) {
+    if (state < 0) {
+      return -1;
+    }
+
+    int lo = stateArcs[state];
+    int hi = stateArcs[state + 1] - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int midLabel = arcLabels[mid] & 0xff;
+      if (midLabel < label) {
+        lo = mid + 1;
+      } else if (midLabel > label) {
+        hi = mid - 1;
+      } else {
+        return arcTargets[mid];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Is the code point a part of a word?
+   */
+  static boolean isWordCodePoint(int codePoint) {
+    return Character.isLetter(codePoint);
+  }
+
+  /**
+   * Normalize a word the same way as {@link #lookup} does (lowercase
+   * each code point).
+   */
+  static String normalize(String word) {
+    StringBuilder b = new StringBuilder(word.length());
+    for (int i = 0; i < word.length();) {
+      int cp = word.codePointAt(i);
+      b.appendCodePoint(Character.toLowerCase(cp));
+      i += Character.charCount(cp);
+    }
+    return b.toString();
+  }
+
+  /**
+   * Read a word model from an external data stream.
+   */
+  public static WordModel readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+    return new WordModel(
+        (String[]) in.readObject(),
+        (float[]) in.readObject(),
+        (int[]) in.readObject(),
+        (byte[]) in.readObject(),
+        (int[]) in.readObject(),
+        (int[]) in.readObject(),
+        (int[]) in.readObject(),
+        (short[]) in.readObject(),
+        (float[]) in.readObject());
+  }
+
+  /**
+   * Write this word model to an external data stream.
+   */
+  public void writeExternal(ObjectOutput out) throws IOException {
+    out.writeObject(langClasses);
+    out.writeObject(floors);
+    out.writeObject(stateArcs);
+    out.writeObject(arcLabels);
+    out.writeObject(arcTargets);
+    out.writeObject(stateWords);
+    out.writeObject(wordScores);
+    out.writeObject(scoreClasses);
+    out.writeObject(scoreLogProbs);
+  }
+
+  /**
+   * Trie node used during construction.
+   */
+  private static final class Node {
+    byte label;
+    int word = -1;
+    int state;
+    final List<Node> children = new ArrayList<Node>(2);
+
+    Node child(byte b) {
+      for (Node child : children) {
+        if (child.label == b) {
+          return child;
+        }
+      }
+      Node child = new Node();
+      child.label = b;
+      children.add(child);
+      return child;
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+/**
+ * The default model compressed as a single LZMA stream (the format used before
+ * {@link ModelSections}). Kept in test scope as a reference for tests and 
+ * load-time comparisons only (see the benchmarks).
+ */
+public final class LzmaModel {
+  private LzmaModel() {}
+
+  /**
+   * Load (decompress and deserialize) the default model from a single LZMA
+   * stream (sequentially). The model listener is not notified.
+   */
+  public static Model load() {
+    DataInputStream is = null;
+    try {
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      is = new DataInputStream(
+              new BufferedInputStream(
+                  LzmaModel.class.getResourceAsStream("langid.lzma")));
+
+      byte[] streamProperties = new byte[5];
+      is.readFully(streamProperties);
+
+      LzmaDecoder decoder = new LzmaDecoder();
+      if (!decoder.SetDecoderProperties(streamProperties))
+        throw new IOException("Incorrect stream properties.");
+
+      byte [] streamSize = new byte [8];
+      is.readFully(streamSize);
+
+      long streamSizeLong = 0;
+      for (int i = 8; --i >= 0;) {
+        streamSizeLong <<= 8;
+        streamSizeLong |= streamSize[i] & 0xFF;
+      }
+
+      if (!decoder.Code(is, os, streamSizeLong)) {
+        throw new IOException("Error in data stream");
+      }
+
+      os.flush();
+      return Model.readExternal(
+          new ObjectInputStream(
+              new ByteArrayInputStream(
+                  os.toByteArray())));
+    } catch (Exception e) {
+      throw new RuntimeException("Default model not available.", e);
+    } finally {
+      if (is != null) {
+        try {
+          is.close();
+        } catch (IOException e) {
+          // Ignore, nothing to do.
+        }
+      }
+    }
+  }
+}
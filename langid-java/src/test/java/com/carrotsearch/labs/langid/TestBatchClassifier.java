@@ -0,0 +1,113 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.google.common.base.Charsets;
+
+public class TestBatchClassifier extends RandomizedTest {
+  private final static String [] SENTENCES = {
+    "The quick brown fox jumps over the lazy dog and runs away into the forest.",
+    "Le gouvernement a présenté hier un nouveau projet de loi sur l'éducation.",
+    "Der schnelle braune Fuchs springt über den faulen Hund und läuft davon.",
+    "Szybki brązowy lis przeskakuje nad leniwym psem i ucieka do lasu.",
+    "El rápido zorro marrón salta sobre el perro perezoso y huye al bosque.",
+  };
+
+  @Test
+  public void testLinesInOrder() throws Exception {
+    StringBuilder input = new StringBuilder();
+    StringBuilder expected = new StringBuilder();
+    LangIdV3 langid = new LangIdV3();
+    int lines = randomIntBetween(1, 500);
+    for (int i = 0; i < lines; i++) {
+      String sentence = randomFrom(SENTENCES);
+      input.append(sentence).append(rarely() ? "\r\n" : "\n");
+      expected.append(expected(langid, sentence));
+    }
+
+    BatchClassifier classifier = new BatchClassifier()
+      .setThreads(randomIntBetween(1, 4))
+      .setBlockSize(randomIntBetween(1, 1000));
+    assertEquals(expected.toString(), run(classifier, input.toString(), lines));
+  }
+
+  @Test
+  public void testTopK() throws Exception {
+    LangIdV3 langid = new LangIdV3();
+    String sentence = randomFrom(SENTENCES);
+    BatchClassifier classifier = new BatchClassifier().setThreads(1).setTopK(3);
+    String [] result = run(classifier, sentence, 1).trim().split("\t");
+    assertEquals(6, result.length);
+    assertEquals(expected(langid, sentence).trim(), result[0] + "\t" + result[1]);
+    assertTrue(Float.parseFloat(result[1]) >= Float.parseFloat(result[3]));
+    assertTrue(Float.parseFloat(result[3]) >= Float.parseFloat(result[5]));
+  }
+
+  @Test
+  public void testTsv() throws Exception {
+    LangIdV3 langid = new LangIdV3();
+    String input = "1\t" + SENTENCES[0] + "\n" + "2\t" + SENTENCES[1] + "\tx\n" + "3\n";
+
+    // The last column.
+    assertEquals(
+        expected(langid, SENTENCES[0]) + expected(langid, "x") + expected(langid, "3"),
+        run(new BatchClassifier().setFormat(BatchClassifier.Format.TSV), input, 3));
+
+    // The second column.
+    assertEquals(
+        expected(langid, SENTENCES[0]) + expected(langid, SENTENCES[1]) + "\t0\n",
+        run(new BatchClassifier().setFormat(BatchClassifier.Format.TSV).setColumn(2), input, 3));
+  }
+
+  @Test
+  public void testJsonl() throws Exception {
+    LangIdV3 langid = new LangIdV3();
+    String input =
+        "{\"id\": 1, \"meta\": {\"text\": \"ignored\"}, \"text\": \"" + SENTENCES[3] + "\"}\n" +
+        "{\"text\" : \"" + SENTENCES[0].replace("fox", "\\\"fox\\\"").replace(" ", "\\u0020") + "\"}\n" +
+        "{\"title\": \"no text\"}\n" +
+        "{\"text\": \"\\ud83d\\ude00 " + SENTENCES[2] + "\\n\"}\n";
+
+    String expected =
+        expected(langid, SENTENCES[3]) +
+        expected(langid, SENTENCES[0].replace("fox", "\"fox\"")) +
+        "\t0\n" +
+        expected(langid, "\ud83d\ude00 " + SENTENCES[2] + "\n");
+    assertEquals(expected, run(new BatchClassifier().setFormat(BatchClassifier.Format.JSONL), input, 4));
+  }
+
+  @Test
+  public void testJsonField() {
+    byte [] value = new byte [100];
+    byte [] json = "{\"a\": [\"text\", {\"text\": 1}], \"text\": \"\\u00e9t\\u00E9\"}".getBytes(Charsets.UTF_8);
+    int length = BatchClassifier.Json.field(json, 0, json.length, "text".getBytes(Charsets.UTF_8), value);
+    assertEquals("été", new String(value, 0, length, Charsets.UTF_8));
+
+    json = "{\"text\": 42}".getBytes(Charsets.UTF_8);
+    assertEquals(-1, BatchClassifier.Json.field(json, 0, json.length, "text".getBytes(Charsets.UTF_8), value));
+
+    json = "{\"text\": \"unterminated".getBytes(Charsets.UTF_8);
+    assertEquals(-1, BatchClassifier.Json.field(json, 0, json.length, "text".getBytes(Charsets.UTF_8), value));
+  }
+
+  private static String run(BatchClassifier classifier, String input, long expectedLines) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    long lines = classifier.run(
+        Channels.newChannel(new ByteArrayInputStream(input.getBytes(Charsets.UTF_8))),
+        Channels.newChannel(out));
+    assertEquals(expectedLines, lines);
+    return new String(out.toByteArray(), Charsets.UTF_8);
+  }
+
+  private static String expected(LangIdV3 langid, String text) {
+    DetectedLanguage result = langid.classify(text, true);
+    int v = Math.round(result.confidence * 10000);
+    return result.langCode + "\t" + String.format(Locale.ROOT, "%d.%04d", v / 10000, v % 10000) + "\n";
+  }
+}
@@ -0,0 +1,229 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.junit.Test;
+
+import com.carrotsearch.labs.langid.Decompressor.Format;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.google.common.base.Charsets;
+
+public class TestDecompressor extends RandomizedTest {
+  @Test
+  public void testFormats() throws Exception {
+    Decompressor decompressor = new Decompressor();
+    try {
+      for (int i = 0; i < 10; i++) {
+        byte [] data = text(randomIntBetween(0, 100000)).getBytes(Charsets.UTF_8);
+        Format format = randomFrom(new Format [] {Format.GZIP, Format.ZLIB, Format.DEFLATE, Format.NONE});
+        byte [] compressed = compress(data, format);
+
+        Format open = format;
+        if (format != Format.DEFLATE && randomBoolean()) {
+          open = Format.AUTO;
+        }
+        assertArrayEquals(data, readAll(decompressor.open(new ByteArrayInputStream(compressed), open)));
+      }
+    } finally {
+      decompressor.close();
+    }
+  }
+
+  @Test
+  public void testGzipOptionalHeaders() throws Exception {
+    byte [] data = text(1000).getBytes(Charsets.UTF_8);
+    byte [] deflated = compress(data, Format.DEFLATE);
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    // ID1, ID2, CM, FLG (FHCRC | FEXTRA | FNAME | FCOMMENT), MTIME, XFL, OS
+    baos.write(new byte [] {0x1f, (byte) 0x8b, 8, 0x1e, 0, 0, 0, 0, 0, 3});
+    baos.write(new byte [] {3, 0, 'a', 'b', 'c'});
+    baos.write("name.txt\0".getBytes(Charsets.US_ASCII));
+    baos.write("comment\0".getBytes(Charsets.US_ASCII));
+    baos.write(new byte [] {0x12, 0x34});
+    baos.write(deflated);
+    // Trailer (not verified).
+    baos.write(new byte [8]);
+
+    Decompressor decompressor = new Decompressor();
+    try {
+      InputStream is = decompressor.open(new ByteArrayInputStream(baos.toByteArray()), Format.AUTO);
+      assertArrayEquals(data, readAll(is));
+    } finally {
+      decompressor.close();
+    }
+  }
+
+  @Test
+  public void testInvalidHeaders() throws Exception {
+    Decompressor decompressor = new Decompressor();
+    try {
+      byte [] plain = "not compressed".getBytes(Charsets.UTF_8);
+      for (Format format : new Format [] {Format.GZIP, Format.ZLIB}) {
+        try {
+          decompressor.open(new ByteArrayInputStream(plain), format);
+          fail();
+        } catch (ZipException e) {
+          // Expected.
+        }
+      }
+      assertArrayEquals(plain, readAll(decompressor.open(new ByteArrayInputStream(plain), Format.AUTO)));
+
+      // Plain text starting with a valid zlib header.
+      for (String prefix : new String [] {"XGBoost is a gradient boosting library.", "hCaptcha protects sites."}) {
+        for (String text : new String [] {prefix, prefix + " " + text(randomIntBetween(0, 20000))}) {
+          byte [] bytes = text.getBytes(Charsets.UTF_8);
+          assertArrayEquals(bytes, readAll(decompressor.open(stream(bytes), Format.AUTO)));
+        }
+      }
+    } finally {
+      decompressor.close();
+    }
+  }
+
+  @Test
+  public void testStreamClassification() throws Exception {
+    LangIdV3 langid = new LangIdV3();
+    byte [] data = text(randomIntBetween(1, 50000)).getBytes(Charsets.UTF_8);
+    langid.reset();
+    langid.append(data, 0, data.length);
+    DetectedLanguage expected = langid.classify(true);
+
+    DetectedLanguage actual = new DetectedLanguage(null, 0);
+    langid.classify(stream(data), Long.MAX_VALUE, 2f, true, actual);
+    assertEquals(expected, actual);
+
+    langid.classify(Channels.newChannel(stream(data)), Long.MAX_VALUE, 2f, true, actual);
+    assertEquals(expected, actual);
+
+    // Byte budget.
+    int budget = randomIntBetween(1, data.length);
+    CountingInputStream counting = new CountingInputStream(stream(data));
+    langid.reset();
+    langid.append(data, 0, budget);
+    expected = langid.classify(true);
+    langid.classify(counting, budget, 2f, true, actual);
+    assertEquals(expected, actual);
+    assertEquals(budget, counting.count);
+  }
+
+  @Test
+  public void testEarlyStop() throws Exception {
+    byte [] data = text(1 << 21).getBytes(Charsets.UTF_8);
+    byte [] compressed = compress(data, Format.GZIP);
+
+    Decompressor decompressor = new Decompressor();
+    try {
+      LangIdV3 langid = new LangIdV3();
+      DetectedLanguage result = new DetectedLanguage(null, 0);
+
+      CountingInputStream counting = new CountingInputStream(new ByteArrayInputStream(compressed));
+      langid.classify(decompressor.open(counting, Format.AUTO), Long.MAX_VALUE, 0.9f, true, result);
+      assertEquals("en", result.langCode);
+      assertTrue(result.confidence >= 0.9f);
+      assertTrue(counting.count + " of " + compressed.length, counting.count < compressed.length / 4);
+
+      // Without early stopping everything is read.
+      counting = new CountingInputStream(new ByteArrayInputStream(compressed));
+      langid.classify(decompressor.open(counting, Format.AUTO), Long.MAX_VALUE, 2f, true, result);
+      assertEquals("en", result.langCode);
+      assertEquals(compressed.length, counting.count);
+    } finally {
+      decompressor.close();
+    }
+  }
+
+  /**
+   * Some English text (that doesn't compress too well).
+   */
+  private String text(int minLength) {
+    final String [] words = {
+      "the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "and", "runs",
+      "away", "into", "forest", "where", "nobody", "could", "find", "him", "again", "today"
+    };
+    StringBuilder b = new StringBuilder();
+    while (b.length() < minLength) {
+      b.append(randomFrom(words)).append(' ');
+      if (rarely()) {
+        b.append(randomIntBetween(0, 1000)).append(". ");
+      }
+    }
+    return b.toString();
+  }
+
+  private InputStream stream(byte [] data) {
+    // Short reads.
+    return new FilterInputStream(new ByteArrayInputStream(data)) {
+      @Override
+      public int read(byte [] b, int off, int len) throws IOException {
+        return super.read(b, off, Math.min(len, randomIntBetween(1, 5000)));
+      }
+    };
+  }
+
+  private byte [] readAll(InputStream is) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    byte [] buffer = new byte [randomIntBetween(1, 10000)];
+    int read;
+    while ((read = is.read(buffer, 0, randomIntBetween(1, buffer.length))) >= 0) {
+      baos.write(buffer, 0, read);
+    }
+    return baos.toByteArray();
+  }
+
+  private static byte [] compress(byte [] data, Format format) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    final OutputStream os;
+    switch (format) {
+      case GZIP:
+        os = new GZIPOutputStream(baos);
+        break;
+      case ZLIB:
+        os = new DeflaterOutputStream(baos);
+        break;
+      case DEFLATE:
+        os = new DeflaterOutputStream(baos, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        break;
+      case NONE:
+        os = baos;
+        break;
+      default:
+        throw new RuntimeException();
+    }
+    os.write(data);
+    os.close();
+    return baos.toByteArray();
+  }
+
+  private static class CountingInputStream extends FilterInputStream {
+    long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) count++;
+      return b;
+    }
+
+    @Override
+    public int read(byte [] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) count += read;
+      return read;
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.google.common.base.Charsets;
+
+public class TestFileTreeClassifier extends RandomizedTest {
+  private final static String [][] SENTENCES = {
+    {"en", "The quick brown fox jumps over the lazy dog and runs away into the forest. "},
+    {"fr", "Le gouvernement a présenté hier un nouveau projet de loi sur l'éducation. "},
+    {"de", "Der schnelle braune Fuchs springt über den faulen Hund und läuft davon. "},
+    {"pl", "Szybki brązowy lis przeskakuje nad leniwym psem i ucieka do lasu. "},
+  };
+
+  @Test
+  public void testTree() throws Exception {
+    Path root = newTempDir().toPath();
+    Map<Path, byte[]> expected = new HashMap<Path, byte[]>();
+    Map<Path, String> languages = new HashMap<Path, String>();
+    for (int i = randomIntBetween(1, 50); --i >= 0;) {
+      Path dir = root;
+      for (int d = randomIntBetween(0, 3); --d >= 0;) {
+        dir = dir.resolve("d" + randomIntBetween(0, 2));
+      }
+      Files.createDirectories(dir);
+
+      String [] sentence = randomFrom(SENTENCES);
+      StringBuilder b = new StringBuilder();
+      for (int r = rarely() ? 0 : randomIntBetween(1, rarely() ? 2000 : 20); --r >= 0;) {
+        b.append(sentence[1]);
+      }
+      Path file = dir.resolve("f" + i + ".txt");
+      byte [] bytes = b.toString().getBytes(Charsets.UTF_8);
+      Files.write(file, bytes);
+      expected.put(file, bytes);
+      languages.put(file, bytes.length == 0 ? null : sentence[0]);
+    }
+
+    final int maxBytes = randomIntBetween(300, 100000);
+    final boolean sampled = randomBoolean();
+    FileTreeClassifier classifier = new FileTreeClassifier()
+      .setThreads(randomIntBetween(1, 3))
+      .setIoThreads(randomIntBetween(1, 3))
+      .setMaxBytes(maxBytes)
+      .setSampled(sampled)
+      .setMapThreshold(randomFrom(Arrays.asList(0, 1000, 1 << 20)));
+
+    final Map<Path, DetectedLanguage> results = new HashMap<Path, DetectedLanguage>();
+    long files = classifier.run(root, new FileTreeClassifier.ISink() {
+      @Override
+      public void classified(Path file, long size, String langCode, float confidence) {
+        assertNull(results.put(file, new DetectedLanguage(langCode, confidence)));
+      }
+
+      @Override
+      public void failed(Path file, IOException e) {
+        throw new AssertionError(file + ": " + e);
+      }
+    });
+
+    assertEquals(expected.size(), files);
+    assertEquals(expected.keySet(), results.keySet());
+    LangIdV3 langid = new LangIdV3();
+    for (Map.Entry<Path, byte[]> e : expected.entrySet()) {
+      DetectedLanguage result = results.get(e.getKey());
+      byte [] bytes = e.getValue();
+      assertEquals(languages.get(e.getKey()), result.langCode);
+      if (bytes.length > 0 && (!sampled || bytes.length <= maxBytes)) {
+        // The prefix, without a trailing incomplete code point.
+        int length = Math.min(bytes.length, maxBytes);
+        String prefix = new String(bytes, 0, length, Charsets.UTF_8);
+        if (prefix.endsWith("\ufffd")) {
+          prefix = prefix.substring(0, prefix.length() - 1);
+        }
+        assertEquals(langid.classify(prefix, true), result);
+      }
+    }
+  }
+
+  @Test
+  public void testSingleFile() throws Exception {
+    File file = new File(newTempDir(), "file.txt");
+    Files.write(file.toPath(), SENTENCES[3][1].getBytes(Charsets.UTF_8));
+    final String [] lang = new String [1];
+    new FileTreeClassifier().setThreads(1).setIoThreads(1).run(file.toPath(), new FileTreeClassifier.ISink() {
+      @Override
+      public void classified(Path file, long size, String langCode, float confidence) {
+        lang[0] = langCode;
+      }
+
+      @Override
+      public void failed(Path file, IOException e) {
+        throw new AssertionError(file + ": " + e);
+      }
+    });
+    assertEquals("pl", lang[0]);
+  }
+}
@@ -0,0 +1,96 @@
+package com.carrotsearch.labs.langid;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.google.common.base.Charsets;
+
+public class TestLangIdCache extends RandomizedTest {
+  @Test
+  public void testSameResults() {
+    LangIdV3 langid = new LangIdV3();
+    LangIdCache cache = new LangIdCache(Model.defaultModel(), 64, 100);
+
+    for (int i = 0; i < 1000; i++) {
+      String in = randomRealisticUnicodeOfCodepointLengthBetween(1, 50);
+      boolean normalizeConfidence = randomBoolean();
+      DetectedLanguage expected = langid.classify(in, normalizeConfidence);
+      assertEquals(expected, cache.classify(in, normalizeConfidence));
+      assertEquals(expected, cache.classify(in, normalizeConfidence));
+
+      byte [] bytes = in.getBytes(Charsets.UTF_8);
+      assertEquals(expected, cache.classify(bytes, 0, bytes.length, normalizeConfidence));
+      assertEquals(expected, cache.classify(bytes, 0, bytes.length, normalizeConfidence));
+    }
+
+    assertTrue(cache.size() <= 64);
+    assertTrue(cache.getEvictions() > 0);
+    assertTrue(cache.getHits() > 0);
+  }
+
+  @Test
+  public void testStatistics() {
+    LangIdCache cache = new LangIdCache(Model.defaultModel(), 1000, 10);
+    cache.classify("foo", true);
+    cache.classify("foo", true);
+    cache.classify("foo", false);
+    cache.classify("too long to be cached", false);
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+    assertEquals(2, cache.size());
+    assertEquals(1 / 3.0, cache.getHitRate(), 0.0001);
+
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testConcurrentUse() throws Exception {
+    final LangIdV3 langid = new LangIdV3();
+    final List<String> inputs = new ArrayList<String>();
+    final List<DetectedLanguage> expected = new ArrayList<DetectedLanguage>();
+    for (int i = 0; i < 200; i++) {
+      String in = randomRealisticUnicodeOfCodepointLengthBetween(1, 50);
+      inputs.add(in);
+      expected.add(langid.classify(in, true));
+    }
+
+    final LangIdCache cache = new LangIdCache(Model.defaultModel(), 128, 200);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final long seed = randomLong();
+    Thread [] threads = new Thread [4];
+    for (int t = 0; t < threads.length; t++) {
+      final int threadIndex = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            java.util.Random rnd = new java.util.Random(seed + threadIndex);
+            for (int i = 0; i < 5000; i++) {
+              int index = rnd.nextInt(inputs.size());
+              DetectedLanguage result = cache.classify(inputs.get(index), true);
+              if (!expected.get(index).equals(result)) {
+                throw new AssertionError(expected.get(index) + " != " + result);
+              }
+            }
+          } catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    if (error.get() != null) {
+      throw new AssertionError(error.get());
+    }
+    assertEquals(threads.length * 5000, cache.getHits() + cache.getMisses());
+  }
+}
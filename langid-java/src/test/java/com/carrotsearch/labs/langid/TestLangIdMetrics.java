@@ -0,0 +1,95 @@
+package com.carrotsearch.labs.langid;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
+
+public class TestLangIdMetrics extends RandomizedTest {
+  @Test
+  public void testCounters() {
+    LangIdMetrics metrics = new LangIdMetrics();
+    LangIdV3 langid = new LangIdV3();
+    langid.setListener(metrics);
+
+    String en = "Mike McCandless rocks the boat.";
+    String pl = "W Szczebrzeszynie chrząszcz brzmi w trzcinie";
+    int enBytes = en.getBytes(Charsets.UTF_8).length;
+    int plBytes = pl.getBytes(Charsets.UTF_8).length;
+
+    langid.classify(en, true);
+    langid.classify(pl, false);
+    langid.reset();
+    langid.append(ByteBuffer.wrap(pl.getBytes(Charsets.UTF_8)));
+    langid.rank(true);
+
+    assertEquals(3, metrics.getDocuments());
+    assertEquals(3, metrics.getAppends());
+    assertEquals(enBytes + 2 * plBytes, metrics.getBytes());
+    assertTrue(metrics.getDsaOutputs() > 0);
+    assertEquals(1L, (long) metrics.getLanguageWins().get("en"));
+    assertEquals(2L, (long) metrics.getLanguageWins().get("pl"));
+    assertTrue(metrics.getClassifyP99Nanos() >= metrics.getClassifyP50Nanos());
+    assertTrue(metrics.getClassifyMeanNanos() > 0);
+
+    long histogramTotal = 0;
+    for (long count : metrics.getClassifyHistogram()) {
+      histogramTotal += count;
+    }
+    assertEquals(3, histogramTotal);
+
+    // Empty input: equal probabilities, low confidence.
+    langid.classify("", true);
+    assertEquals(1, metrics.getLowConfidenceResults());
+
+    // No listener, no updates.
+    langid.setListener(null);
+    langid.classify(en, true);
+    assertEquals(4, metrics.getDocuments());
+
+    metrics.reset();
+    assertEquals(0, metrics.getDocuments());
+    assertTrue(metrics.getLanguageWins().isEmpty());
+  }
+
+  @Test
+  public void testModelEvents() {
+    LangIdMetrics metrics = new LangIdMetrics();
+    Model.setListener(metrics);
+    try {
+      Model.loadDefaultModel();
+      Model.detectOnly(Sets.newHashSet("en", "de"));
+      assertEquals(1, metrics.getModelLoads());
+      assertTrue(metrics.getModelLoadNanos() > 0);
+      assertEquals(1, metrics.getModelTrims());
+    } finally {
+      Model.setListener(null);
+    }
+  }
+
+  @Test
+  public void testJmx() throws Exception {
+    LangIdMetrics metrics = new LangIdMetrics();
+    LangIdV3 langid = new LangIdV3();
+    langid.setListener(metrics);
+    langid.classify("Mike McCandless rocks the boat.", true);
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = metrics.register("test");
+    try {
+      assertEquals(1L, server.getAttribute(name, "Documents"));
+      assertNotNull(server.getAttribute(name, "LanguageWins"));
+      server.invoke(name, "reset", null, null);
+      assertEquals(0L, server.getAttribute(name, "Documents"));
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+}
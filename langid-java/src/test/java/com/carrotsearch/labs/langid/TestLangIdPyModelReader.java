@@ -0,0 +1,134 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
+
+public class TestLangIdPyModelReader extends RandomizedTest {
+  @Test
+  public void testRoundTrip() throws IOException {
+    Model model = Model.detectOnly(Sets.newHashSet("en", "de", "pl"));
+    String text = toLangIdPy(model);
+
+    Model copy = LangIdPyModelReader.read(new ByteArrayInputStream(text.getBytes(Charsets.UTF_8)));
+    assertEquals(Arrays.asList(model.langClasses), Arrays.asList(copy.langClasses));
+    assertTrue(Arrays.equals(model.nb_pc, copy.nb_pc));
+    assertTrue(Arrays.equals(model.nb_ptc, copy.nb_ptc));
+    assertTrue(Arrays.equals(model.dsa, copy.dsa));
+    assertEquals(model.dsaOutput.length, copy.dsaOutput.length);
+    for (int i = 0; i < model.dsaOutput.length; i++) {
+      assertTrue(Arrays.equals(model.dsaOutput[i], copy.dsaOutput[i]));
+    }
+
+    String in = "W Szczebrzeszynie chrząszcz brzmi w trzcinie";
+    assertEquals(new LangIdV3(model).classify(in, true), new LangIdV3(copy).classify(in, true));
+  }
+
+  @Test
+  public void testNumbers() throws IOException {
+    StringBuilder b = new StringBuilder("nb_classes=a b\nnb_pc=");
+    float [] expected = new float [2];
+    for (int i = 0; i < expected.length; i++) {
+      double v = randomBoolean() 
+          ? randomDouble() * randomIntBetween(-1000, 1000) 
+          : -Math.exp(-randomIntBetween(0, 80) * randomDouble());
+      if (rarely()) {
+        v *= Math.pow(10, randomIntBetween(-30, 30));
+      }
+      String s = randomFrom(new String [] {
+          Double.toString(v), Float.toString((float) v), String.format(Locale.ROOT, "%.12e", v), 
+          String.format(Locale.ROOT, "%.6f", v), String.format(Locale.ROOT, "%.25e", v),
+          String.format(Locale.ROOT, "%.30f", v)});
+      expected[i] = (float) Double.parseDouble(s);
+      b.append(s).append(", ");
+    }
+    b.append("\nnb_ptc=1, 2\ntk_nextmove=");
+    for (int i = 0; i < 256; i++) {
+      b.append("0 ");
+    }
+    b.append("\ntk_output=0:(0,)\n");
+
+    Model model = LangIdPyModelReader.read(new ByteArrayInputStream(b.toString().getBytes(Charsets.UTF_8)));
+    assertTrue(Arrays.toString(expected) + " " + Arrays.toString(model.nb_pc), Arrays.equals(expected, model.nb_pc));
+  }
+
+  @Test
+  public void testValidation() {
+    String states = "tk_nextmove=" + repeat("0,", 256) + "\n";
+    for (String malformed : new String [] {
+        // Missing keys.
+        "nb_classes=a b\nnb_pc=1 2\nnb_ptc=1 2\n" + states,
+        // Size mismatches.
+        "nb_classes=a b\nnb_pc=1 2 3\nnb_ptc=1 2\n" + states + "tk_output=0:(0)\n",
+        "nb_classes=a b\nnb_pc=1 2\nnb_ptc=1 2 3\n" + states + "tk_output=0:(0)\n",
+        "nb_classes=a b\nnb_pc=1 2\nnb_ptc=1 2\ntk_nextmove=0 0\ntk_output=0:(0)\n",
+        // Out of range states and features.
+        "nb_classes=a b\nnb_pc=1 2\nnb_ptc=1 2\n" + states + "tk_output=0:(1)\n",
+        "nb_classes=a b\nnb_pc=1 2\nnb_ptc=1 2\n" + states + "tk_output=1:(0)\n",
+        "nb_classes=a b\nnb_pc=1 2\nnb_ptc=1 2\n" + states.replaceFirst("0", "1") + "tk_output=0:(0)\n",
+        // Malformed numbers.
+        "nb_classes=a b\nnb_pc=1 x\nnb_ptc=1 2\n" + states + "tk_output=0:(0)\n",
+        "nb_classes=a b\nnb_pc=1 2\nnb_ptc=1 2\n" + states + "tk_output=0(0)\n",
+    }) {
+      try {
+        LangIdPyModelReader.read(new ByteArrayInputStream(malformed.getBytes(Charsets.UTF_8)));
+        fail(malformed);
+      } catch (IOException e) {
+        // Expected.
+      }
+    }
+  }
+
+  /**
+   * Write a model in langid.py's text format (<code>nb_ptc</code> as a [feature][class] matrix).
+   */
+  private static String toLangIdPy(Model model) {
+    StringBuilder b = new StringBuilder();
+    b.append("# A comment line.\n");
+    b.append("nb_classes=");
+    for (String langCode : model.langClasses) {
+      b.append(langCode).append(", ");
+    }
+    b.append("\nnb_pc=");
+    for (float v : model.nb_pc) {
+      b.append(v).append(", ");
+    }
+    b.append("\nnb_ptc=");
+    for (int f = 0; f < model.numFeatures; f++) {
+      for (int c = 0; c < model.numClasses; c++) {
+        b.append(model.nb_ptc[c * model.numFeatures + f]).append(' ');
+      }
+    }
+    b.append("\ntk_nextmove=");
+    for (short s : model.dsa) {
+      b.append(s).append(',');
+    }
+    b.append("\ntk_output=");
+    for (int s = 0; s < model.dsaOutput.length; s++) {
+      if (model.dsaOutput[s] != null) {
+        b.append(s).append(":(");
+        for (int f : model.dsaOutput[s]) {
+          b.append(f).append(", ");
+        }
+        b.append(");");
+      }
+    }
+    b.append("\n");
+    return b.toString();
+  }
+
+  private static String repeat(String s, int times) {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      b.append(s);
+    }
+    return b.toString();
+  }
+}
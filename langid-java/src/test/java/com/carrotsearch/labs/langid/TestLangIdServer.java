@@ -0,0 +1,259 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.ThreadFilter;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakFilters;
+import com.google.common.base.Charsets;
+
+@ThreadLeakFilters(defaultFilters = true, filters = {
+    TestLangIdServer.HttpThreadsFilter.class
+})
+public class TestLangIdServer extends RandomizedTest {
+  /** JDK's HTTP client and server keep timer threads around. */
+  public static class HttpThreadsFilter implements ThreadFilter {
+    @Override
+    public boolean reject(Thread t) {
+      return t.getName().equals("Keep-Alive-Timer") || t.getName().equals("server-timer");
+    }
+  }
+
+  private final static String [] SENTENCES = {
+    "The quick brown fox jumps over the lazy dog and runs away into the forest.",
+    "Le gouvernement a présenté hier un nouveau projet de loi sur l'éducation.",
+    "Der schnelle braune Fuchs springt über den faulen Hund und läuft davon.",
+    "Szybki brązowy lis przeskakuje nad leniwym psem i ucieka do lasu.",
+  };
+
+  private LangIdServer server;
+
+  @Before
+  public void startServer() throws Exception {
+    server = new LangIdServer(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0))
+      .setWorkers(randomIntBetween(1, 3))
+      .setMaxBatch(randomIntBetween(1, 16))
+      .setMaxBatchDelay(randomIntBetween(0, 500), TimeUnit.MICROSECONDS)
+      .setMaxBodyBytes(1000);
+    server.start();
+
+    // Wait for the model.
+    for (int i = 0; i < 600 && request("GET", "/ready", null).code != 200; i++) {
+      Thread.sleep(100);
+    }
+  }
+
+  @After
+  public void stopServer() throws Exception {
+    server.stop();
+  }
+
+  @Test
+  public void testEndpoints() throws Exception {
+    assertEquals(new Response(200, "ok\n"), request("GET", "/health", null));
+    assertEquals(new Response(200, "ready\n"), request("GET", "/ready", null));
+
+    LangIdV3 langid = new LangIdV3();
+    assertEquals(new Response(200, json(langid, SENTENCES[0]) + "\n"),
+        request("POST", "/classify", SENTENCES[0]));
+
+    assertEquals(new Response(200, "[" + json(langid, SENTENCES[1]) + ", {\"lang\": null, \"confidence\": 0}, "
+        + json(langid, SENTENCES[2]) + "]\n"),
+        request("POST", "/classify/batch", SENTENCES[1] + "\n\r\n" + SENTENCES[2] + "\n"));
+    assertEquals(new Response(200, "[]\n"), request("POST", "/classify/batch", ""));
+
+    assertEquals(405, request("GET", "/classify", null).code);
+    StringBuilder large = new StringBuilder();
+    while (large.length() <= 1000) {
+      large.append(SENTENCES[0]);
+    }
+    assertEquals(413, request("POST", "/classify", large.toString()).code);
+
+    String metrics = request("GET", "/metrics", null).body;
+    assertTrue(metrics, metrics.contains("langid_server_documents_total 4\n"));
+    assertTrue(metrics, metrics.contains("langid_server_rejected_total 1\n"));
+    assertTrue(metrics, metrics.contains("langid_server_ready 1\n"));
+    assertTrue(metrics, metrics.contains("langid_language_wins_total{lang=\"en\"} 1\n"));
+  }
+
+  @Test
+  public void testConcurrentRequests() throws Exception {
+    final LangIdV3 langid = new LangIdV3();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    List<Thread> clients = new ArrayList<Thread>();
+    for (int t = randomIntBetween(2, 8); --t >= 0;) {
+      final long seed = randomLong();
+      clients.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            Random rnd = new Random(seed);
+            for (int i = 0; i < 20; i++) {
+              String sentence = SENTENCES[rnd.nextInt(SENTENCES.length)];
+              String expected;
+              synchronized (langid) {
+                expected = json(langid, sentence) + "\n";
+              }
+              Response response = request("POST", "/classify", sentence);
+              if (!response.equals(new Response(200, expected))) {
+                throw new AssertionError(sentence + " => " + response);
+              }
+            }
+          } catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      });
+    }
+    for (Thread t : clients) {
+      t.start();
+    }
+    for (Thread t : clients) {
+      t.join();
+    }
+    if (error.get() != null) {
+      throw new RuntimeException(error.get());
+    }
+
+    String metrics = request("GET", "/metrics", null).body;
+    assertTrue(metrics, metrics.contains("langid_server_documents_total " + (clients.size() * 20) + "\n"));
+  }
+
+  @Test
+  public void testMergedRequests() throws Exception {
+    // A single worker waiting long enough for all concurrent requests to arrive.
+    server.stop();
+    server = new LangIdServer(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0))
+      .setWorkers(1)
+      .setMaxBatch(64)
+      .setMaxBatchDelay(500, TimeUnit.MILLISECONDS);
+    server.start();
+    for (int i = 0; i < 600 && request("GET", "/ready", null).code != 200; i++) {
+      Thread.sleep(100);
+    }
+
+    final LangIdV3 langid = new LangIdV3();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final CountDownLatch latch = new CountDownLatch(1);
+    List<Thread> clients = new ArrayList<Thread>();
+    for (int t = 0; t < 8; t++) {
+      final String sentence = SENTENCES[t % SENTENCES.length];
+      final String expected = json(langid, sentence) + "\n";
+      clients.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            latch.await();
+            Response response = request("POST", "/classify", sentence);
+            if (!response.equals(new Response(200, expected))) {
+              throw new AssertionError(sentence + " => " + response);
+            }
+          } catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      });
+    }
+    for (Thread t : clients) {
+      t.start();
+    }
+    latch.countDown();
+    for (Thread t : clients) {
+      t.join();
+    }
+    if (error.get() != null) {
+      throw new RuntimeException(error.get());
+    }
+
+    String metrics = request("GET", "/metrics", null).body;
+    assertEquals(metrics, clients.size(), counter(metrics, "langid_server_documents_total"));
+    long passes = counter(metrics, "langid_server_passes_total");
+    assertTrue(metrics, passes >= 1 && passes < clients.size());
+  }
+
+  private static long counter(String metrics, String name) {
+    for (String line : metrics.split("\n")) {
+      if (line.startsWith(name + " ")) {
+        return Long.parseLong(line.substring(name.length() + 1));
+      }
+    }
+    throw new AssertionError("No metric: " + name);
+  }
+
+  private static String json(LangIdV3 langid, String text) {
+    DetectedLanguage result = langid.classify(text, true);
+    return "{\"lang\": \"" + result.langCode + "\", \"confidence\": " + result.confidence + "}";
+  }
+
+  private static final class Response {
+    final int code;
+    final String body;
+
+    Response(int code, String body) {
+      this.code = code;
+      this.body = body;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Response
+          && ((Response) other).code == code
+          && ((Response) other).body.equals(body);
+    }
+
+    @Override
+    public int hashCode() {
+      return code ^ body.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return code + ": " + body;
+    }
+  }
+
+  private Response request(String method, String path, String body) throws IOException {
+    URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    try {
+      conn.setRequestMethod(method);
+      if (body != null) {
+        conn.setDoOutput(true);
+        OutputStream os = conn.getOutputStream();
+        os.write(body.getBytes(Charsets.UTF_8));
+        os.close();
+      }
+      int code = conn.getResponseCode();
+      InputStream is = code < 400 ? conn.getInputStream() : conn.getErrorStream();
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      if (is != null) {
+        byte [] buffer = new byte [1024];
+        int read;
+        while ((read = is.read(buffer)) > 0) {
+          baos.write(buffer, 0, read);
+        }
+        is.close();
+      }
+      return new Response(code, new String(baos.toByteArray(), Charsets.UTF_8));
+    } finally {
+      conn.disconnect();
+    }
+  }
+}
@@ -1,6 +1,16 @@
 package com.carrotsearch.labs.langid;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -56,4 +66,211 @@ public class TestLangIdV3 extends RandomizedTest {
       assertEquals(c1, v1.classify(normalizeConfidence));
     }
   }
+
+  @Test
+  public void testSampledShortInput() {
+    LangIdV3 v1 = new LangIdV3();
+    for (int i = 0; i < 100; i++) {
+      String in = randomRealisticUnicodeOfCodepointLengthBetween(1, 100);
+      boolean normalizeConfidence = randomBoolean();
+      DetectedLanguage c1 = v1.classify(in, normalizeConfidence).clone();
+      assertEquals(c1, v1.classifySampled(in, 1000, normalizeConfidence));
+
+      byte [] bytes = in.getBytes(Charsets.UTF_8);
+      assertEquals(c1, v1.classifySampled(bytes, 0, bytes.length, 1000, normalizeConfidence));
+
+      // A budget of exactly the input's UTF8 length fits the entire input.
+      assertEquals(c1, v1.classifySampled(in, bytes.length, normalizeConfidence));
+      assertEquals(c1, v1.classifySampled(bytes, 0, bytes.length, bytes.length, normalizeConfidence));
+    }
+  }
+
+  @Test
+  public void testSampledLongInput() {
+    StringBuilder b = new StringBuilder();
+    b.append("Home | About us | Contact | Login | Register | Terms of service. ");
+    while (b.length() < 100000) {
+      b.append("W Szczebrzeszynie chrząszcz brzmi w trzcinie i Szczebrzeszyn z tego słynie. ");
+    }
+    String in = b.toString();
+    byte [] bytes = in.getBytes(Charsets.UTF_8);
+
+    LangIdV3 v1 = new LangIdV3();
+    for (int budget : new int [] {1, 100, 1000, 2000}) {
+      DetectedLanguage c1 = v1.classifySampled(in, budget, true).clone();
+      assertEquals(c1, v1.classifySampled(in, budget, true));
+      if (budget >= 100) {
+        assertEquals("pl", c1.langCode);
+      }
+
+      DetectedLanguage c2 = v1.classifySampled(bytes, 0, bytes.length, budget, true).clone();
+      assertEquals(c2, v1.classifySampled(bytes, 0, bytes.length, budget, true));
+      if (budget >= 100) {
+        assertEquals("pl", c2.langCode);
+      }
+    }
+  }
+
+  @Test
+  public void testResultHolders() {
+    LangIdV3 v1 = new LangIdV3();
+    Model model = v1.getModel();
+    DetectedLanguage holder = new DetectedLanguage(null, 0);
+    float [] confidences = new float [model.getLanguageCount()];
+    for (int i = 0; i < 200; i++) {
+      String in = randomRealisticUnicodeOfCodepointLengthBetween(1, 300);
+      boolean normalizeConfidence = randomBoolean();
+
+      DetectedLanguage c1 = v1.classify(in, normalizeConfidence).clone();
+      int index = v1.classify(in, normalizeConfidence, holder);
+      assertEquals(c1, holder);
+      assertEquals(c1.langCode, model.getLanguageCode(index));
+
+      assertEquals(index, v1.rank(normalizeConfidence, confidences));
+      List<DetectedLanguage> ranked = v1.rank(normalizeConfidence);
+      for (int c = 0; c < confidences.length; c++) {
+        assertEquals(model.getLanguageCode(c), ranked.get(c).langCode);
+        assertEquals(ranked.get(c).confidence, confidences[c], 1e-5f);
+      }
+      assertEquals(c1.confidence, confidences[index], 0f);
+    }
+  }
+
+  @Test
+  public void testClassifyAll() {
+    LangIdV3 v1 = new LangIdV3();
+    Model model = v1.getModel();
+    int count = randomIntBetween(0, 100);
+    int pad = randomIntBetween(0, 10);
+    int [] offsets = new int [count + 1 + randomIntBetween(0, 5)];
+    String [] inputs = new String [count];
+    ByteArrayOutputStream packed = new ByteArrayOutputStream();
+    packed.write(new byte [pad], 0, pad);
+    for (int i = 0; i < count; i++) {
+      inputs[i] = randomRealisticUnicodeOfCodepointLengthBetween(0, 300);
+      byte [] bytes = inputs[i].getBytes(Charsets.UTF_8);
+      packed.write(bytes, 0, bytes.length);
+      offsets[i + 1] = offsets[i] + bytes.length;
+    }
+    byte [] data = packed.toByteArray();
+    boolean normalizeConfidence = randomBoolean();
+
+    short [] langs = new short [count];
+    float [] confs = new float [count];
+    short [] bufferLangs = new short [count];
+    float [] bufferConfs = new float [count];
+    v1.classifyAll(Arrays.copyOfRange(data, pad, data.length), offsets, count, normalizeConfidence, langs, confs);
+
+    ByteBuffer buffer = randomBoolean() ? ByteBuffer.allocate(data.length) : ByteBuffer.allocateDirect(data.length);
+    buffer.put(data).position(pad);
+    v1.classifyAll(buffer, offsets, count, normalizeConfidence, bufferLangs, bufferConfs);
+    assertEquals(pad, buffer.position());
+    assertEquals(data.length, buffer.limit());
+
+    for (int i = 0; i < count; i++) {
+      v1.reset();
+      v1.append(ByteBuffer.wrap(inputs[i].getBytes(Charsets.UTF_8)));
+      DetectedLanguage expected = v1.classify(normalizeConfidence);
+      assertEquals(expected.langCode, model.getLanguageCode(langs[i]));
+      assertEquals(expected.confidence, confs[i], 0f);
+      assertEquals(langs[i], bufferLangs[i]);
+      assertEquals(confs[i], bufferConfs[i], 0f);
+    }
+  }
+
+  @Test
+  public void testCharsets() throws IOException {
+    LangIdV3 v1 = new LangIdV3();
+    String [] texts = {
+      "W Szczebrzeszynie chrząszcz brzmi w trzcinie. ",
+      "Der schnelle braune Fuchs springt über den faulen Hund. ",
+      "日本語の文章を書いています。",
+      "我们正在写中文的句子。",
+      "Mike McCandless rocks the boat. \ud83d\ude00 ",
+    };
+    String [] charsets = {
+      "UTF-8", "US-ASCII", "ISO-8859-2", "windows-1250", "Shift_JIS", "GB18030", "UTF-16LE", "ISO-2022-JP"
+    };
+
+    for (int i = 0; i < 20; i++) {
+      Charset charset = Charset.forName(randomFrom(charsets));
+      StringBuilder b = new StringBuilder();
+      for (int r = randomIntBetween(0, 500); --r >= 0;) {
+        b.append(randomFrom(texts));
+      }
+      byte [] bytes = b.toString().getBytes(charset);
+      if (rarely() && bytes.length > 0 && !charset.name().matches("UTF-8|US-ASCII")) {
+        // Malformed input (replaced, unless passed through).
+        bytes[randomIntBetween(0, bytes.length - 1)] = (byte) 0xff;
+      }
+      boolean normalizeConfidence = randomBoolean();
+
+      v1.reset();
+      byte [] utf8 = new String(bytes, charset).getBytes(Charsets.UTF_8);
+      v1.append(utf8, 0, utf8.length);
+      DetectedLanguage expected = v1.classify(normalizeConfidence);
+
+      // Short reads.
+      InputStream in = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+        @Override
+        public int read(byte [] b, int off, int len) throws IOException {
+          return super.read(b, off, Math.min(len, randomIntBetween(1, 5000)));
+        }
+      };
+      assertEquals(expected, v1.classify(in, charset, normalizeConfidence));
+
+      ByteBuffer buffer = randomBoolean() ? ByteBuffer.allocate(bytes.length) : ByteBuffer.allocateDirect(bytes.length);
+      buffer.put(bytes).flip();
+      assertEquals(expected, v1.classify(buffer, charset, normalizeConfidence));
+      assertFalse(buffer.hasRemaining());
+    }
+  }
+
+  @Test
+  public void testNoAllocation() {
+    ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+    assumeTrue(mxBean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mxBean;
+    assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+    long threadId = Thread.currentThread().getId();
+
+    String [] inputs = new String [10];
+    for (int i = 0; i < inputs.length; i++) {
+      inputs[i] = randomRealisticUnicodeOfCodepointLengthBetween(1, 5000);
+    }
+    LangIdV3 v1 = new LangIdV3();
+    DetectedLanguage holder = new DetectedLanguage(null, 0);
+    float [] confidences = new float [v1.getModel().getLanguageCount()];
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    int [] offsets = new int [inputs.length + 1];
+    for (int i = 0; i < inputs.length; i++) {
+      byte [] utf8 = inputs[i].getBytes(Charsets.UTF_8);
+      bytes.write(utf8, 0, utf8.length);
+      offsets[i + 1] = offsets[i] + utf8.length;
+    }
+    byte [] packed = bytes.toByteArray();
+    short [] langs = new short [inputs.length];
+    float [] confs = new float [inputs.length];
+
+    // Warm up and measure the overhead of the measurement itself.
+    long overhead = Long.MAX_VALUE;
+    for (int round = 0; round < 100; round++) {
+      for (String in : inputs) {
+        v1.classify(in, true, holder);
+        v1.rank(true, confidences);
+      }
+      v1.classifyAll(packed, offsets, inputs.length, true, langs, confs);
+      long before = threads.getThreadAllocatedBytes(threadId);
+      overhead = Math.min(overhead, threads.getThreadAllocatedBytes(threadId) - before);
+    }
+
+    long before = threads.getThreadAllocatedBytes(threadId);
+    for (String in : inputs) {
+      v1.classify(in, true, holder);
+      v1.rank(true, confidences);
+    }
+    v1.classifyAll(packed, offsets, inputs.length, true, langs, confs);
+    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+    assertTrue("Allocated: " + allocated, allocated <= overhead);
+  }
 }
@@ -0,0 +1,84 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.Repeat;
+import com.google.common.base.Charsets;
+
+public class TestMarkupByteFilter extends RandomizedTest {
+  private final static String PAGE =
+      "<!DOCTYPE html>\n" +
+      "<html><head><title>Wiadomości</title>\n" +
+      "<script type=\"text/javascript\">var x = '</p>'; if (a < b) { document.write(\"<b>Hello world</b>\"); }</script>\n" +
+      "<STYLE>body { font-family: \"Helvetica\"; }</STYLE>\n" +
+      "<!-- a comment with <tags> -- and dashes -->\n" +
+      "</head><body class='main' data-x=\"a > b\">" +
+      "<p>W Szczebrzeszynie chrz&#261;szcz brzmi w&nbsp;trzcinie &amp; &#x17C;&oacute;&#322;w</p>" +
+      "</body></html>";
+
+  @Test
+  public void testSimple() {
+    assertEquals("foo bar ", filter("foo<br/>bar<p>"));
+    assertEquals("text ", filter("<a href=\"http://foo.com?a=1&b=2\" title='x > y'>text</a>"));
+    assertEquals("a < b, c <= d", filter("a < b, c <= d"));
+    assertEquals("after", filter("<script>if (a<b) x = \"</scrip\" + \"t>\";</SCRIPT >after"));
+    assertEquals("after", filter("<!-- <p>comment</p> --->after"));
+    assertEquals("été & <x> \" € ą 😀",
+        filter("&eacute;t&#xe9; &amp; &lt;x&gt; &quot; &euro; &#261; &#x1F600;"));
+    assertEquals("&unknown; & &amp &#xZZ; &#0;", filter("&unknown; & &amp &#xZZ; &#0;"));
+  }
+
+  @Test
+  public void testPage() {
+    assertEquals("Wiadomości W Szczebrzeszynie chrząszcz brzmi w trzcinie & żółw",
+        filter(PAGE).replaceAll("\\s+", " ").trim());
+  }
+
+  /**
+   * Filtering must be independent of how the input is split.
+   */
+  @Test
+  @Repeat(iterations = 50)
+  public void testChunking() {
+    String in = PAGE + randomRealisticUnicodeOfCodepointLengthBetween(0, 100) + "&amp; &eacute";
+    byte [] bytes = in.getBytes(Charsets.UTF_8);
+
+    IByteFilter filter = randomBoolean()
+        ? new MarkupByteFilter()
+        : new ChainedByteFilter(new MarkupByteFilter(), new NormalizingByteFilter());
+    byte [] out = new byte [bytes.length + filter.maxHeldBack()];
+    int length = filter.filter(bytes, 0, bytes.length, out, 0);
+    length += filter.flush(out, length);
+    String expected = new String(out, 0, length, Charsets.UTF_8);
+
+    filter.reset();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    for (int i = 0; i < bytes.length;) {
+      int chunk = randomIntBetween(0, Math.min(bytes.length - i, 20));
+      baos.write(out, 0, filter.filter(bytes, i, chunk, out, 0));
+      i += chunk;
+    }
+    baos.write(out, 0, filter.flush(out, 0));
+
+    assertEquals(expected, new String(baos.toByteArray(), Charsets.UTF_8));
+  }
+
+  @Test
+  public void testClassification() {
+    LangIdV3 langid = new LangIdV3(Model.defaultModel(),
+        new ChainedByteFilter(new MarkupByteFilter(), new NormalizingByteFilter()));
+    assertEquals("pl", langid.classify(PAGE, true).langCode);
+  }
+
+  private static String filter(String in) {
+    byte [] bytes = in.getBytes(Charsets.UTF_8);
+    MarkupByteFilter filter = new MarkupByteFilter();
+    byte [] out = new byte [bytes.length + filter.maxHeldBack()];
+    int length = filter.filter(bytes, 0, bytes.length, out, 0);
+    length += filter.flush(out, length);
+    return new String(out, 0, length, Charsets.UTF_8);
+  }
+}
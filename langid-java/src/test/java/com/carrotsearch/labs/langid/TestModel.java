@@ -1,5 +1,10 @@
 package com.carrotsearch.labs.langid;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.util.Set;
 
 import org.junit.Test;
@@ -7,6 +12,7 @@ import org.junit.Test;
 import com.carrotsearch.randomizedtesting.RandomizedTest;
 import com.carrotsearch.randomizedtesting.annotations.Seed;
 import com.carrotsearch.randomizedtesting.annotations.Seeds;
+import com.google.common.base.Charsets;
 import com.google.common.collect.Sets;
 
 public class TestModel extends RandomizedTest {
@@ -28,6 +34,46 @@ public class TestModel extends RandomizedTest {
     }
   }
   
+  @Test
+  public void testWideAutomaton() throws Exception {
+    Model d = Model.defaultModel();
+    char [] dsaChar = new char [d.dsa.length];
+    int [] dsaInt = new int [d.dsa.length];
+    for (int i = 0; i < d.dsa.length; i++) {
+      dsaChar[i] = (char) d.dsa[i];
+      dsaInt[i] = d.dsa[i];
+    }
+    Model wide = randomBoolean()
+        ? new Model(d.langClasses, d.nb_ptc, d.nb_pc, null, dsaChar, null, d.dsaOutput)
+        : new Model(d.langClasses, d.nb_ptc, d.nb_pc, null, null, dsaInt, d.dsaOutput);
+    if (randomBoolean()) {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(baos);
+      wide.writeExternal(oos);
+      oos.close();
+      wide = Model.readExternal(new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())));
+      assertNull(wide.dsa);
+    }
+    assertArrayEquals(d.dsa, Model.create(d.langClasses, d.nb_ptc, d.nb_pc, dsaInt, d.dsaOutput).dsa);
+
+    LangIdV3 v1 = new LangIdV3(d);
+    LangIdV3 v2 = new LangIdV3(wide);
+    LangIdV3 v3 = new LangIdV3(wide, new NormalizingByteFilter());
+    LangIdV3 v4 = new LangIdV3(d, new NormalizingByteFilter());
+    for (int i = 0; i < 1000; i++) {
+      String in = randomRealisticUnicodeOfCodepointLengthBetween(1, 300);
+      assertEquals(v1.classify(in, true), v2.classify(in, true));
+      assertEquals(v4.classify(in, true), v3.classify(in, true));
+
+      byte [] bytes = in.getBytes(Charsets.UTF_8);
+      ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+      direct.put(bytes).flip();
+      v2.reset();
+      v2.append(direct);
+      assertEquals(v1.classify(in, false), v2.classify(false));
+    }
+  }
+
   @Test
   @Seeds(value = {
       @Seed,
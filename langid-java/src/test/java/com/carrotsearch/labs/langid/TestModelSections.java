@@ -0,0 +1,182 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+
+public class TestModelSections extends RandomizedTest {
+  @Test
+  public void testDefaultModel() {
+    assertSameModel(LzmaModel.load(), Model.loadDefaultModel());
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Model d = Model.defaultModel();
+    Model model = d;
+    if (randomBoolean()) {
+      int [] dsaInt = new int [d.dsa.length];
+      for (int i = 0; i < dsaInt.length; i++) {
+        dsaInt[i] = d.dsa[i];
+      }
+      model = new Model(d.langClasses, d.nb_ptc, d.nb_pc, null, null, dsaInt, d.dsaOutput);
+    }
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ModelSections.write(model, baos);
+    byte [] bytes = baos.toByteArray();
+
+    final ModelSections sections;
+    switch (randomIntBetween(0, 2)) {
+      case 0:
+        sections = ModelSections.open(ByteBuffer.wrap(bytes));
+        break;
+      case 1:
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 10);
+        direct.position(10);
+        direct.put(bytes).position(10);
+        sections = ModelSections.open(direct);
+        break;
+      default:
+        File file = new File(newTempDir(), "model.sections");
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(bytes);
+        fos.close();
+        sections = ModelSections.open(file);
+        break;
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(randomIntBetween(1, 4));
+    try {
+      assertSameModel(model, sections.setPool(pool).load());
+    } finally {
+      pool.shutdown();
+      pool.awaitTermination(1, TimeUnit.MINUTES);
+    }
+  }
+
+  @Test
+  public void testLoadSubset() throws Exception {
+    List<String> languages = new ArrayList<String>(Model.defaultModel().getDetectedLanguages());
+    Collections.shuffle(languages, getRandom());
+    Set<String> subset = new HashSet<String>(languages.subList(0, randomIntBetween(2, languages.size())));
+    if (randomBoolean()) {
+      subset.add("xx");
+    }
+
+    Model expected = Model.detectOnly(subset);
+    Model actual = Model.load(subset);
+    assertSameModel(expected, actual);
+    assertNotSame(expected.nb_ptc, actual.nb_ptc);
+
+    try {
+      Model.load(new HashSet<String>(Arrays.asList(languages.get(0), "xx")));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testCorruptedSection() throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ModelSections.write(Model.defaultModel(), baos);
+    byte [] bytes = baos.toByteArray();
+
+    // Drop a section of each type: NB_PC, NB_PTC, DSA, DSA_OUTPUT.
+    for (int type = 1; type <= 4; type++) {
+      try {
+        ModelSections.open(ByteBuffer.wrap(dropSection(bytes, type))).load();
+        fail("Section type " + type);
+      } catch (IOException e) {
+        // Expected.
+      }
+    }
+
+    // Damage the tail (automaton sections).
+    for (int i = bytes.length - 1000; i < bytes.length; i++) {
+      bytes[i] ^= 0x55;
+    }
+    try {
+      ModelSections.open(ByteBuffer.wrap(bytes)).load();
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+
+    try {
+      ModelSections.open(ByteBuffer.wrap(bytes, 0, 100)).load();
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  /**
+   * Remove a random section of the given type (both its header entry and data).
+   */
+  private byte [] dropSection(byte [] bytes, int type) {
+    ByteBuffer in = ByteBuffer.wrap(bytes);
+    // magic, version, features, states, encoding
+    in.position(4 + 4 + 4 + 4 + 1);
+    final int numSections = in.getInt();
+    final int tableStart = in.position();
+    final int entry = 1 + 4 + 4 + 4;
+
+    List<Integer> candidates = new ArrayList<Integer>();
+    int [] offsets = new int [numSections + 1];
+    offsets[0] = tableStart + numSections * entry;
+    for (int i = 0; i < numSections; i++) {
+      in.position(tableStart + i * entry);
+      if (in.get() == type) {
+        candidates.add(i);
+      }
+      in.getInt();
+      in.getInt();
+      offsets[i + 1] = offsets[i] + in.getInt();
+    }
+    final int drop = randomFrom(candidates);
+
+    ByteBuffer out = ByteBuffer.allocate(bytes.length - entry - (offsets[drop + 1] - offsets[drop]));
+    out.put(bytes, 0, tableStart - 4);
+    out.putInt(numSections - 1);
+    for (int i = 0; i < numSections; i++) {
+      if (i != drop) {
+        out.put(bytes, tableStart + i * entry, entry);
+      }
+    }
+    for (int i = 0; i < numSections; i++) {
+      if (i != drop) {
+        out.put(bytes, offsets[i], offsets[i + 1] - offsets[i]);
+      }
+    }
+    return out.array();
+  }
+
+  private static void assertSameModel(Model expected, Model actual) {
+    assertArrayEquals(expected.langClasses, actual.langClasses);
+    assertArrayEquals(expected.nb_pc, actual.nb_pc, 0f);
+    assertArrayEquals(expected.nb_ptc, actual.nb_ptc, 0f);
+    assertArrayEquals(expected.dsa, actual.dsa);
+    assertArrayEquals(expected.dsaChar, actual.dsaChar);
+    assertArrayEquals(expected.dsaInt, actual.dsaInt);
+    assertEquals(expected.dsaOutput.length, actual.dsaOutput.length);
+    for (int i = 0; i < expected.dsaOutput.length; i++) {
+      assertArrayEquals(expected.dsaOutput[i], actual.dsaOutput[i]);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class TestModelTrainer extends RandomizedTest {
+  private final static String [][] VOCABULARY = {
+    {"en", "the", "house", "and", "with", "which", "people", "government"},
+    {"pl", "się", "który", "przez", "będzie", "rząd", "ludzie", "także"},
+    {"de", "und", "der", "die", "haus", "nicht", "regierung", "menschen"},
+  };
+
+  @Test
+  public void testTrainAndClassify() throws Exception {
+    File dir = newTempDir();
+    File domain1 = new File(dir, "domain1.tsv");
+    File domain2 = new File(dir, "domain2.tsv");
+    Files.write(corpus(500, "Comments: "), domain1, Charsets.UTF_8);
+    Files.write(corpus(500, "Page title | "), domain2, Charsets.UTF_8);
+
+    ModelTrainer trainer = new ModelTrainer();
+    trainer.setDfTokens(500);
+    trainer.setFeaturesPerLanguage(50);
+    Model model = train(trainer, new ForkJoinPool(randomIntBetween(1, 4)), domain1, domain2);
+
+    assertEquals(Arrays.asList("de", "en", "pl"), Arrays.asList(model.langClasses));
+    assertEquals(model.nb_ptc.length, model.numClasses * model.numFeatures);
+
+    LangIdV3 langid = new LangIdV3(model);
+    for (String [] words : VOCABULARY) {
+      assertEquals(words[0], langid.classify(sentence(words), true).langCode);
+    }
+
+    // Same results regardless of parallelism.
+    Model sequential = train(trainer, new ForkJoinPool(1), domain1, domain2);
+    assertTrue(Arrays.equals(model.nb_ptc, sequential.nb_ptc));
+    assertTrue(Arrays.equals(model.dsa, sequential.dsa));
+
+    // A temporary pool.
+    trainer.setPool(null);
+    Model temporary = trainer.train(Arrays.asList(domain1, domain2));
+    assertTrue(Arrays.equals(model.nb_ptc, temporary.nb_ptc));
+  }
+
+  private static Model train(ModelTrainer trainer, ForkJoinPool pool, File... corpora) throws Exception {
+    try {
+      trainer.setPool(pool);
+      return trainer.train(Arrays.asList(corpora));
+    } finally {
+      pool.shutdown();
+      pool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void testAutomaton() {
+    long [] features = new long [randomIntBetween(1, 50)];
+    for (int i = 0; i < features.length; i++) {
+      int order = randomIntBetween(1, ModelTrainer.MAX_ORDER);
+      long ngram = 0;
+      for (int j = 0; j < order; j++) {
+        ngram = (ngram << 8) | randomIntBetween('a', 'd');
+      }
+      features[i] = ((long) order << 32) | ngram;
+    }
+    Arrays.sort(features);
+    features = unique(features);
+    ModelTrainer.Automaton automaton = new ModelTrainer.Automaton(features);
+
+    byte [] text = new byte [randomIntBetween(0, 200)];
+    for (int i = 0; i < text.length; i++) {
+      text[i] = (byte) randomIntBetween('a', 'e');
+    }
+
+    // Count matches using the automaton.
+    int [] counts = new int [features.length];
+    int state = 0;
+    for (byte b : text) {
+      state = automaton.dsa[(state << 8) + (b & 0xff)];
+      if (automaton.dsaOutput[state] != null) {
+        for (int f : automaton.dsaOutput[state]) {
+          counts[f]++;
+        }
+      }
+    }
+
+    // Brute force.
+    int [] expected = new int [features.length];
+    for (int f = 0; f < features.length; f++) {
+      byte [] ngram = ModelTrainer.ngramBytes(features[f]);
+      for (int i = 0; i + ngram.length <= text.length; i++) {
+        if (Arrays.equals(ngram, Arrays.copyOfRange(text, i, i + ngram.length))) {
+          expected[f]++;
+        }
+      }
+    }
+    assertTrue(Arrays.equals(expected, counts));
+  }
+
+  private static long [] unique(long [] sorted) {
+    int j = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        sorted[j++] = sorted[i];
+      }
+    }
+    return Arrays.copyOf(sorted, j);
+  }
+
+  private static String corpus(int documents, String prefix) {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < documents; i++) {
+      String [] words = VOCABULARY[i % VOCABULARY.length];
+      b.append(words[0]).append('\t').append(prefix).append(sentence(words)).append("\r\n");
+    }
+    return b.toString();
+  }
+
+  private static String sentence(String [] words) {
+    StringBuilder b = new StringBuilder();
+    for (int i = randomIntBetween(3, 10); --i >= 0;) {
+      b.append(words[randomIntBetween(1, words.length - 1)]).append(' ');
+    }
+    return b.toString();
+  }
+}
@@ -0,0 +1,108 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.Repeat;
+import com.google.common.base.Charsets;
+
+public class TestNormalizingByteFilter extends RandomizedTest {
+  @Test
+  public void testSimple() {
+    assertEquals("foo bar", filter("  foo \t\n bar  "));
+    assertEquals("visit or write", filter("visit http://www.carrotsearch.com or www.foo.org write info@carrotsearch.com"));
+    assertEquals("Monday March. th -PM", filter("Monday March. 6th 8-9PM 2002 ... -- 12:30"));
+    assertEquals("Salsa Caliente! lol?", filter("Salsa Caliente!!! lol???!"));
+    assertEquals("a@b a@b.", filter("@ a@b a@b. a@b.c"));
+    assertEquals("zażółć gęślą", filter("zażółć 1234 gęślą"));
+  }
+
+  @Test
+  public void testLongTokens() {
+    StringBuilder b = new StringBuilder("http://");
+    while (b.length() < 1000) b.append("abc/");
+    assertEquals("foo bar", filter("foo " + b + " bar"));
+
+    b.setLength(0);
+    while (b.length() < 1000) b.append("abc");
+    assertEquals("foo " + b + " bar", filter("foo " + b + " bar"));
+  }
+
+  /**
+   * Filtering must be independent of how the input is split.
+   */
+  @Test
+  @Repeat(iterations = 20)
+  public void testChunking() {
+    String in = randomRealisticUnicodeOfCodepointLengthBetween(0, 1000) +
+        " http://foo.com a@b.com 123 ";
+    byte [] bytes = in.getBytes(Charsets.UTF_8);
+
+    NormalizingByteFilter filter = new NormalizingByteFilter();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    byte [] out = new byte [bytes.length + filter.maxHeldBack()];
+    for (int i = 0; i < bytes.length;) {
+      int chunk = randomIntBetween(0, bytes.length - i);
+      baos.write(out, 0, filter.filter(bytes, i, chunk, out, 0));
+      i += chunk;
+    }
+    baos.write(out, 0, filter.flush(out, 0));
+
+    assertEquals(filter(in), new String(baos.toByteArray(), Charsets.UTF_8));
+  }
+
+  @Test
+  public void testClassification() {
+    LangIdV3 plain = new LangIdV3();
+    LangIdV3 filtered = new LangIdV3(Model.defaultModel(), new NormalizingByteFilter());
+
+    String in = "W Szczebrzeszynie chrząszcz brzmi w trzcinie";
+    assertEquals(plain.classify(in, true), filtered.classify(in, true));
+    assertEquals(plain.classify(in, true), filtered.classify(
+        "http://www.example.com/index.html " + in + " 12345 example@example.com", true));
+
+    filtered.reset();
+    filtered.append(in);
+    assertEquals("pl", filtered.classify(false).langCode);
+  }
+
+  @Test
+  @Repeat(iterations = 20)
+  public void testFilteredStream() throws Exception {
+    StringBuilder b = new StringBuilder();
+    for (int i = randomIntBetween(1, 2000); --i >= 0;) {
+      b.append(randomFrom(new String [] {"Chrząszcz", "brzmi", "w", "trzcinie", "http://foo.com", "123"}));
+      b.append(randomFrom(new String [] {" ", ", ", ". "}));
+    }
+    b.append("Szczebrzeszynie");
+    String in = b.toString();
+    byte [] bytes = in.getBytes(Charsets.UTF_8);
+    byte [] expectedBytes = filter(in).getBytes(Charsets.UTF_8);
+
+    // The held-back tail continues from the automaton's state, as if pre-filtered
+    // input was appended at once.
+    LangIdV3 plain = new LangIdV3();
+    plain.append(expectedBytes, 0, expectedBytes.length);
+    DetectedLanguage expected = plain.classify(false);
+
+    LangIdV3 filtered = new LangIdV3(Model.defaultModel(), new NormalizingByteFilter());
+    filtered.append(bytes, 0, bytes.length);
+    assertEquals(expected, filtered.classify(false));
+
+    DetectedLanguage actual = new DetectedLanguage(null, 0);
+    filtered.classify(new ByteArrayInputStream(bytes), Long.MAX_VALUE, 2f, false, actual);
+    assertEquals(expected, actual);
+  }
+
+  private static String filter(String in) {
+    byte [] bytes = in.getBytes(Charsets.UTF_8);
+    NormalizingByteFilter filter = new NormalizingByteFilter();
+    byte [] out = new byte [bytes.length + filter.maxHeldBack()];
+    int length = filter.filter(bytes, 0, bytes.length, out, 0);
+    length += filter.flush(out, length);
+    return new String(out, 0, length, Charsets.UTF_8);
+  }
+}
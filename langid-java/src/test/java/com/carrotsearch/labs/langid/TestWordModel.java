@@ -0,0 +1,94 @@
+package com.carrotsearch.labs.langid;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.google.common.collect.Sets;
+
+public class TestWordModel extends RandomizedTest {
+  @Test
+  public void testLookup() {
+    WordModel words = wordModel();
+    assertTrue(words.lookup("the", 0, 3) >= 0);
+    assertTrue(words.lookup("THE", 0, 3) >= 0);
+    assertEquals(words.lookup("ŻÓŁW", 0, 4), words.lookup("żółw", 0, 4));
+    assertTrue(words.lookup("żółw", 0, 4) >= 0);
+    assertTrue(words.lookup("x𝐀", 0, 3) >= 0);
+    assertEquals(-1, words.lookup("th", 0, 2));
+    assertEquals(-1, words.lookup("thee", 0, 4));
+    assertEquals(-1, words.lookup("foo", 0, 3));
+  }
+
+  @Test
+  public void testShortTexts() {
+    Model model = Model.detectOnly(Sets.newHashSet("en", "pl", "de")).withWordModel(wordModel());
+    LangIdV3 langid = new LangIdV3(model);
+
+    assertEquals("en", langid.classify("the house", true).langCode);
+    assertEquals("pl", langid.classify("Żółw i kot", true).langCode);
+    assertEquals("de", langid.classify("DAS Haus!", true).langCode);
+
+    // No known words or long input: n-gram classification.
+    LangIdV3 ngrams = new LangIdV3(Model.detectOnly(Sets.newHashSet("en", "pl", "de")));
+    for (String in : new String [] {
+        "W Szczebrzeszynie chrząszcz brzmi w trzcinie",
+        "Mike McCandless rocks",
+    }) {
+      assertEquals(ngrams.classify(in, false), langid.classify(in, false));
+    }
+  }
+
+  @Test
+  public void testMissingLanguages() {
+    try {
+      Model.detectOnly(Sets.newHashSet("en", "fr")).withWordModel(wordModel());
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    WordModel words = wordModel();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(baos);
+    words.writeExternal(oos);
+    oos.close();
+
+    WordModel copy = WordModel.readExternal(
+        new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())));
+    assertEquals(words.getLanguages(), copy.getLanguages());
+    for (String word : new String [] {"the", "żółw", "das", "foo"}) {
+      assertEquals(words.lookup(word, 0, word.length()), copy.lookup(word, 0, word.length()));
+    }
+  }
+
+  private static WordModel wordModel() {
+    Map<String, Map<String, Float>> logProbs = new LinkedHashMap<String, Map<String, Float>>();
+    Map<String, Float> floors = new LinkedHashMap<String, Float>();
+
+    logProbs.put("en", words("the", -3, "house", -8, "and", -4, "x𝐀", -10));
+    logProbs.put("pl", words("i", -3, "żółw", -9, "kot", -8, "w", -3));
+    logProbs.put("de", words("das", -3, "haus", -8, "und", -4, "kot", -12));
+    floors.put("en", -15f);
+    floors.put("pl", -15f);
+    floors.put("de", -15f);
+    return WordModel.build(logProbs, floors);
+  }
+
+  private static Map<String, Float> words(Object... wordsAndLogProbs) {
+    Map<String, Float> map = new LinkedHashMap<String, Float>();
+    for (int i = 0; i < wordsAndLogProbs.length; i += 2) {
+      map.put((String) wordsAndLogProbs[i], ((Number) wordsAndLogProbs[i + 1]).floatValue());
+    }
+    return map;
+  }
+}